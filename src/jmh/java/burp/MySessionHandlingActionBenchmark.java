@@ -0,0 +1,98 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.sessions.ActionResult;
+import burp.api.montoya.http.sessions.SessionHandlingActionData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import twilio.OTPHandler;
+import utils.AsyncLogger;
+import utils.ConfigurationParser;
+import utils.RuleType;
+
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Cost of the session-handling hook per request, for every rule type. The OTP is served from a
+ * warm cache so the numbers cover detection and rewriting only, not the Twilio round trip.
+ * Run with {@code gradle jmh}; allocation rates come from the gc profiler the task enables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MySessionHandlingActionBenchmark {
+    static final String PREFERENCES_NODE = "TwilioOTPAuthenticate-jmh";
+
+    @Param({"HEADER", "URL", "COOKIE", "BODY_PARAM", "BODY_REGEX", "BODY_FIELD"})
+    public RuleType ruleType;
+
+    @Param({"200", "65536", "5242880"})
+    public int bodySize;
+
+    @Param({"5", "50", "200"})
+    public int headerCount;
+
+    private Preferences configNode;
+    private AsyncLogger log;
+    private OTPHandler otpHandler;
+    private ConfigurationParser configParser;
+    private MySessionHandlingAction action;
+    private SessionHandlingActionData matchingRequest;
+    private SessionHandlingActionData nonMatchingRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeMontoya.installObjectFactory();
+        MontoyaApi api = FakeMontoya.api();
+
+        log = new AsyncLogger(api.logging());
+        otpHandler = new OTPHandler(api, log);
+        otpHandler.updateSettings("ACbenchmark", "token", "+15005550006", "+15005550001");
+        otpHandler.updateCacheSettings(86_400, 86_400);
+        otpHandler.acceptInboundMessage("+15005550006", "+15005550001", "Your verification code is 482913", "SMbenchmark");
+
+        configNode = Preferences.userRoot().node(PREFERENCES_NODE);
+        configParser = new ConfigurationParser(api, configNode, log);
+        configParser.saveToPreferences(ruleType.name(), RequestCorpus.PARAMETER_NAME);
+
+        action = new MySessionHandlingAction(api, otpHandler, configParser);
+        matchingRequest = FakeMontoya.actionData(RequestCorpus.build(ruleType, bodySize, headerCount, true));
+        nonMatchingRequest = FakeMontoya.actionData(RequestCorpus.build(ruleType, bodySize, headerCount, false));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BackingStoreException {
+        otpHandler.shutdown();
+        configParser.shutdown();
+        log.shutdown();
+        configNode.removeNode();
+    }
+
+    // Parameter present: detect, take the cached OTP and rewrite the request
+    @Benchmark
+    public ActionResult rewrite() {
+        return action.performAction(matchingRequest);
+    }
+
+    // Parameter absent: detection only, the request passes through unchanged
+    @Benchmark
+    public ActionResult skip() {
+        return action.performAction(nonMatchingRequest);
+    }
+}
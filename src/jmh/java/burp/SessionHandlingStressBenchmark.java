@@ -0,0 +1,160 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.sessions.ActionResult;
+import burp.api.montoya.http.sessions.SessionHandlingActionData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import twilio.FakeTwilioServer;
+import twilio.OTPHandler;
+import twilio.TwilioTransport;
+import utils.AsyncLogger;
+import utils.ConfigurationParser;
+import utils.RuleType;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Throughput of the session-handling path at scanner-like concurrency: 63 threads fire a corpus
+ * of requests at {@code performAction} while one more thread flips the injection rule through
+ * {@link ConfigurationParser#saveToPreferences} and sends new OTPs to a fake Twilio with the
+ * given latency. The consistency of the results under the same load is checked by
+ * {@code SessionHandlingStressTest}.
+ *
+ * Run with {@code gradle jmh -Pjmh.includes=SessionHandlingStressBenchmark}; JMH's {@code -tg}
+ * changes the thread split.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class SessionHandlingStressBenchmark {
+    static final String PREFERENCES_NODE = "TwilioOTPAuthenticate-jmh-stress";
+
+    private static final String FROM_NUMBER = "+15005550006";
+    private static final String TO_NUMBER = "+15005550001";
+    private static final String NAME_A = "X-OTP";
+    private static final String NAME_B = "otp_code";
+    private static final int BODY_SIZE = 512;
+    private static final int HEADER_COUNT = 20;
+
+    // Latency of every fake Twilio response
+    @Param({"0", "50"})
+    public int twilioLatencyMillis;
+
+    // How often the config thread flips the rule
+    @Param({"5"})
+    public int reconfigureMillis;
+
+    private Preferences configNode;
+    private FakeTwilioServer twilio;
+    private AsyncLogger log;
+    private OTPHandler otpHandler;
+    private ConfigurationParser configParser;
+    private MySessionHandlingAction action;
+    private SessionHandlingActionData[] corpus;
+
+    private boolean configB;
+    private int reconfigurations;
+    private int nextCode = 100_000;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        FakeMontoya.installObjectFactory();
+        MontoyaApi api = FakeMontoya.api();
+
+        twilio = new FakeTwilioServer();
+        twilio.setLatencyMillis(twilioLatencyMillis);
+        sendCode(Instant.now());
+
+        log = new AsyncLogger(api.logging());
+        otpHandler = new OTPHandler(api, log);
+        otpHandler.updateSettings("ACstress", "token", FROM_NUMBER, TO_NUMBER);
+        otpHandler.updateBaseUrl(twilio.baseUrl());
+        otpHandler.updateTransportSettings(TwilioTransport.Mode.JDK_HTTP2, 5000, 16);
+        // Short enough that fetches, and their latency, keep happening during the run
+        otpHandler.updateCacheSettings(1, 1);
+
+        configNode = Preferences.userRoot().node(PREFERENCES_NODE);
+        configParser = new ConfigurationParser(api, configNode, log);
+        configParser.saveToPreferences(RuleType.HEADER.name(), NAME_A);
+
+        action = new MySessionHandlingAction(api, otpHandler, configParser);
+
+        // Requests for either config, plus ones neither config rewrites
+        corpus = new SessionHandlingActionData[]{
+                entry(RuleType.HEADER, NAME_A),
+                entry(RuleType.URL, NAME_B),
+                entry(RuleType.HEADER, NAME_B),
+                entry(RuleType.URL, NAME_A),
+                entry(RuleType.COOKIE, NAME_A),
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BackingStoreException {
+        otpHandler.shutdown();
+        configParser.shutdown();
+        log.shutdown();
+        twilio.close();
+        configNode.removeNode();
+    }
+
+    @Benchmark
+    @Group("scan")
+    @GroupThreads(63)
+    public ActionResult performAction(Cursor cursor) {
+        return action.performAction(corpus[cursor.next++ % corpus.length]);
+    }
+
+    // Flips the rule between config A and B; every tenth flip a new OTP arrives
+    @Benchmark
+    @Group("scan")
+    @GroupThreads(1)
+    public void reconfigure() throws InterruptedException {
+        Thread.sleep(reconfigureMillis);
+        configB = !configB;
+        if (configB) {
+            configParser.saveToPreferences(RuleType.URL.name(), NAME_B);
+        } else {
+            configParser.saveToPreferences(RuleType.HEADER.name(), NAME_A);
+        }
+
+        if (++reconfigurations % 10 == 0) {
+            sendCode(Instant.now().plusSeconds(reconfigurations));
+        }
+    }
+
+    private void sendCode(Instant dateSent) {
+        String code = String.valueOf(++nextCode);
+        twilio.addMessage("SMstress" + code, FROM_NUMBER, TO_NUMBER, "Your verification code is " + code, dateSent);
+    }
+
+    private static SessionHandlingActionData entry(RuleType type, String name) {
+        return FakeMontoya.actionData(RequestCorpus.build(type, name, BODY_SIZE, HEADER_COUNT, true));
+    }
+}
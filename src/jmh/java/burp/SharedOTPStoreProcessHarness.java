@@ -0,0 +1,178 @@
+package burp;
+
+import twilio.FakeTwilioServer;
+import twilio.OTPHandler;
+import twilio.TwilioTransport;
+import utils.AsyncLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs several JVMs against one fake Twilio inbox, as several Burp instances on one machine
+ * would, first each on its own and then sharing a {@link twilio.SharedOTPStore} file, and
+ * compares how many Twilio requests each run made. A new code arrives every
+ * {@code codeIntervalMillis}; every instance serves codes from a few threads with a small use
+ * budget per code. The shared run fails if any instance serves a code that was never sent, or if
+ * the instances together serve a code more often than the budget allows.
+ *
+ * <p>Run with {@code gradle sharedStoreHarness [--args="<instances> <seconds>"]}.
+ */
+public class SharedOTPStoreProcessHarness {
+    private static final String FROM_NUMBER = "+15005550006";
+    private static final String TO_NUMBER = "+15005550001";
+    private static final int THREADS_PER_INSTANCE = 4;
+    private static final int USE_BUDGET = 3;
+    private static final long CODE_INTERVAL_MILLIS = 500;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("instance")) {
+            runInstance(args[1], args[2], Long.parseLong(args[3]));
+            return;
+        }
+
+        int instances = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+        Run isolated = run(instances, seconds, null);
+        Path storeFile = Files.createTempFile("shared-otp", ".dat");
+        Run shared;
+        try {
+            shared = run(instances, seconds, storeFile);
+        } finally {
+            Files.deleteIfExists(storeFile);
+        }
+
+        System.out.printf("%d instances, %ds, a new code every %dms%n", instances, seconds, CODE_INTERVAL_MILLIS);
+        System.out.printf("  isolated: %6d Twilio requests, %6d codes served%n", isolated.twilioRequests, isolated.served);
+        System.out.printf("  shared:   %6d Twilio requests, %6d codes served%n", shared.twilioRequests, shared.served);
+
+        for (Map.Entry<String, Long> entry : shared.uses.entrySet()) {
+            if (!shared.sentCodes.contains(entry.getKey())) {
+                throw new IllegalStateException("Served " + entry.getKey() + ", which was never sent");
+            }
+            if (entry.getValue() > USE_BUDGET) {
+                throw new IllegalStateException("Code " + entry.getKey() + " was served " + entry.getValue()
+                        + " times across instances; the budget is " + USE_BUDGET);
+            }
+        }
+        System.out.println("  every shared code was a sent one and stayed within its budget of " + USE_BUDGET);
+    }
+
+    private record Run(int twilioRequests, long served, Map<String, Long> uses, Set<String> sentCodes) {
+    }
+
+    // One run of every instance against a fresh inbox; storeFile null runs them without sharing
+    private static Run run(int instances, long seconds, Path storeFile) throws Exception {
+        Set<String> sentCodes = ConcurrentHashMap.newKeySet();
+        Map<String, Long> uses = new TreeMap<>();
+        long served = 0;
+
+        try (FakeTwilioServer twilio = new FakeTwilioServer()) {
+            Instant start = Instant.now();
+            int sequence = 0;
+            addCode(twilio, sentCodes, start, sequence++);
+
+            List<Process> processes = new ArrayList<>();
+            for (int i = 0; i < instances; i++) {
+                processes.add(new ProcessBuilder(javaExecutable(), "-cp", System.getProperty("java.class.path"),
+                        SharedOTPStoreProcessHarness.class.getName(), "instance", twilio.baseUrl(),
+                        storeFile == null ? "" : storeFile.toString(), String.valueOf(seconds))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+
+            long endAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+            while (System.currentTimeMillis() < endAt) {
+                Thread.sleep(CODE_INTERVAL_MILLIS);
+                addCode(twilio, sentCodes, start, sequence++);
+            }
+
+            // Each instance prints one "<code> <uses>" line per code it served
+            for (Process process : processes) {
+                try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        String[] fields = line.split(" ");
+                        long count = Long.parseLong(fields[1]);
+                        uses.merge(fields[0], count, Long::sum);
+                        served += count;
+                    }
+                }
+                if (process.waitFor() != 0) {
+                    throw new IllegalStateException("An instance exited with " + process.exitValue());
+                }
+            }
+            return new Run(twilio.getRequestCount(), served, uses, sentCodes);
+        }
+    }
+
+    private static void runInstance(String baseUrl, String storeFile, long seconds) throws Exception {
+        AsyncLogger log = new AsyncLogger(FakeMontoya.api().logging());
+        OTPHandler otpHandler = new OTPHandler(FakeMontoya.api(), log);
+        otpHandler.updateSettings("ACshared", "token", FROM_NUMBER, TO_NUMBER);
+        otpHandler.updateBaseUrl(baseUrl);
+        otpHandler.updateTransportSettings(TwilioTransport.Mode.JDK_HTTP2, 5000, 4);
+        // A short TTL keeps every instance fetching for the whole run
+        otpHandler.updateCacheSettings(1, 300);
+        otpHandler.updateUseBudget(USE_BUDGET);
+        // Poll for the next code about as often as codes arrive
+        otpHandler.updateFreshModeSettings(false, 60, (int) CODE_INTERVAL_MILLIS / 2);
+        if (!storeFile.isEmpty()) {
+            otpHandler.updateSharedStoreSettings(true, storeFile);
+        }
+
+        Map<String, AtomicLong> uses = new ConcurrentHashMap<>();
+        long endAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS_PER_INSTANCE; i++) {
+            Thread thread = new Thread(() -> {
+                while (System.currentTimeMillis() < endAt) {
+                    try {
+                        String code = otpHandler.getLatestOTPAsync("").get(CODE_INTERVAL_MILLIS * 4, TimeUnit.MILLISECONDS);
+                        uses.computeIfAbsent(code, ignored -> new AtomicLong()).incrementAndGet();
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        // Waiting for the next code timed out; try again
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        uses.forEach((code, count) -> System.out.println(code + " " + count.get()));
+        otpHandler.shutdown();
+        log.shutdown();
+        System.exit(0);
+    }
+
+    private static void addCode(FakeTwilioServer twilio, Set<String> sentCodes, Instant start, int sequence) {
+        String code = String.valueOf(100_000 + sequence);
+        sentCodes.add(code);
+        // One second apart, so each code is newer than the last at date_sent's precision
+        twilio.addMessage("SMshared" + code, FROM_NUMBER, TO_NUMBER, "Your verification code is " + code, start.plusSeconds(sequence));
+    }
+
+    private static String javaExecutable() {
+        return Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    }
+}
@@ -0,0 +1,155 @@
+package twilio;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.Http;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.internal.MontoyaObjectFactory;
+import burp.api.montoya.internal.ObjectFactoryLocator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of the Montoya API for {@link MontoyaTransport} to run outside Burp. Requests go
+ * out over a new {@link HttpURLConnection} with {@code Connection: close}, standing in for Burp's
+ * HTTP stack, which the extension cannot reuse connections on; Burp's own overhead is not modelled.
+ */
+final class LoopbackMontoya {
+
+    private LoopbackMontoya() {
+    }
+
+    static void installObjectFactory() {
+        ObjectFactoryLocator.FACTORY = proxy(MontoyaObjectFactory.class, (proxy, method, args) -> switch (method.getName()) {
+            case "httpRequest" -> new Request(null, "GET", "/", List.of()).toProxy();
+            case "httpService" -> service((String) args[0], (Integer) args[1], (Boolean) args[2]);
+            default -> throw new UnsupportedOperationException("Loopback factory does not support " + method.getName());
+        });
+    }
+
+    static MontoyaApi api() {
+        Http http = proxy(Http.class, (proxy, method, args) -> {
+            if (!method.getName().equals("sendRequest")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            HttpResponse response = send((HttpRequest) args[0]);
+            return proxy(HttpRequestResponse.class, (p, m, a) -> switch (m.getName()) {
+                case "response" -> response;
+                case "request" -> args[0];
+                default -> throw new UnsupportedOperationException(m.getName());
+            });
+        });
+        return proxy(MontoyaApi.class, (proxy, method, args) -> switch (method.getName()) {
+            case "http" -> http;
+            default -> throw new UnsupportedOperationException("Loopback API does not support " + method.getName());
+        });
+    }
+
+    private static HttpResponse send(HttpRequest request) {
+        HttpService service = request.httpService();
+        try {
+            URL url = new URL(service.secure() ? "https" : "http", service.host(), service.port(), request.path());
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            for (HttpHeader header : request.headers()) {
+                if (!header.name().equalsIgnoreCase("Host")) {
+                    connection.setRequestProperty(header.name(), header.value());
+                }
+            }
+            connection.setRequestProperty("Connection", "close");
+
+            int status = connection.getResponseCode();
+            byte[] body;
+            try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                body = input == null ? new byte[0] : input.readAllBytes();
+            }
+            List<HttpHeader> headers = new ArrayList<>();
+            for (Map.Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
+                if (entry.getKey() != null) {
+                    headers.add(header(entry.getKey(), entry.getValue().get(0)));
+                }
+            }
+            String reason = connection.getResponseMessage();
+            connection.disconnect();
+
+            return proxy(HttpResponse.class, (proxy, method, args) -> switch (method.getName()) {
+                case "statusCode" -> (short) status;
+                case "reasonPhrase" -> reason;
+                case "headers" -> headers;
+                case "body" -> byteArray(body);
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static HttpService service(String host, int port, boolean secure) {
+        return proxy(HttpService.class, (proxy, method, args) -> switch (method.getName()) {
+            case "host" -> host;
+            case "port" -> port;
+            case "secure" -> secure;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static HttpHeader header(String name, String value) {
+        return proxy(HttpHeader.class, (proxy, method, args) -> switch (method.getName()) {
+            case "name" -> name;
+            case "value" -> value;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static ByteArray byteArray(byte[] bytes) {
+        return proxy(ByteArray.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getBytes" -> bytes.clone();
+            case "length" -> bytes.length;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(LoopbackMontoya.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    // Immutable, like Burp's requests; only the builder methods MontoyaTransport uses are supported
+    private record Request(HttpService service, String method, String path, List<HttpHeader> headers) implements InvocationHandler {
+
+        private HttpRequest toProxy() {
+            return proxy(HttpRequest.class, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method invoked, Object[] args) {
+            return switch (invoked.getName()) {
+                case "withService" -> new Request((HttpService) args[0], method, path, headers).toProxy();
+                case "withMethod" -> new Request(service, (String) args[0], path, headers).toProxy();
+                case "withPath" -> new Request(service, method, (String) args[0], headers).toProxy();
+                case "withAddedHeader" -> {
+                    List<HttpHeader> updated = new ArrayList<>(headers);
+                    updated.add(header((String) args[0], (String) args[1]));
+                    yield new Request(service, method, path, updated).toProxy();
+                }
+                case "httpService" -> service;
+                case "method" -> method;
+                case "path" -> path;
+                case "headers" -> headers;
+                default -> throw new UnsupportedOperationException("Loopback request does not support " + invoked.getName());
+            };
+        }
+    }
+}
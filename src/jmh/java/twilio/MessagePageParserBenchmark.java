@@ -0,0 +1,113 @@
+package twilio;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming extraction against the previous readTree path over a Messages.json page shaped like
+ * Twilio's, with the OTP in either the newest or the oldest message on the page.
+ * Run with {@code gradle jmh -Pjmh.includes=MessagePageParserBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessagePageParserBenchmark {
+    private static final String FROM = "+15005550006";
+    private static final String TO = "+15005550001";
+    private static final Pattern OTP_REGEX = Pattern.compile("\\b\\d{4,6}\\b");
+
+    @Param({"1", "20", "100"})
+    public int pageSize;
+
+    @Param({"first", "last"})
+    public String otpPosition;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MessagePageParser parser = new MessagePageParser(new OTPExtractor(List.of(OTPTemplate.anyDigits())));
+    private byte[] page;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("first_page_uri", "/2010-04-01/Accounts/ACbenchmark/Messages.json?PageSize=" + pageSize + "&Page=0");
+        root.put("end", pageSize - 1);
+        root.putNull("previous_page_uri");
+        ArrayNode messages = root.putArray("messages");
+        for (int i = 0; i < pageSize; i++) {
+            boolean hasOtp = "first".equals(otpPosition) ? i == 0 : i == pageSize - 1;
+            String sid = String.format("SM%032d", i);
+            ObjectNode message = messages.addObject();
+            message.put("body", hasOtp ? "Your verification code is 482913" : "Your order has shipped and is on its way.");
+            message.put("num_segments", "1");
+            message.put("direction", "inbound");
+            message.put("from", FROM);
+            message.put("date_updated", "Thu, 30 Jul 2015 20:12:33 +0000");
+            message.put("price", "-0.00750");
+            message.putNull("error_message");
+            message.put("uri", "/2010-04-01/Accounts/ACbenchmark/Messages/" + sid + ".json");
+            message.put("account_sid", "ACbenchmark");
+            message.put("num_media", "0");
+            message.put("to", TO);
+            message.put("date_created", "Thu, 30 Jul 2015 20:12:31 +0000");
+            message.put("status", "received");
+            message.put("sid", sid);
+            message.put("date_sent", "Thu, 30 Jul 2015 20:12:33 +0000");
+            message.putNull("messaging_service_sid");
+            message.putNull("error_code");
+            message.put("price_unit", "USD");
+            message.put("api_version", "2010-04-01");
+            message.putObject("subresource_uris").put("media", "/2010-04-01/Accounts/ACbenchmark/Messages/" + sid + "/Media.json");
+        }
+        root.put("uri", "/2010-04-01/Accounts/ACbenchmark/Messages.json?PageSize=" + pageSize + "&Page=0");
+        root.put("page_size", pageSize);
+        root.put("start", 0);
+        root.putNull("next_page_uri");
+        root.put("page", 0);
+        page = objectMapper.writeValueAsBytes(root);
+    }
+
+    @Benchmark
+    public FetchedOTP streaming() throws IOException {
+        return parser.parse(page, FROM, TO, null, null).otp();
+    }
+
+    // The previous path: decode the body to a String, build the whole tree, then walk it
+    @Benchmark
+    public FetchedOTP tree() throws IOException {
+        JsonNode rootNode = objectMapper.readTree(new String(page, StandardCharsets.UTF_8));
+        for (JsonNode message : rootNode.path("messages")) {
+            Matcher matcher = OTP_REGEX.matcher(message.path("body").asText());
+            if (matcher.find()) {
+                return new FetchedOTP(
+                        matcher.group(),
+                        message.path("sid").asText(null),
+                        MessagePageParser.parseDateSent(message.path("date_sent").asText(null)));
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package twilio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OTP extraction over a mix of real-world SMS bodies: the previous hard-coded regex, the same
+ * rule as a scanner template, anchored scanner templates, and those anchored templates written
+ * as regex templates. Run with {@code gradle jmh -Pjmh.includes=OTPExtractorBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OTPExtractorBenchmark {
+    private static final String BANK = "+15005550006";
+    private static final Pattern LEGACY_REGEX = Pattern.compile("\\b\\d{4,6}\\b");
+
+    private static final String[] FROM = {BANK, "+15005550007", "+15005550008", "+15005550009", BANK, "+15005550010"};
+    private static final String[] BODIES = {
+            "Your verification code is 482913",
+            "Order 12345: your code is 839201. Reply STOP to opt out.",
+            "G-582913 is your Google verification code.",
+            "Your Acme login code: 771204. It expires in 10 minutes. Do not share it with anyone.",
+            "[Bank] 0483 is your one-time passcode for the card ending 7781. Never share this code.",
+            "Use ABC7X2 to sign in to Example. This code expires in 5 minutes.",
+    };
+    private static final int MESSAGES = 6;
+
+    private final OTPExtractor anyDigits = new OTPExtractor(List.of(OTPTemplate.anyDigits()));
+
+    private final OTPExtractor anchored = new OTPExtractor(List.of(
+            new OTPTemplate(BANK, null, "is your one-time passcode", OTPTemplate.Charset.DIGITS, 4, 4, null),
+            new OTPTemplate(null, "code is", null, OTPTemplate.Charset.DIGITS, 6, 6, null),
+            new OTPTemplate(null, "code:", null, OTPTemplate.Charset.DIGITS, 6, 6, null),
+            new OTPTemplate(null, "G-", "is your", OTPTemplate.Charset.DIGITS, 6, 6, null),
+            new OTPTemplate(null, "Use", "to sign in", OTPTemplate.Charset.ALPHANUMERIC, 6, 6, null)));
+
+    private final OTPExtractor anchoredRegex = new OTPExtractor(List.of(
+            new OTPTemplate(BANK, null, null, OTPTemplate.Charset.DIGITS, 4, 4, "(?i)\\b(\\d{4})\\W+is your one-time passcode"),
+            new OTPTemplate(null, null, null, OTPTemplate.Charset.DIGITS, 6, 6, "(?i)code is\\W*\\b(\\d{6})\\b"),
+            new OTPTemplate(null, null, null, OTPTemplate.Charset.DIGITS, 6, 6, "(?i)code:\\W*\\b(\\d{6})\\b"),
+            new OTPTemplate(null, null, null, OTPTemplate.Charset.DIGITS, 6, 6, "(?i)G-(\\d{6})\\W+is your"),
+            new OTPTemplate(null, null, null, OTPTemplate.Charset.ALPHANUMERIC, 6, 6, "(?i)Use\\W+\\b([A-Za-z0-9]*\\d[A-Za-z0-9]*)\\b\\W+to sign in")));
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void legacyRegex(Blackhole blackhole) {
+        for (String body : BODIES) {
+            Matcher matcher = LEGACY_REGEX.matcher(body);
+            blackhole.consume(matcher.find() ? matcher.group() : null);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void anyDigitsScanner(Blackhole blackhole) {
+        for (int i = 0; i < MESSAGES; i++) {
+            blackhole.consume(anyDigits.extract(FROM[i], BODIES[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void anchoredScanner(Blackhole blackhole) {
+        for (int i = 0; i < MESSAGES; i++) {
+            blackhole.consume(anchored.extract(FROM[i], BODIES[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void anchoredRegex(Blackhole blackhole) {
+        for (int i = 0; i < MESSAGES; i++) {
+            blackhole.consume(anchoredRegex.extract(FROM[i], BODIES[i]));
+        }
+    }
+}
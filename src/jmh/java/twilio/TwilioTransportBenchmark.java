@@ -0,0 +1,83 @@
+package twilio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One Messages.json fetch per operation against {@link FakeTwilioServer}, through each transport.
+ * The stand-in speaks plain HTTP/1.1, so JDK_HTTP2 shows the gain from connection reuse only;
+ * stream multiplexing needs a TLS endpoint that negotiates h2, such as the real API.
+ * Run with {@code gradle jmh -Pjmh.includes=TwilioTransportBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TwilioTransportBenchmark {
+    private static final String FROM = "+15005550006";
+    private static final String TO = "+15005550001";
+
+    @Param({"MONTOYA", "JDK_HTTP2"})
+    public TwilioTransport.Mode mode;
+
+    private FakeTwilioServer server;
+    private TwilioTransport transport;
+    private URI baseUrl;
+    private String path;
+    private String authorization;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new FakeTwilioServer();
+        server.addMessage("SMbenchmark", FROM, TO, "Your verification code is 482913", Instant.now());
+        baseUrl = URI.create(server.baseUrl());
+        path = "/2010-04-01/Accounts/ACbenchmark/Messages.json?From=%2B15005550006&To=%2B15005550001&PageSize=1";
+        authorization = "Basic " + Base64.getEncoder().encodeToString("ACbenchmark:token".getBytes(StandardCharsets.UTF_8));
+
+        if (mode == TwilioTransport.Mode.MONTOYA) {
+            LoopbackMontoya.installObjectFactory();
+            transport = new MontoyaTransport(LoopbackMontoya.api());
+        } else {
+            transport = new JdkHttpTransport(10_000, 16);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transport.close();
+        server.close();
+    }
+
+    @Benchmark
+    public TwilioResponse fetch() throws IOException, InterruptedException {
+        return transport.get(baseUrl, path, authorization);
+    }
+
+    // Many scanner threads fetching at once, as when the OTP cache is disabled
+    @Benchmark
+    @Threads(8)
+    public TwilioResponse fetchConcurrently() throws IOException, InterruptedException {
+        return transport.get(baseUrl, path, authorization);
+    }
+}
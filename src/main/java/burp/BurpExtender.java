@@ -5,6 +5,7 @@ import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.http.sessions.SessionHandlingAction;
 import twilio.OTPHandler;
 import twilio.OTPDisplayPanel;
+import utils.AsyncLogger;
 import utils.ConfigurationParser;
 
 public class BurpExtender implements BurpExtension {
@@ -15,9 +16,10 @@ public class BurpExtender implements BurpExtension {
         api.extension().setName(EXTENSION_NAME);
 
         try {
-            // Initialize components
-            ConfigurationParser configParser = new ConfigurationParser(api);
-            OTPHandler otpHandler = new OTPHandler(api);
+            // Initialize components; they share one background logger
+            AsyncLogger log = new AsyncLogger(api.logging());
+            ConfigurationParser configParser = new ConfigurationParser(api, log);
+            OTPHandler otpHandler = new OTPHandler(api, log);
             OTPDisplayPanel otpDisplayPanel = new OTPDisplayPanel(api, otpHandler, configParser);
 
             // Register the session handling action
@@ -28,12 +30,15 @@ public class BurpExtender implements BurpExtension {
             api.userInterface().registerSuiteTab(EXTENSION_NAME, otpDisplayPanel);
 
             // Register unloading handler
-            api.extension().registerUnloadingHandler(() ->
-                    api.logging().logToOutput(EXTENSION_NAME + " unloaded.")
-            );
+            api.extension().registerUnloadingHandler(() -> {
+                otpHandler.shutdown();
+                configParser.shutdown();
+                log.info("{} unloaded.", EXTENSION_NAME);
+                log.shutdown();
+            });
 
             // Log success message
-            api.logging().logToOutput(EXTENSION_NAME + " loaded successfully.");
+            log.info("{} loaded successfully.", EXTENSION_NAME);
         } catch (Exception e) {
             api.logging().logToError(EXTENSION_NAME + " - Initialization error: " + e.getMessage());
         }
@@ -1,5 +1,7 @@
 package burp;
 
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
 import burp.api.montoya.http.message.HttpHeader;
 import burp.api.montoya.http.message.params.HttpParameterType;
 import burp.api.montoya.http.message.params.ParsedHttpParameter;
@@ -9,9 +11,15 @@ import burp.api.montoya.http.sessions.SessionHandlingAction;
 import burp.api.montoya.http.sessions.SessionHandlingActionData;
 import burp.api.montoya.MontoyaApi;
 import twilio.OTPHandler;
+import utils.AsyncLogger;
+import utils.BodyFieldScanner;
 import utils.ConfigurationParser;
+import utils.InjectionRule;
+import utils.RuleDispatchIndex;
 import utils.RuleType;
+import utils.StructuredBodyRewriter;
 
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,11 +30,13 @@ public class MySessionHandlingAction implements SessionHandlingAction {
     private final MontoyaApi api;
     private final OTPHandler otpHandler;
     private final ConfigurationParser configParser;
+    private final AsyncLogger log;
 
     public MySessionHandlingAction(MontoyaApi api, OTPHandler otpHandler, ConfigurationParser configParser) {
         this.api = api;
         this.otpHandler = otpHandler;
         this.configParser = configParser;
+        this.log = otpHandler.getLogger();
     }
 
     @Override
@@ -36,52 +46,213 @@ public class MySessionHandlingAction implements SessionHandlingAction {
 
     @Override
     public ActionResult performAction(SessionHandlingActionData actionData) {
-        RuleType ruleType = configParser.getRuleType();
-        String parameterName = configParser.getParameterName();
-        Pattern replacementPattern = configParser.getReplacementPattern();
+        long startedAt = System.nanoTime();
+        otpHandler.recordSessionTraffic();
+        HttpRequest request = actionData.request();
+        RuleDispatchIndex dispatchIndex = configParser.getDispatchIndex();
 
-        if (ruleType == null || parameterName == null){
-            api.logging().logToError("Invalid configuration: RuleType or ParameterName is missing.");
-            return ActionResult.actionResult(actionData.request());
+        if (dispatchIndex.isEmpty()) {
+            log.error("Invalid configuration: no injection rules configured.");
+            return ActionResult.actionResult(request);
         }
 
-        HttpRequest request = actionData.request();
+        HttpService service = request.httpService();
+        List<InjectionRule> rules = dispatchIndex.match(service != null ? service.host() : null, request.path(), request.method());
 
-        boolean shouldFetchOtp = switch (ruleType) {
-            case HEADER -> isParameterNamePresentInHeaders(request, parameterName);
-            case URL, COOKIE, BODY_PARAM ->
-                    isParameterNamePresentInParameters(request, ruleType.toParameterType(), parameterName);
-            case BODY_REGEX -> {
-                if (replacementPattern == null) {
-                    api.logging().logToError("Replacement pattern not initialized.");
-                    yield false;
+        // Detect every matching rule first, so the OTP is fetched at most once per request
+        byte[] body = null;
+        boolean[] present = new boolean[rules.size()];
+        BodyFieldScanner.Match[] bodyMatches = new BodyFieldScanner.Match[rules.size()];
+        StructuredBodyRewriter.Match[] fieldMatches = new StructuredBodyRewriter.Match[rules.size()];
+        String contentType = null;
+        boolean shouldFetchOtp = false;
+
+        for (int i = 0; i < rules.size(); i++) {
+            InjectionRule rule = rules.get(i);
+            String parameterName = rule.getParameterName();
+
+            present[i] = switch (rule.getRuleType()) {
+                case HEADER -> isParameterNamePresentInHeaders(request, parameterName);
+                case URL, COOKIE, BODY_PARAM ->
+                        isParameterNamePresentInParameters(request, rule.getRuleType().toParameterType(), parameterName);
+                case BODY_REGEX -> {
+                    if (rule.getBodyFieldScanner() != null) {
+                        if (body == null) {
+                            body = request.body().getBytes();
+                        }
+                        bodyMatches[i] = rule.getBodyFieldScanner().find(body);
+                        yield bodyMatches[i] != null;
+                    }
+                    yield rule.getReplacementPattern().matcher(request.bodyToString()).find();
                 }
-                yield replacementPattern.matcher(request.bodyToString()).find();
-            }
-        };
+                case BODY_FIELD -> {
+                    if (body == null) {
+                        body = request.body().getBytes();
+                    }
+                    if (contentType == null) {
+                        contentType = contentTypeOf(request);
+                    }
+                    fieldMatches[i] = rule.getBodyRewriter().find(body, contentType);
+                    yield fieldMatches[i] != null;
+                }
+            };
+            shouldFetchOtp |= present[i];
+        }
+
         if (!shouldFetchOtp){
-            //api.logging().logToOutput("Skipping OTP fetch: Parameter not found in request.");
+            log.debug("Skipping OTP fetch: Parameter not found in request.");
+            otpHandler.getMetrics().recordSkip();
             return ActionResult.actionResult(request);
-                }
+        }
         String latestOtp;
 
         try {
-            latestOtp = otpHandler.getLatestOTPAsync().get();
-        //    api.logging().logToOutput("Generated OTP: " + latestOtp);
+            latestOtp = otpHandler.acquireOTP(extractSessionKey(request, body));
+            log.debug("Generated OTP: {}", latestOtp);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting for OTP.");
+            return ActionResult.actionResult(request);
         } catch (Exception e) {
-            api.logging().logToError("Failed to generate OTP: " + e.getMessage());
+            log.error("Failed to generate OTP: {}", e.getMessage());
+            return ActionResult.actionResult(request);
+        }
+        if (latestOtp == null) {
+            // Missed the acquisition deadline with the pass-through policy
             return ActionResult.actionResult(request);
         }
 
-        HttpRequest newRequest = switch (ruleType) {
-            case HEADER -> updateOrAddTokenInHeader(request, parameterName, latestOtp);
-            case URL, COOKIE, BODY_PARAM ->
-                    updateOrAddTokenInParameter(request, ruleType.toParameterType(), parameterName, latestOtp);
-            case BODY_REGEX -> updateTokenInBody(request, parameterName, latestOtp, replacementPattern);
-        };
+        // Body rewrites run first, on the bytes scanned above, so body parameter updates made
+        // through Burp afterwards are not overwritten by a stale copy of the body
+        HttpRequest newRequest = request;
+        byte[] currentBody = body;
+        boolean bodyChanged = false;
+
+        for (int i = 0; i < rules.size(); i++) {
+            InjectionRule rule = rules.get(i);
+            if (!present[i] || (rule.getRuleType() != RuleType.BODY_REGEX && rule.getRuleType() != RuleType.BODY_FIELD)) {
+                continue;
+            }
+
+            if (rule.getRuleType() == RuleType.BODY_FIELD) {
+                StructuredBodyRewriter rewriter = rule.getBodyRewriter();
+                if (currentBody == null) {
+                    currentBody = newRequest.body().getBytes();
+                }
+                StructuredBodyRewriter.Match match = (currentBody == body) ? fieldMatches[i] : rewriter.find(currentBody, contentType);
+                if (match != null) {
+                    currentBody = rewriter.replace(currentBody, match, latestOtp);
+                    bodyChanged = true;
+                } else {
+                    log.error("Field '{}' not found in the body.", rule.getParameterName());
+                }
+                continue;
+            }
+
+            BodyFieldScanner scanner = rule.getBodyFieldScanner();
+            if (scanner != null) {
+                if (currentBody == null) {
+                    currentBody = newRequest.body().getBytes();
+                }
+                BodyFieldScanner.Match match = (currentBody == body) ? bodyMatches[i] : scanner.find(currentBody);
+                if (match != null) {
+                    currentBody = scanner.replace(currentBody, match, latestOtp);
+                    bodyChanged = true;
+                } else {
+                    log.error("Parameter '{}' not found in the body.", rule.getParameterName());
+                }
+            } else {
+                if (bodyChanged) {
+                    newRequest = newRequest.withBody(ByteArray.byteArray(currentBody));
+                    bodyChanged = false;
+                }
+                newRequest = updateTokenInBody(newRequest, rule.getParameterName(), latestOtp, rule.getReplacementPattern());
+                currentBody = null;
+            }
+        }
+        if (bodyChanged) {
+            newRequest = newRequest.withBody(ByteArray.byteArray(currentBody));
+        }
+
+        for (int i = 0; i < rules.size(); i++) {
+            InjectionRule rule = rules.get(i);
+            if (!present[i]) {
+                continue;
+            }
+            newRequest = switch (rule.getRuleType()) {
+                case HEADER -> updateOrAddTokenInHeader(newRequest, rule.getParameterName(), latestOtp);
+                case URL, COOKIE, BODY_PARAM ->
+                        updateOrAddTokenInParameter(newRequest, rule.getRuleType().toParameterType(), rule.getParameterName(), latestOtp);
+                case BODY_REGEX, BODY_FIELD -> newRequest;
+            };
+        }
+
+        recordPerformAction(rules, present, System.nanoTime() - startedAt);
         return ActionResult.actionResult(newRequest);
     }
 
+    // The request's total time counts once towards each rule type that was injected
+    private void recordPerformAction(List<InjectionRule> rules, boolean[] present, long nanos) {
+        int recorded = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            int bit = 1 << rules.get(i).getRuleType().ordinal();
+            if (present[i] && (recorded & bit) == 0) {
+                otpHandler.getMetrics().recordPerformAction(rules.get(i).getRuleType(), nanos);
+                recorded |= bit;
+            }
+        }
+    }
+
+    // Identifies the scanner session so it keeps drawing OTPs from the same pool number
+    private String extractSessionKey(HttpRequest request, byte[] body) {
+        RuleType keyType = otpHandler.getSessionKeyType();
+        String keyName = otpHandler.getSessionKeyName();
+        if (keyType == null || otpHandler.getShards().size() == 1) {
+            return null;
+        }
+
+        return switch (keyType) {
+            case HEADER -> {
+                for (HttpHeader h : request.headers()) {
+                    if (h.name().equalsIgnoreCase(keyName)) {
+                        yield h.value();
+                    }
+                }
+                yield null;
+            }
+            case URL, COOKIE, BODY_PARAM -> {
+                for (ParsedHttpParameter p : request.parameters()) {
+                    if (p.type().equals(keyType.toParameterType()) && p.name().equalsIgnoreCase(keyName)) {
+                        yield p.value();
+                    }
+                }
+                yield null;
+            }
+            case BODY_REGEX -> {
+                BodyFieldScanner scanner = otpHandler.getSessionKeyScanner();
+                byte[] bytes = body != null ? body : request.body().getBytes();
+                BodyFieldScanner.Match match = scanner.find(bytes);
+                yield match != null ? scanner.value(bytes, match) : null;
+            }
+            case BODY_FIELD -> {
+                StructuredBodyRewriter field = otpHandler.getSessionKeyField();
+                byte[] bytes = body != null ? body : request.body().getBytes();
+                StructuredBodyRewriter.Match match = field.find(bytes, contentTypeOf(request));
+                yield match != null ? field.value(bytes, match) : null;
+            }
+        };
+    }
+
+    // The Content-Type header's value, or "" without one
+    private static String contentTypeOf(HttpRequest request) {
+        for (HttpHeader h : request.headers()) {
+            if (h.name().equalsIgnoreCase("Content-Type")) {
+                return h.value();
+            }
+        }
+        return "";
+    }
+
     private HttpRequest updateOrAddTokenInHeader(HttpRequest request, String parameterName, String latestOtp) {
         return isParameterNamePresentInHeaders(request, parameterName)
                 ? request.withUpdatedHeader(httpHeader(parameterName, latestOtp))
@@ -98,7 +269,7 @@ public class MySessionHandlingAction implements SessionHandlingAction {
         String body = request.bodyToString();
 
         if (replacementPattern == null) {
-            api.logging().logToError("Replacement pattern not initialized.");
+            log.error("Replacement pattern not initialized.");
             return request;
         }
 
@@ -106,10 +277,10 @@ public class MySessionHandlingAction implements SessionHandlingAction {
 
         if (matcher.find()) {
             String updatedBody = matcher.replaceFirst("\"" + parameterName + "\":\"" + latestOtp + "\"");
-        //    api.logging().logToOutput("Updated request body with OTP: " + updatedBody);
+            log.debug("Updated request body with OTP: {}", updatedBody);
             return request.withBody(updatedBody);
         } else {
-            api.logging().logToError("Parameter '" + parameterName + "' not found in the body.");
+            log.error("Parameter '{}' not found in the body.", parameterName);
             return request;
         }
     }
@@ -0,0 +1,108 @@
+package twilio;
+
+/**
+ * Circuit breaker in front of Twilio. After {@code failureThreshold} consecutive throttled or
+ * failed requests it opens and rejects calls straight away for the open period, or for as long
+ * as Twilio's {@code Retry-After} asks if that is longer. Then a single probe request is let
+ * through (half-open): success closes the circuit, failure opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of calling Twilio while the circuit is open.
+     */
+    public static class OpenException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String message) {
+            super(message);
+        }
+    }
+
+    private volatile int failureThreshold;
+    private volatile long openMillis;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        configure(failureThreshold, openMillis);
+    }
+
+    public void configure(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Admits a request, or throws {@link OpenException} while the circuit is open or its probe is
+     * still outstanding.
+     */
+    public synchronized void acquire() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN && now >= openUntil) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return;
+        }
+        throw new OpenException("Twilio circuit is open; retrying in " + Math.max(0, openUntil - now) + " ms.");
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    // A throttled or failed request; retryAfterMillis is Twilio's Retry-After, or 0
+    public synchronized void recordFailure(long retryAfterMillis) {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + Math.max(openMillis, retryAfterMillis);
+        }
+    }
+
+    // The admitted request was never sent, e.g. it gave up waiting for a rate-limit token
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getOpenRemainingMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+}
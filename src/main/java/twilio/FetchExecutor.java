@@ -0,0 +1,137 @@
+package twilio;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor for blocking Twilio calls, kept off {@code ForkJoinPool.commonPool()}
+ * which Burp and other extensions share. On Java 21+ each task gets its own virtual thread
+ * and concurrency is limited by a semaphore; on Java 17 a fixed platform-thread pool is used.
+ * In both modes at most {@code concurrency + queueBound} tasks are admitted at once.
+ */
+public class FetchExecutor implements Executor {
+    private static final String THREAD_NAME_PREFIX = "TwilioOTP-fetch-";
+
+    private final int concurrency;
+    private final int queueBound;
+    private final ThreadFactory virtualThreadFactory;
+    private final ThreadPoolExecutor platformPool;
+    private final Semaphore admitted;
+    private final Semaphore running;
+    private volatile boolean shutdown;
+
+    public FetchExecutor(int concurrency, int queueBound) {
+        this.concurrency = concurrency;
+        this.queueBound = queueBound;
+        this.virtualThreadFactory = createVirtualThreadFactory();
+
+        if (virtualThreadFactory != null) {
+            this.platformPool = null;
+            this.admitted = new Semaphore(concurrency + queueBound);
+            this.running = new Semaphore(concurrency);
+        } else {
+            this.platformPool = new ThreadPoolExecutor(
+                    concurrency, concurrency,
+                    30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(queueBound, 1)),
+                    createPlatformThreadFactory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.platformPool.allowCoreThreadTimeOut(true);
+            this.admitted = null;
+            this.running = null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Twilio fetch executor has been shut down.");
+        }
+        if (platformPool != null) {
+            platformPool.execute(task);
+            return;
+        }
+
+        if (!admitted.tryAcquire()) {
+            throw new RejectedExecutionException("Twilio fetch queue is full.");
+        }
+        try {
+            virtualThreadFactory.newThread(() -> runLimited(task)).start();
+        } catch (RuntimeException e) {
+            admitted.release();
+            throw e;
+        }
+    }
+
+    // Stops taking new tasks; queued ones still run, since their callers are waiting on them
+    public void shutdown() {
+        shutdown = true;
+        if (platformPool != null) {
+            platformPool.shutdown();
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtualThreadFactory != null;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getQueueBound() {
+        return queueBound;
+    }
+
+    // Number of tasks waiting for a free slot
+    public int getQueueDepth() {
+        if (platformPool != null) {
+            return platformPool.getQueue().size();
+        }
+        return Math.max(0, (concurrency + queueBound - admitted.availablePermits()) - (concurrency - running.availablePermits()));
+    }
+
+    private void runLimited(Runnable task) {
+        try {
+            running.acquire();
+            try {
+                task.run();
+            } finally {
+                running.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            admitted.release();
+        }
+    }
+
+    private static ThreadFactory createPlatformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Thread.ofVirtual() only exists on Java 21+, so it is looked up reflectively to keep a Java 17 target
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, THREAD_NAME_PREFIX, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
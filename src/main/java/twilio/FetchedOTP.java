@@ -0,0 +1,13 @@
+package twilio;
+
+import java.time.Instant;
+
+/**
+ * An OTP extracted from a Twilio message, together with the message it came from.
+ *
+ * @param code       the extracted one-time code
+ * @param messageSid the Twilio message SID, or {@code null} if unknown
+ * @param dateSent   the message's {@code date_sent}, or {@code null} if Twilio did not report one
+ */
+public record FetchedOTP(String code, String messageSid, Instant dateSent) {
+}
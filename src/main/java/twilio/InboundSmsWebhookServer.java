@@ -0,0 +1,148 @@
+package twilio;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.twilio.security.RequestValidator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Embedded listener for Twilio's inbound-message webhook. Twilio POSTs each received SMS as a
+ * form ({@code From}, {@code To}, {@code Body}, {@code MessageSid}) signed with the account's
+ * auth token; accepted messages are handed to {@link OTPHandler#acceptInboundMessage}.
+ *
+ * <p>For local testing without a Twilio account, signature verification can be disabled and a
+ * fake webhook posted with e.g.
+ * {@code curl -d From=+15550001 -d To=+15550002 -d Body="Your code is 123456" -d MessageSid=SM1 http://127.0.0.1:8765/sms}
+ * Messages are only accepted for a number pair configured on one of the handler's shards.
+ */
+public class InboundSmsWebhookServer {
+    public static final String WEBHOOK_PATH = "/sms";
+
+    private static final String SIGNATURE_HEADER = "X-Twilio-Signature";
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final byte[] EMPTY_TWIML = "<Response/>".getBytes(StandardCharsets.UTF_8);
+
+    private final OTPHandler otpHandler;
+    private final String bindAddress;
+    private final int port;
+    private final String publicUrl;
+    private final boolean verifySignature;
+    private HttpServer server;
+
+    /**
+     * @param publicUrl       the URL Twilio is configured to call, which is what the signature covers;
+     *                        when empty, the local listener URL is used
+     * @param verifySignature whether to reject requests without a valid {@code X-Twilio-Signature}
+     */
+    public InboundSmsWebhookServer(OTPHandler otpHandler, String bindAddress, int port, String publicUrl, boolean verifySignature) {
+        this.otpHandler = otpHandler;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.publicUrl = (publicUrl == null || publicUrl.isEmpty())
+                ? "http://" + bindAddress + ":" + port + WEBHOOK_PATH
+                : publicUrl;
+        this.verifySignature = verifySignature;
+    }
+
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext(WEBHOOK_PATH, this::handle);
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    // The port actually bound, which differs from the configured one when that is 0
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    public String getPublicUrl() {
+        return publicUrl;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                exchange.sendResponseHeaders(413, -1);
+                return;
+            }
+
+            Map<String, String> params;
+            try {
+                params = parseForm(new String(body, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                // A malformed %-escape
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            if (verifySignature && !isSignatureValid(params, exchange.getRequestHeaders().getFirst(SIGNATURE_HEADER), params.get("To"))) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            String messageBody = params.get("Body");
+            if (messageBody == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            otpHandler.acceptInboundMessage(params.get("From"), params.get("To"), messageBody, params.get("MessageSid"));
+
+            // Twilio expects TwiML back; an empty response means "send no reply"
+            exchange.getResponseHeaders().set("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(200, EMPTY_TWIML.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(EMPTY_TWIML);
+            }
+        }
+    }
+
+    private boolean isSignatureValid(Map<String, String> params, String signature, String to) {
+        String authToken = otpHandler.getAuthToken(to);
+        if (signature == null || authToken == null || authToken.isEmpty()) {
+            return false;
+        }
+        return new RequestValidator(authToken).validate(publicUrl, params, signature);
+    }
+
+    // Returns null if the body exceeds MAX_BODY_BYTES
+    private static byte[] readBody(InputStream input) throws IOException {
+        byte[] body = input.readNBytes(MAX_BODY_BYTES + 1);
+        return body.length > MAX_BODY_BYTES ? null : body;
+    }
+
+    private static Map<String, String> parseForm(String form) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int separator = pair.indexOf('=');
+            String key = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
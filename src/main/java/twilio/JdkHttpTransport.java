@@ -0,0 +1,63 @@
+package twilio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sends requests over one long-lived {@link HttpClient}, which keeps connections open and
+ * multiplexes concurrent fetches as HTTP/2 streams on a single TLS connection. Falls back to
+ * HTTP/1.1 keep-alive when the server does not negotiate HTTP/2, and for plain http base URLs.
+ */
+public class JdkHttpTransport implements TwilioTransport {
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final Semaphore streams;
+
+    public JdkHttpTransport(long requestTimeoutMillis, int maxConcurrentStreams) {
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.streams = new Semaphore(maxConcurrentStreams);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(requestTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    @Override
+    public TwilioResponse get(URI baseUrl, String pathAndQuery, String authorization) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl.getScheme() + "://" + baseUrl.getRawAuthority() + pathAndQuery))
+                .timeout(requestTimeout)
+                // Cleartext HTTP/2 (h2c) would try an Upgrade on every request; plain http is only used for local stand-ins
+                .version("https".equalsIgnoreCase(baseUrl.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+
+        // Bounds the streams this extension opens, independently of the server's own limit
+        streams.acquire();
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } finally {
+            streams.release();
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue().get(0));
+            }
+        }
+        // HTTP/2 has no reason phrase
+        return new TwilioResponse(response.statusCode(), "", response.body(), headers);
+    }
+}
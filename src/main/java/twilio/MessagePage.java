@@ -0,0 +1,11 @@
+package twilio;
+
+import java.time.Instant;
+
+/**
+ * What one Messages.json page yielded: the first new OTP (or {@code null}), the link to the next,
+ * older page, the newest {@code date_sent} on the page, and whether the parser stopped at a
+ * message it had already seen.
+ */
+public record MessagePage(FetchedOTP otp, String nextPageUri, Instant newestDateSent, boolean reachedSeen) {
+}
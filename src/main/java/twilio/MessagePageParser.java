@@ -0,0 +1,149 @@
+package twilio;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Finds the first OTP in a Twilio Messages.json page by streaming its tokens straight from the
+ * response bytes. Only {@code sid}, {@code date_sent}, {@code from}, {@code to} and {@code body}
+ * are read from each message, everything else is skipped, and parsing stops at the first
+ * message whose body contains an OTP, so no tree is ever built for the page.
+ *
+ * <p>Messages are listed newest first, so when a {@link RecentSids} ring is given the parser also
+ * stops at the first message it has already seen and records every new SID it reads.
+ */
+public class MessagePageParser {
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final OTPExtractor extractor;
+
+    public MessagePageParser(OTPExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    /**
+     * Returns the OTP from the newest new message sent from {@code from} to {@code to} whose body
+     * contains one. Blank numbers match any message; {@code seen} and {@code metrics} may be
+     * {@code null}. Extraction time is recorded in {@code metrics} when one is given.
+     */
+    public MessagePage parse(byte[] page, String from, String to, RecentSids seen, OTPMetrics metrics) throws IOException {
+        String nextPageUri = null;
+        String newestDateSent = null;
+        boolean reachedSeen = false;
+
+        try (JsonParser parser = jsonFactory.createParser(page)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Messages page is not a JSON object.");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("next_page_uri".equals(field)) {
+                    nextPageUri = textOf(parser, value);
+                    continue;
+                }
+                if (!"messages".equals(field) || value != JsonToken.START_ARRAY || reachedSeen) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                boolean first = true;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Message message = readMessage(parser);
+                    if (first) {
+                        newestDateSent = message.dateSent;
+                        first = false;
+                    }
+                    if (seen != null && message.sid != null) {
+                        if (seen.contains(message.sid)) {
+                            // Everything older was read by an earlier poll
+                            reachedSeen = true;
+                            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                                parser.skipChildren();
+                            }
+                            break;
+                        }
+                        seen.add(message.sid);
+                    }
+
+                    FetchedOTP otp = extract(message, from, to, metrics);
+                    if (otp != null) {
+                        return new MessagePage(otp, nextPageUri, parseDateSent(newestDateSent), false);
+                    }
+                }
+            }
+        }
+        return new MessagePage(null, nextPageUri, parseDateSent(newestDateSent), reachedSeen);
+    }
+
+    // Reads one message object, leaving the parser on its END_OBJECT
+    private Message readMessage(JsonParser parser) throws IOException {
+        Message message = new Message();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "sid" -> message.sid = textOf(parser, value);
+                case "date_sent" -> message.dateSent = textOf(parser, value);
+                case "from" -> message.from = textOf(parser, value);
+                case "to" -> message.to = textOf(parser, value);
+                case "body" -> message.body = textOf(parser, value);
+                default -> { }
+            }
+        }
+        return message;
+    }
+
+    private FetchedOTP extract(Message message, String from, String to, OTPMetrics metrics) {
+        if (message.body == null || !matchesNumber(from, message.from) || !matchesNumber(to, message.to)) {
+            return null;
+        }
+
+        long extractStartedAt = System.nanoTime();
+        String code = extractor.extract(message.from, message.body);
+        if (metrics != null) {
+            metrics.recordOtpExtraction(System.nanoTime() - extractStartedAt);
+        }
+        return code != null ? new FetchedOTP(code, message.sid, parseDateSent(message.dateSent)) : null;
+    }
+
+    private static String textOf(JsonParser parser, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    private static boolean matchesNumber(String configured, String actual) {
+        return configured == null || configured.isEmpty() || actual == null || configured.equals(actual);
+    }
+
+    // Twilio reports date_sent in RFC 2822 format, e.g. "Thu, 30 Jul 2015 20:12:31 +0000"
+    static Instant parseDateSent(String dateSent) {
+        if (dateSent == null || dateSent.isEmpty()) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(dateSent, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // The fields read from one message; everything else is skipped
+    private static final class Message {
+        private String sid;
+        private String dateSent;
+        private String from;
+        private String to;
+        private String body;
+    }
+}
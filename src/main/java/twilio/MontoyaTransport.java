@@ -0,0 +1,46 @@
+package twilio;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.HttpMode;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sends requests through Burp's HTTP stack, so they follow Burp's upstream proxy and TLS settings.
+ */
+public class MontoyaTransport implements TwilioTransport {
+    private final MontoyaApi api;
+
+    public MontoyaTransport(MontoyaApi api) {
+        this.api = api;
+    }
+
+    @Override
+    public TwilioResponse get(URI baseUrl, String pathAndQuery, String authorization) {
+        boolean secure = "https".equalsIgnoreCase(baseUrl.getScheme());
+        int port = baseUrl.getPort() != -1 ? baseUrl.getPort() : (secure ? 443 : 80);
+        String hostHeader = baseUrl.getPort() != -1 ? baseUrl.getHost() + ":" + port : baseUrl.getHost();
+
+        HttpRequest request = HttpRequest.httpRequest()
+                .withService(HttpService.httpService(baseUrl.getHost(), port, secure))
+                .withMethod("GET")
+                .withPath(pathAndQuery)
+                .withAddedHeader("Host", hostHeader)
+                .withAddedHeader("Authorization", authorization);
+
+        HttpResponse response = api.http().sendRequest(request, HttpMode.HTTP_1).response();
+
+        Map<String, String> headers = new HashMap<>();
+        for (HttpHeader header : response.headers()) {
+            headers.putIfAbsent(header.name().toLowerCase(Locale.ROOT), header.value());
+        }
+        return new TwilioResponse(response.statusCode(), response.reasonPhrase(), response.body().getBytes(), headers);
+    }
+}
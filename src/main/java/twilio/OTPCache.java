@@ -0,0 +1,242 @@
+package twilio;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * TTL-bounded cache of the last extracted OTP with single-flight fetching.
+ * While one fetch is outstanding every other caller waits on the same future
+ * instead of issuing its own request to Twilio.
+ */
+public class OTPCache {
+    private static final AtomicReferenceFieldUpdater<OTPCache, Entry> ENTRY =
+            AtomicReferenceFieldUpdater.newUpdater(OTPCache.class, Entry.class, "entry");
+
+    private final AtomicReference<CompletableFuture<FetchedOTP>> inFlight = new AtomicReference<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    private volatile Entry entry;
+    private volatile long refreshStartedAt;
+    private volatile long ttlMillis;
+    private volatile long maxAgeMillis;
+
+    public OTPCache(long ttlMillis, long maxAgeMillis) {
+        this.ttlMillis = ttlMillis;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Returns the cached OTP if it is still fresh, joins the outstanding fetch if there is one,
+     * or starts a new fetch through {@code fetcher} otherwise.
+     */
+    public CompletableFuture<FetchedOTP> get(Supplier<CompletableFuture<FetchedOTP>> fetcher) {
+        Entry current = entry;
+        if (isFresh(current, System.currentTimeMillis())) {
+            hits.increment();
+            current.markServed();
+            return CompletableFuture.completedFuture(current.otp);
+        }
+
+        while (true) {
+            CompletableFuture<FetchedOTP> pending = inFlight.get();
+            if (pending != null) {
+                coalesced.increment();
+                return pending;
+            }
+
+            CompletableFuture<FetchedOTP> mine = new CompletableFuture<>();
+            if (!inFlight.compareAndSet(null, mine)) {
+                continue;
+            }
+
+            // A fetch may have completed between the freshness check and winning the slot
+            Entry latest = entry;
+            if (isFresh(latest, System.currentTimeMillis())) {
+                inFlight.compareAndSet(mine, null);
+                mine.complete(latest.otp);
+                hits.increment();
+                latest.markServed();
+                return mine;
+            }
+
+            misses.increment();
+            fetch(mine, fetcher, false);
+            return mine;
+        }
+    }
+
+    /**
+     * Starts a background fetch that replaces the cached OTP even though it is still fresh.
+     * Callers keep hitting the current entry meanwhile, and join the refresh once it expires.
+     * Returns {@code null} if a fetch is already in flight, otherwise a future that completes
+     * with whether the refresh replaced an earlier refreshed OTP that no caller ever read.
+     */
+    public CompletableFuture<Boolean> refresh(Supplier<CompletableFuture<FetchedOTP>> fetcher) {
+        CompletableFuture<FetchedOTP> mine = new CompletableFuture<>();
+        if (!inFlight.compareAndSet(null, mine)) {
+            return null;
+        }
+
+        refreshStartedAt = System.currentTimeMillis();
+        Entry previous = entry;
+        fetch(mine, fetcher, true);
+        return mine.thenApply(otp -> previous != null && previous.prefetched && !previous.served && entry != previous);
+    }
+
+    /**
+     * Whether the cached OTP has lived for {@code percent} of the TTL, counting from the later of
+     * when it was fetched and when the last refresh started, so a failing refresh is not retried
+     * on every check.
+     */
+    public boolean isDueForRefresh(long now, int percent) {
+        Entry current = entry;
+        if (current == null || ttlMillis <= 0) {
+            return false;
+        }
+        return now - Math.max(current.fetchedAt, refreshStartedAt) >= ttlMillis * percent / 100;
+    }
+
+    /**
+     * Stores an OTP that arrived without a fetch, e.g. pushed by the inbound-SMS webhook,
+     * and hands it to every caller currently waiting on an outstanding fetch.
+     */
+    public void publish(FetchedOTP otp) {
+        store(otp, generation.get(), false);
+        CompletableFuture<FetchedOTP> pending = inFlight.get();
+        if (pending != null) {
+            pending.complete(otp);
+        }
+    }
+
+    /**
+     * Restores an OTP fetched at {@code fetchedAt} (epoch millis) by an earlier session. It is only
+     * kept if it is still within the TTL and max age and nothing newer has been cached since.
+     */
+    public boolean restore(FetchedOTP otp, long fetchedAt) {
+        Entry restored = new Entry(otp, fetchedAt, false);
+        if (!isFresh(restored, System.currentTimeMillis()) || entry != null) {
+            return false;
+        }
+        entry = restored;
+        return true;
+    }
+
+    /**
+     * Drops the cached OTP. Fetches that are already in flight will not repopulate the cache.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        entry = null;
+    }
+
+    /**
+     * Drops the cached OTP if it is still {@code otp}, e.g. once its uses are spent. Unlike
+     * {@link #invalidate()}, fetches in flight may still store the next code.
+     */
+    public void evict(FetchedOTP otp) {
+        Entry current = entry;
+        if (current != null && current.otp.equals(otp)) {
+            ENTRY.compareAndSet(this, current, null);
+        }
+    }
+
+    public void updateLimits(long ttlMillis, long maxAgeMillis) {
+        this.ttlMillis = ttlMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        invalidate();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        coalesced.reset();
+    }
+
+    // Runs the fetch for the in-flight slot already won by {@code mine}
+    private void fetch(CompletableFuture<FetchedOTP> mine, Supplier<CompletableFuture<FetchedOTP>> fetcher, boolean prefetched) {
+        long startedGeneration = generation.get();
+        try {
+            fetcher.get().whenComplete((otp, ex) -> {
+                if (ex == null) {
+                    store(otp, startedGeneration, prefetched);
+                }
+                inFlight.compareAndSet(mine, null);
+                if (ex == null) {
+                    mine.complete(otp);
+                } else {
+                    mine.completeExceptionally(ex);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.compareAndSet(mine, null);
+            mine.completeExceptionally(e);
+        }
+    }
+
+    private void store(FetchedOTP otp, long startedGeneration, boolean prefetched) {
+        long now = System.currentTimeMillis();
+        if (ttlMillis <= 0 || isTooOld(otp, now) || generation.get() != startedGeneration) {
+            return;
+        }
+        entry = new Entry(otp, now, prefetched);
+    }
+
+    private boolean isFresh(Entry candidate, long now) {
+        return candidate != null
+                && now - candidate.fetchedAt < ttlMillis
+                && !isTooOld(candidate.otp, now);
+    }
+
+    // A message without date_sent is still bounded by the TTL
+    private boolean isTooOld(FetchedOTP otp, long now) {
+        return otp.dateSent() != null && now - otp.dateSent().toEpochMilli() >= maxAgeMillis;
+    }
+
+    private static final class Entry {
+        private final FetchedOTP otp;
+        private final long fetchedAt;
+        // Stored by a refresh-ahead fetch rather than for a waiting caller
+        private final boolean prefetched;
+        private volatile boolean served;
+
+        private Entry(FetchedOTP otp, long fetchedAt, boolean prefetched) {
+            this.otp = otp;
+            this.fetchedAt = fetchedAt;
+            this.prefetched = prefetched;
+        }
+
+        // Only the first hit writes, so steady-state hits stay read-only
+        private void markServed() {
+            if (!served) {
+                served = true;
+            }
+        }
+    }
+}
@@ -3,14 +3,20 @@ package twilio;
 
 import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.persistence.Preferences;
+import utils.AsyncLogger;
 import utils.ConfigurationParser;
+import utils.InjectionRule;
+import utils.LatencyHistogram;
 import utils.RuleType;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -23,12 +29,80 @@ public class OTPDisplayPanel extends JPanel {
     private final JPasswordField authTokenField;
     private final JTextField fromNumberField;
     private final JTextField toNumberField;
+    private final JTextField baseUrlField;
+    private final JComboBox<OTPSource.Type> sourceTypeComboBox;
+    private final JPasswordField totpSecretField;
+    private final JTextField totpDigitsField;
+    private final JTextField totpPeriodField;
+    private final JComboBox<TotpSource.Algorithm> totpAlgorithmComboBox;
+    private final JTextField totpSkewField;
     private final JComboBox<RuleType> ruleTypeComboBox;
     private final JTextField parameterNameField;
+    private final JTextField ruleHostField;
+    private final JTextField rulePathPrefixField;
+    private final JTextField ruleMethodField;
+    private final DefaultListModel<InjectionRule> rulesModel;
+    private final JTextField configFileField;
+    private final JTextField templateSenderField;
+    private final JTextField templatePrefixField;
+    private final JTextField templateSuffixField;
+    private final JComboBox<OTPTemplate.Charset> templateCharsetComboBox;
+    private final JTextField templateMinLengthField;
+    private final JTextField templateMaxLengthField;
+    private final JTextField templateRegexField;
+    private final DefaultListModel<OTPTemplate> templatesModel;
+    private final JTextField cacheTtlField;
+    private final JTextField cacheMaxAgeField;
+    private final JTextField useBudgetField;
+    private final JLabel cacheStatsLabel;
+    private final JCheckBox freshModeCheckBox;
+    private final JTextField freshDeadlineField;
+    private final JTextField freshMaxBackoffField;
+    private final JTextField acquireDeadlineField;
+    private final JComboBox<OTPHandler.DeadlinePolicy> deadlinePolicyComboBox;
+    private final JComboBox<AsyncLogger.Level> logLevelComboBox;
+    private final JLabel logStatsLabel;
+    private final JCheckBox refreshAheadCheckBox;
+    private final JTextField refreshAheadPercentField;
+    private final JTextField refreshAheadIdleField;
+    private final JLabel refreshAheadStatusLabel;
+    private final JTextField fetchConcurrencyField;
+    private final JTextField fetchQueueBoundField;
+    private final JLabel fetchExecutorLabel;
+    private final JComboBox<TwilioTransport.Mode> transportModeComboBox;
+    private final JTextField requestTimeoutField;
+    private final JTextField maxConcurrentStreamsField;
+    private final JTextField rateLimitField;
+    private final JTextField rateLimitBurstField;
+    private final JTextField maxThrottleWaitField;
+    private final JTextField breakerThresholdField;
+    private final JTextField breakerOpenField;
+    private final JCheckBox breakerServeLastCheckBox;
+    private final JLabel rateLimitStatusLabel;
+    private final JCheckBox webhookEnabledCheckBox;
+    private final JTextField webhookBindAddressField;
+    private final JTextField webhookPortField;
+    private final JTextField webhookPublicUrlField;
+    private final JCheckBox webhookVerifySignatureCheckBox;
+    private final JLabel webhookStatusLabel;
+    private final JCheckBox sharedStoreCheckBox;
+    private final JTextField sharedStorePathField;
+    private final JLabel sharedStoreStatusLabel;
+    private final JComboBox<String> sessionKeyTypeComboBox;
+    private final JTextField sessionKeyNameField;
+    private final JTextField poolFromNumberField;
+    private final JTextField poolToNumberField;
+    private final JPasswordField poolAccountSidField;
+    private final JPasswordField poolAuthTokenField;
+    private final DefaultListModel<PoolEntry> poolModel;
+    private final JTextArea poolStatsArea;
+    private final JTextArea metricsArea;
     private final OTPHandler otpHandler;
     private final ConfigurationParser configParser;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private static final String NO_SESSION_KEY = "NONE";
+
     public OTPDisplayPanel(MontoyaApi api, OTPHandler otpHandler, ConfigurationParser configParser) {
         this.api = api;
         this.otpHandler = otpHandler;
@@ -51,131 +125,963 @@ public class OTPDisplayPanel extends JPanel {
         authTokenField = new JPasswordField(loadPreference("authToken", ""), 25);
         fromNumberField = new JTextField(loadPreference("fromNumber", ""), 25);
         toNumberField = new JTextField(loadPreference("toNumber", ""), 25);
+        baseUrlField = new JTextField(otpHandler.getBaseUrl(), 25);
+
+        TotpSource totpSource = otpHandler.getTotpSource();
+        sourceTypeComboBox = new JComboBox<>(OTPSource.Type.values());
+        sourceTypeComboBox.setSelectedItem(otpHandler.getOtpSourceType());
+        totpSecretField = new JPasswordField(otpHandler.getTotpSecret(), 25);
+        totpDigitsField = new JTextField(String.valueOf(totpSource == null ? 6 : totpSource.getDigits()), 6);
+        totpPeriodField = new JTextField(String.valueOf(totpSource == null ? 30 : totpSource.getPeriodSeconds()), 6);
+        totpAlgorithmComboBox = new JComboBox<>(TotpSource.Algorithm.values());
+        totpAlgorithmComboBox.setSelectedItem(totpSource == null ? TotpSource.Algorithm.SHA1 : totpSource.getAlgorithm());
+        totpSkewField = new JTextField(String.valueOf(totpSource == null ? 0 : totpSource.getSkewSeconds()), 6);
 
         ruleTypeComboBox = new JComboBox<>(RuleType.values());
         ruleTypeComboBox.setSelectedItem(RuleType.valueOf(loadPreference("ruleType", "HEADER")));
         parameterNameField = new JTextField(loadPreference("parameterName", ""), 20);
+        parameterNameField.setToolTipText("For BODY_FIELD: a JSON/XML path such as $.auth.mfa.code, $..code, /auth/@code, or a form/multipart field name");
+        ruleHostField = new JTextField(InjectionRule.ANY, 20);
+        rulePathPrefixField = new JTextField("/", 20);
+        ruleMethodField = new JTextField(InjectionRule.ANY, 8);
+        rulesModel = new DefaultListModel<>();
+        configParser.getRules().forEach(rulesModel::addElement);
+        configParser.addRulesListener(rules -> SwingUtilities.invokeLater(() -> {
+            rulesModel.clear();
+            rules.forEach(rulesModel::addElement);
+        }));
+        configFileField = new JTextField(configParser.getConfigFile() == null ? "" : configParser.getConfigFile(), 25);
+
+        templateSenderField = new JTextField(15);
+        templatePrefixField = new JTextField(15);
+        templateSuffixField = new JTextField(15);
+        templateCharsetComboBox = new JComboBox<>(OTPTemplate.Charset.values());
+        templateMinLengthField = new JTextField("4", 6);
+        templateMaxLengthField = new JTextField("6", 6);
+        templateRegexField = new JTextField(25);
+        templatesModel = new DefaultListModel<>();
+        otpHandler.getOtpTemplates().forEach(templatesModel::addElement);
+
+        cacheTtlField = new JTextField(String.valueOf(otpHandler.getCacheTtlMillis() / 1000), 6);
+        cacheMaxAgeField = new JTextField(String.valueOf(otpHandler.getCacheMaxAgeMillis() / 1000), 6);
+        useBudgetField = new JTextField(String.valueOf(otpHandler.getUseBudget()), 6);
+        cacheStatsLabel = new JLabel();
+
+        freshModeCheckBox = new JCheckBox("Wait for a fresh OTP", otpHandler.isFreshMode());
+        freshDeadlineField = new JTextField(String.valueOf(otpHandler.getFreshDeadlineMillis() / 1000), 6);
+        freshMaxBackoffField = new JTextField(String.valueOf(otpHandler.getFreshMaxBackoffMillis()), 6);
+        acquireDeadlineField = new JTextField(String.valueOf(otpHandler.getAcquireDeadlineMillis()), 6);
+        deadlinePolicyComboBox = new JComboBox<>(OTPHandler.DeadlinePolicy.values());
+        deadlinePolicyComboBox.setSelectedItem(otpHandler.getDeadlinePolicy());
+        logLevelComboBox = new JComboBox<>(AsyncLogger.Level.values());
+        logLevelComboBox.setSelectedItem(otpHandler.getLogger().getLevel());
+        logStatsLabel = new JLabel();
+
+        RefreshAheadScheduler refreshAheadScheduler = otpHandler.getRefreshAheadScheduler();
+        refreshAheadCheckBox = new JCheckBox("Refresh cached OTPs before they expire", refreshAheadScheduler.isEnabled());
+        refreshAheadPercentField = new JTextField(String.valueOf(refreshAheadScheduler.getRefreshPercent()), 6);
+        refreshAheadIdleField = new JTextField(String.valueOf(refreshAheadScheduler.getIdleMillis() / 1000), 6);
+        refreshAheadStatusLabel = new JLabel();
+
+        FetchExecutor fetchExecutor = otpHandler.getFetchExecutor();
+        fetchConcurrencyField = new JTextField(String.valueOf(fetchExecutor.getConcurrency()), 6);
+        fetchQueueBoundField = new JTextField(String.valueOf(fetchExecutor.getQueueBound()), 6);
+        fetchExecutorLabel = new JLabel();
+        updateFetchExecutorLabel();
+
+        transportModeComboBox = new JComboBox<>(TwilioTransport.Mode.values());
+        transportModeComboBox.setSelectedItem(otpHandler.getTransportMode());
+        requestTimeoutField = new JTextField(String.valueOf(otpHandler.getRequestTimeoutMillis()), 6);
+        maxConcurrentStreamsField = new JTextField(String.valueOf(otpHandler.getMaxConcurrentStreams()), 6);
+
+        TwilioRateLimiter rateLimiter = otpHandler.getRateLimiter();
+        CircuitBreaker circuitBreaker = otpHandler.getCircuitBreaker();
+        rateLimitField = new JTextField(String.valueOf(rateLimiter.getRatePerSecond()), 6);
+        rateLimitBurstField = new JTextField(String.valueOf(rateLimiter.getBurst()), 6);
+        maxThrottleWaitField = new JTextField(String.valueOf(otpHandler.getMaxThrottleWaitMillis()), 6);
+        breakerThresholdField = new JTextField(String.valueOf(circuitBreaker.getFailureThreshold()), 6);
+        breakerOpenField = new JTextField(String.valueOf(circuitBreaker.getOpenMillis() / 1000), 6);
+        breakerServeLastCheckBox = new JCheckBox("Serve the last known OTP (within the max age) while the circuit is open", otpHandler.isServeLastWhileOpen());
+        rateLimitStatusLabel = new JLabel();
+
+        webhookEnabledCheckBox = new JCheckBox("Receive OTPs via inbound SMS webhook", otpHandler.isWebhookEnabled());
+        webhookBindAddressField = new JTextField(otpHandler.getWebhookBindAddress(), 15);
+        webhookPortField = new JTextField(String.valueOf(otpHandler.getWebhookPort()), 6);
+        webhookPublicUrlField = new JTextField(otpHandler.getWebhookPublicUrl(), 25);
+        webhookVerifySignatureCheckBox = new JCheckBox("Verify X-Twilio-Signature", otpHandler.isWebhookVerifySignature());
+        webhookStatusLabel = new JLabel();
+        updateWebhookStatusLabel();
+
+        sharedStoreCheckBox = new JCheckBox("Share OTPs with other Burp instances on this machine", otpHandler.isSharedStoreEnabled());
+        sharedStorePathField = new JTextField(otpHandler.getSharedStorePath(), 30);
+        sharedStoreStatusLabel = new JLabel();
+
+        sessionKeyTypeComboBox = new JComboBox<>();
+        sessionKeyTypeComboBox.addItem(NO_SESSION_KEY);
+        for (RuleType ruleType : RuleType.values()) {
+            sessionKeyTypeComboBox.addItem(ruleType.name());
+        }
+        RuleType sessionKeyType = otpHandler.getSessionKeyType();
+        sessionKeyTypeComboBox.setSelectedItem(sessionKeyType == null ? NO_SESSION_KEY : sessionKeyType.name());
+        sessionKeyNameField = new JTextField(otpHandler.getSessionKeyName() == null ? "" : otpHandler.getSessionKeyName(), 20);
+        poolFromNumberField = new JTextField(15);
+        poolToNumberField = new JTextField(15);
+        poolAccountSidField = new JPasswordField(15);
+        poolAuthTokenField = new JPasswordField(15);
+        poolModel = new DefaultListModel<>();
+        otpHandler.getPoolEntries().forEach(entry -> poolModel.addElement(new PoolEntry(entry)));
+        poolStatsArea = new JTextArea(4, 50);
+        poolStatsArea.setEditable(false);
+
+        metricsArea = new JTextArea(12, 60);
+        metricsArea.setEditable(false);
+        metricsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        updateCacheStats();
+        updateRefreshAheadStatus();
+        updateRateLimitStatus();
+        updateLogStats();
+        updateSharedStoreStatus();
+        updateMetrics();
+        new Timer(1000, e -> {
+            updateCacheStats();
+            updateRefreshAheadStatus();
+            updateRateLimitStatus();
+            updateLogStats();
+            updateSharedStoreStatus();
+            updateMetrics();
+        }).start();
 
         JPanel unifiedPanel = new JPanel();
         unifiedPanel.setLayout(new BoxLayout(unifiedPanel, BoxLayout.Y_AXIS));
         unifiedPanel.add(createSectionPanel("Fetch OTP", createMainPanel()));
+        unifiedPanel.add(createSectionPanel("OTP Source", createSourcePanel()));
         unifiedPanel.add(createSectionPanel("Twilio Settings", createSettingsPanel()));
         unifiedPanel.add(createSectionPanel("Configure", createConfigurePanel()));
+        unifiedPanel.add(createSectionPanel("OTP Extraction", createTemplatesPanel()));
+        unifiedPanel.add(createSectionPanel("OTP Cache", createCachePanel()));
+        unifiedPanel.add(createSectionPanel("Refresh Ahead", createRefreshAheadPanel()));
+        unifiedPanel.add(createSectionPanel("Fresh OTP", createFreshModePanel()));
+        unifiedPanel.add(createSectionPanel("Acquisition Deadline", createDeadlinePanel()));
+        unifiedPanel.add(createSectionPanel("Fetch Executor", createExecutorPanel()));
+        unifiedPanel.add(createSectionPanel("Transport", createTransportPanel()));
+        unifiedPanel.add(createSectionPanel("Rate Limiting", createRateLimitPanel()));
+        unifiedPanel.add(createSectionPanel("Inbound Webhook", createWebhookPanel()));
+        unifiedPanel.add(createSectionPanel("Shared Cache", createSharedStorePanel()));
+        unifiedPanel.add(createSectionPanel("Number Pool", createPoolPanel()));
+        unifiedPanel.add(createSectionPanel("Metrics", createMetricsPanel()));
+        unifiedPanel.add(createSectionPanel("Logging", createLoggingPanel()));
+
+        add(unifiedPanel, BorderLayout.CENTER);
+        add(createFooter(), BorderLayout.SOUTH);
+    }
+
+    private JPanel createSectionPanel(String title, JPanel content) {
+        JPanel sectionPanel = new JPanel(new BorderLayout());
+        sectionPanel.setBorder(BorderFactory.createTitledBorder(title));
+        sectionPanel.add(content, BorderLayout.CENTER);
+        return sectionPanel;
+    }
+
+    private JPanel createMainPanel() {
+        JPanel mainPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        gbc.anchor = GridBagConstraints.EAST;
+        mainPanel.add(new JLabel("Latest OTP:"), gbc);
+
+        gbc.gridx = 1;
+        mainPanel.add(otpField, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 1;
+        gbc.gridwidth = 2;
+        JButton fetchOtpButton = new JButton("Fetch OTP");
+        fetchOtpButton.addActionListener(e -> fetchAndUpdateOTP());
+        mainPanel.add(fetchOtpButton, gbc);
+
+        return mainPanel;
+    }
+
+    private JPanel createSettingsPanel() {
+        JPanel settingsPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        settingsPanel.add(new JLabel("Account SID:"), gbc);
+        gbc.gridx = 1;
+        settingsPanel.add(createMaskedField(accountSidField), gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        settingsPanel.add(new JLabel("Auth Token:"), gbc);
+        gbc.gridx = 1;
+        settingsPanel.add(createMaskedField(authTokenField), gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        settingsPanel.add(new JLabel("From Number:"), gbc);
+        gbc.gridx = 1;
+        settingsPanel.add(fromNumberField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        settingsPanel.add(new JLabel("To Number:"), gbc);
+        gbc.gridx = 1;
+        settingsPanel.add(toNumberField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        settingsPanel.add(new JLabel("API Base URL:"), gbc);
+        gbc.gridx = 1;
+        settingsPanel.add(baseUrlField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton saveButton = new JButton("Save");
+        JButton importButton = new JButton("Import");
+        JButton exportButton = new JButton("Export");
+        JButton clearButton = new JButton("Clear");
+
+        saveButton.addActionListener(e -> saveTwilioSettings());
+        importButton.addActionListener(e -> importSettingsFromFile());
+        exportButton.addActionListener(e -> exportSettingsToFile());
+        clearButton.addActionListener(e -> clearTwilioSettings());
+
+        buttonPanel.add(saveButton);
+        buttonPanel.add(importButton);
+        buttonPanel.add(exportButton);
+        buttonPanel.add(clearButton);
+        settingsPanel.add(buttonPanel, gbc);
+
+        return settingsPanel;
+    }
+
+    private JPanel createSourcePanel() {
+        JPanel sourcePanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        sourcePanel.add(new JLabel("Source:"), gbc);
+        gbc.gridx = 1;
+        sourcePanel.add(sourceTypeComboBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        sourcePanel.add(new JLabel("TOTP Secret (Base32):"), gbc);
+        gbc.gridx = 1;
+        sourcePanel.add(createMaskedField(totpSecretField), gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        sourcePanel.add(new JLabel("Digits:"), gbc);
+        gbc.gridx = 1;
+        sourcePanel.add(totpDigitsField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        sourcePanel.add(new JLabel("Period (seconds):"), gbc);
+        gbc.gridx = 1;
+        sourcePanel.add(totpPeriodField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        sourcePanel.add(new JLabel("Algorithm:"), gbc);
+        gbc.gridx = 1;
+        sourcePanel.add(totpAlgorithmComboBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        sourcePanel.add(new JLabel("Clock Offset (fixed, seconds):"), gbc);
+        gbc.gridx = 1;
+        sourcePanel.add(totpSkewField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        sourcePanel.add(new JLabel("TOTP codes are generated locally; the Twilio settings are only used for TWILIO_SMS."), gbc);
+
+        gbc.gridy++;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveSourceSettings());
+        sourcePanel.add(applyButton, gbc);
+
+        return sourcePanel;
+    }
+
+    private JPanel createConfigurePanel() {
+        JPanel configurePanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        configurePanel.add(new JLabel("Rule Type:"), gbc);
+        gbc.gridx = 1;
+        configurePanel.add(ruleTypeComboBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        configurePanel.add(new JLabel("Parameter Name:"), gbc);
+        gbc.gridx = 1;
+        configurePanel.add(parameterNameField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        configurePanel.add(new JLabel("Host:"), gbc);
+        gbc.gridx = 1;
+        configurePanel.add(ruleHostField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        configurePanel.add(new JLabel("Path Prefix:"), gbc);
+        gbc.gridx = 1;
+        configurePanel.add(rulePathPrefixField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        configurePanel.add(new JLabel("Method:"), gbc);
+        gbc.gridx = 1;
+        configurePanel.add(ruleMethodField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        JList<InjectionRule> rulesList = new JList<>(rulesModel);
+        rulesList.setVisibleRowCount(4);
+        JScrollPane rulesScrollPane = new JScrollPane(rulesList);
+        rulesScrollPane.setPreferredSize(new Dimension(420, 90));
+        configurePanel.add(rulesScrollPane, gbc);
+
+        gbc.gridy++;
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton addRuleButton = new JButton("Add Rule");
+        JButton removeRuleButton = new JButton("Remove Rule");
+        JButton generateConfigButton = new JButton("Generate Config");
+
+        addRuleButton.addActionListener(e -> addRuleFromFields());
+        removeRuleButton.addActionListener(e -> {
+            int selected = rulesList.getSelectedIndex();
+            if (selected >= 0) {
+                rulesModel.remove(selected);
+            }
+        });
+        generateConfigButton.addActionListener(e -> saveConfigurationSettings());
+
+        buttonPanel.add(addRuleButton);
+        buttonPanel.add(removeRuleButton);
+        buttonPanel.add(generateConfigButton);
+        configurePanel.add(buttonPanel, gbc);
+
+        gbc.gridy++;
+        gbc.gridwidth = 1;
+        configurePanel.add(new JLabel("Config File:"), gbc);
+        gbc.gridx = 1;
+        configurePanel.add(configFileField, gbc);
+
+        gbc.gridy++;
+        JPanel watchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton watchButton = new JButton("Watch File");
+        JButton stopWatchButton = new JButton("Stop Watching");
+
+        watchButton.addActionListener(e -> {
+            String path = configFileField.getText().trim();
+            if (path.isEmpty()) {
+                statusLabel.setText("Status: Config File path is required.");
+                return;
+            }
+            configParser.watchConfigFile(path);
+            statusLabel.setText("Watching config file: " + path);
+        });
+        stopWatchButton.addActionListener(e -> {
+            configParser.watchConfigFile(null);
+            statusLabel.setText("Stopped watching config file.");
+        });
+
+        watchPanel.add(watchButton);
+        watchPanel.add(stopWatchButton);
+        configurePanel.add(watchPanel, gbc);
+
+        return configurePanel;
+    }
+
+    private JPanel createTemplatesPanel() {
+        JPanel templatesPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        templatesPanel.add(new JLabel("Sender (optional):"), gbc);
+        gbc.gridx = 1;
+        templatesPanel.add(templateSenderField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        templatesPanel.add(new JLabel("Text Before Code:"), gbc);
+        gbc.gridx = 1;
+        templatesPanel.add(templatePrefixField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        templatesPanel.add(new JLabel("Text After Code:"), gbc);
+        gbc.gridx = 1;
+        templatesPanel.add(templateSuffixField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        templatesPanel.add(new JLabel("Characters:"), gbc);
+        gbc.gridx = 1;
+        templatesPanel.add(templateCharsetComboBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        templatesPanel.add(new JLabel("Min Length:"), gbc);
+        gbc.gridx = 1;
+        templatesPanel.add(templateMinLengthField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        templatesPanel.add(new JLabel("Max Length:"), gbc);
+        gbc.gridx = 1;
+        templatesPanel.add(templateMaxLengthField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        templatesPanel.add(new JLabel("Regex (overrides the above):"), gbc);
+        gbc.gridx = 1;
+        templatesPanel.add(templateRegexField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        JList<OTPTemplate> templatesList = new JList<>(templatesModel);
+        templatesList.setVisibleRowCount(4);
+        templatesPanel.add(new JScrollPane(templatesList), gbc);
+        gbc.fill = GridBagConstraints.NONE;
+
+        gbc.gridy++;
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton addButton = new JButton("Add Template");
+        JButton removeButton = new JButton("Remove Template");
+        JButton applyButton = new JButton("Apply");
+
+        addButton.addActionListener(e -> addTemplateFromFields());
+        removeButton.addActionListener(e -> {
+            int selected = templatesList.getSelectedIndex();
+            if (selected >= 0) {
+                templatesModel.remove(selected);
+            }
+        });
+        applyButton.addActionListener(e -> saveTemplates());
+
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        buttonPanel.add(applyButton);
+        templatesPanel.add(buttonPanel, gbc);
+
+        return templatesPanel;
+    }
+
+    private JPanel createCachePanel() {
+        JPanel cachePanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        cachePanel.add(new JLabel("TTL (seconds):"), gbc);
+        gbc.gridx = 1;
+        cachePanel.add(cacheTtlField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        cachePanel.add(new JLabel("Max Message Age (seconds):"), gbc);
+        gbc.gridx = 1;
+        cachePanel.add(cacheMaxAgeField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        cachePanel.add(new JLabel("Uses per OTP (0 = unlimited):"), gbc);
+        gbc.gridx = 1;
+        cachePanel.add(useBudgetField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton applyButton = new JButton("Apply");
+        JButton invalidateButton = new JButton("Invalidate");
+
+        applyButton.addActionListener(e -> saveCacheSettings());
+        invalidateButton.addActionListener(e -> {
+            otpHandler.invalidateCache();
+            statusLabel.setText("OTP cache invalidated.");
+        });
+
+        buttonPanel.add(applyButton);
+        buttonPanel.add(invalidateButton);
+        cachePanel.add(buttonPanel, gbc);
+
+        gbc.gridy++;
+        cachePanel.add(cacheStatsLabel, gbc);
+
+        return cachePanel;
+    }
+
+    private JPanel createRefreshAheadPanel() {
+        JPanel refreshAheadPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        gbc.gridwidth = 2;
+        refreshAheadPanel.add(refreshAheadCheckBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridwidth = 1;
+        refreshAheadPanel.add(new JLabel("Refresh At (% of TTL):"), gbc);
+        gbc.gridx = 1;
+        refreshAheadPanel.add(refreshAheadPercentField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        refreshAheadPanel.add(new JLabel("Pause After Idle (seconds):"), gbc);
+        gbc.gridx = 1;
+        refreshAheadPanel.add(refreshAheadIdleField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveRefreshAheadSettings());
+        refreshAheadPanel.add(applyButton, gbc);
+
+        gbc.gridy++;
+        refreshAheadPanel.add(refreshAheadStatusLabel, gbc);
+
+        return refreshAheadPanel;
+    }
+
+    private JPanel createFreshModePanel() {
+        JPanel freshPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        gbc.gridwidth = 2;
+        freshPanel.add(freshModeCheckBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridwidth = 1;
+        freshPanel.add(new JLabel("Deadline (seconds):"), gbc);
+        gbc.gridx = 1;
+        freshPanel.add(freshDeadlineField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        freshPanel.add(new JLabel("Max Backoff (ms):"), gbc);
+        gbc.gridx = 1;
+        freshPanel.add(freshMaxBackoffField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveFreshModeSettings());
+        freshPanel.add(applyButton, gbc);
+
+        return freshPanel;
+    }
+
+    private JPanel createDeadlinePanel() {
+        JPanel deadlinePanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        deadlinePanel.add(new JLabel("Deadline (ms, 0 = wait):"), gbc);
+        gbc.gridx = 1;
+        deadlinePanel.add(acquireDeadlineField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        deadlinePanel.add(new JLabel("When Missed:"), gbc);
+        gbc.gridx = 1;
+        deadlinePanel.add(deadlinePolicyComboBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        deadlinePanel.add(new JLabel("SERVE_STALE injects the last known OTP if it is within the max age; PASS_THROUGH sends the request unchanged."), gbc);
+
+        gbc.gridy++;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveDeadlineSettings());
+        deadlinePanel.add(applyButton, gbc);
+
+        return deadlinePanel;
+    }
+
+    private JPanel createExecutorPanel() {
+        JPanel executorPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        executorPanel.add(new JLabel("Concurrent Fetches:"), gbc);
+        gbc.gridx = 1;
+        executorPanel.add(fetchConcurrencyField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        executorPanel.add(new JLabel("Queue Bound:"), gbc);
+        gbc.gridx = 1;
+        executorPanel.add(fetchQueueBoundField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveExecutorSettings());
+        executorPanel.add(applyButton, gbc);
+
+        gbc.gridy++;
+        executorPanel.add(fetchExecutorLabel, gbc);
+
+        return executorPanel;
+    }
+
+    private JPanel createTransportPanel() {
+        JPanel transportPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        transportPanel.add(new JLabel("Mode:"), gbc);
+        gbc.gridx = 1;
+        transportPanel.add(transportModeComboBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        transportPanel.add(new JLabel("Request Timeout (ms):"), gbc);
+        gbc.gridx = 1;
+        transportPanel.add(requestTimeoutField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        transportPanel.add(new JLabel("Max Concurrent Streams:"), gbc);
+        gbc.gridx = 1;
+        transportPanel.add(maxConcurrentStreamsField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        transportPanel.add(new JLabel("Timeout and stream limit apply to the JDK_HTTP2 client; MONTOYA uses Burp's HTTP stack."), gbc);
+
+        gbc.gridy++;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveTransportSettings());
+        transportPanel.add(applyButton, gbc);
+
+        return transportPanel;
+    }
+
+    private JPanel createRateLimitPanel() {
+        JPanel rateLimitPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        rateLimitPanel.add(new JLabel("Requests per Second:"), gbc);
+        gbc.gridx = 1;
+        rateLimitPanel.add(rateLimitField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        rateLimitPanel.add(new JLabel("Burst:"), gbc);
+        gbc.gridx = 1;
+        rateLimitPanel.add(rateLimitBurstField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        rateLimitPanel.add(new JLabel("Max Wait for a Token (ms):"), gbc);
+        gbc.gridx = 1;
+        rateLimitPanel.add(maxThrottleWaitField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        rateLimitPanel.add(new JLabel("Failures to Open Circuit:"), gbc);
+        gbc.gridx = 1;
+        rateLimitPanel.add(breakerThresholdField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        rateLimitPanel.add(new JLabel("Open Circuit For (seconds):"), gbc);
+        gbc.gridx = 1;
+        rateLimitPanel.add(breakerOpenField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        rateLimitPanel.add(breakerServeLastCheckBox, gbc);
+
+        gbc.gridy++;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveRateLimitSettings());
+        rateLimitPanel.add(applyButton, gbc);
+
+        gbc.gridy++;
+        rateLimitPanel.add(rateLimitStatusLabel, gbc);
+
+        return rateLimitPanel;
+    }
+
+    private JPanel createWebhookPanel() {
+        JPanel webhookPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        gbc.gridwidth = 2;
+        webhookPanel.add(webhookEnabledCheckBox, gbc);
+
+        gbc.gridy++;
+        gbc.gridwidth = 1;
+        webhookPanel.add(new JLabel("Bind Address:"), gbc);
+        gbc.gridx = 1;
+        webhookPanel.add(webhookBindAddressField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        webhookPanel.add(new JLabel("Port:"), gbc);
+        gbc.gridx = 1;
+        webhookPanel.add(webhookPortField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        webhookPanel.add(new JLabel("Public URL:"), gbc);
+        gbc.gridx = 1;
+        webhookPanel.add(webhookPublicUrlField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        webhookPanel.add(webhookVerifySignatureCheckBox, gbc);
 
-        add(unifiedPanel, BorderLayout.CENTER);
-        add(createFooter(), BorderLayout.SOUTH);
-    }
+        gbc.gridy++;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveWebhookSettings());
+        webhookPanel.add(applyButton, gbc);
 
-    private JPanel createSectionPanel(String title, JPanel content) {
-        JPanel sectionPanel = new JPanel(new BorderLayout());
-        sectionPanel.setBorder(BorderFactory.createTitledBorder(title));
-        sectionPanel.add(content, BorderLayout.CENTER);
-        return sectionPanel;
+        gbc.gridy++;
+        webhookPanel.add(webhookStatusLabel, gbc);
+
+        return webhookPanel;
     }
 
-    private JPanel createMainPanel() {
-        JPanel mainPanel = new JPanel(new GridBagLayout());
+    private JPanel createSharedStorePanel() {
+        JPanel sharedStorePanel = new JPanel(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
 
         gbc.gridx = 0;
         gbc.gridy = 0;
-        gbc.anchor = GridBagConstraints.EAST;
-        mainPanel.add(new JLabel("Latest OTP:"), gbc);
+        gbc.gridwidth = 2;
+        sharedStorePanel.add(sharedStoreCheckBox, gbc);
 
+        gbc.gridy++;
+        gbc.gridwidth = 1;
+        sharedStorePanel.add(new JLabel("Store File:"), gbc);
         gbc.gridx = 1;
-        mainPanel.add(otpField, gbc);
+        sharedStorePanel.add(sharedStorePathField, gbc);
 
+        gbc.gridy++;
         gbc.gridx = 0;
-        gbc.gridy = 1;
         gbc.gridwidth = 2;
-        JButton fetchOtpButton = new JButton("Fetch OTP");
-        fetchOtpButton.addActionListener(e -> fetchAndUpdateOTP());
-        mainPanel.add(fetchOtpButton, gbc);
+        sharedStorePanel.add(new JLabel("Instances using the same file fetch from Twilio one at a time and reuse each other's codes."), gbc);
 
-        return mainPanel;
+        gbc.gridy++;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveSharedStoreSettings());
+        sharedStorePanel.add(applyButton, gbc);
+
+        gbc.gridy++;
+        sharedStorePanel.add(sharedStoreStatusLabel, gbc);
+
+        return sharedStorePanel;
     }
 
-    private JPanel createSettingsPanel() {
-        JPanel settingsPanel = new JPanel(new GridBagLayout());
+    private JPanel createPoolPanel() {
+        JPanel poolPanel = new JPanel(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(5, 5, 5, 5);
         gbc.anchor = GridBagConstraints.WEST;
 
         gbc.gridx = 0;
         gbc.gridy = 0;
-        settingsPanel.add(new JLabel("Account SID:"), gbc);
+        poolPanel.add(new JLabel("Session Key Location:"), gbc);
         gbc.gridx = 1;
-        settingsPanel.add(createMaskedField(accountSidField), gbc);
+        poolPanel.add(sessionKeyTypeComboBox, gbc);
 
         gbc.gridy++;
         gbc.gridx = 0;
-        settingsPanel.add(new JLabel("Auth Token:"), gbc);
+        poolPanel.add(new JLabel("Session Key Name:"), gbc);
         gbc.gridx = 1;
-        settingsPanel.add(createMaskedField(authTokenField), gbc);
+        poolPanel.add(sessionKeyNameField, gbc);
 
         gbc.gridy++;
         gbc.gridx = 0;
-        settingsPanel.add(new JLabel("From Number:"), gbc);
+        poolPanel.add(new JLabel("From Number:"), gbc);
         gbc.gridx = 1;
-        settingsPanel.add(fromNumberField, gbc);
+        poolPanel.add(poolFromNumberField, gbc);
 
         gbc.gridy++;
         gbc.gridx = 0;
-        settingsPanel.add(new JLabel("To Number:"), gbc);
+        poolPanel.add(new JLabel("To Number:"), gbc);
         gbc.gridx = 1;
-        settingsPanel.add(toNumberField, gbc);
+        poolPanel.add(poolToNumberField, gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        poolPanel.add(new JLabel("Account SID (optional):"), gbc);
+        gbc.gridx = 1;
+        poolPanel.add(createMaskedField(poolAccountSidField), gbc);
+
+        gbc.gridy++;
+        gbc.gridx = 0;
+        poolPanel.add(new JLabel("Auth Token (optional):"), gbc);
+        gbc.gridx = 1;
+        poolPanel.add(createMaskedField(poolAuthTokenField), gbc);
 
         gbc.gridy++;
         gbc.gridx = 0;
         gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        JList<PoolEntry> poolList = new JList<>(poolModel);
+        poolList.setVisibleRowCount(4);
+        poolPanel.add(new JScrollPane(poolList), gbc);
+        gbc.fill = GridBagConstraints.NONE;
 
+        gbc.gridy++;
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        JButton saveButton = new JButton("Save");
-        JButton importButton = new JButton("Import");
-        JButton exportButton = new JButton("Export");
-        JButton clearButton = new JButton("Clear");
+        JButton addButton = new JButton("Add Number");
+        JButton removeButton = new JButton("Remove Number");
+        JButton applyButton = new JButton("Apply");
 
-        saveButton.addActionListener(e -> saveTwilioSettings());
-        importButton.addActionListener(e -> importSettingsFromFile());
-        exportButton.addActionListener(e -> exportSettingsToFile());
-        clearButton.addActionListener(e -> clearTwilioSettings());
+        addButton.addActionListener(e -> addPoolEntryFromFields());
+        removeButton.addActionListener(e -> {
+            int selected = poolList.getSelectedIndex();
+            if (selected >= 0) {
+                poolModel.remove(selected);
+            }
+        });
+        applyButton.addActionListener(e -> savePoolSettings());
 
-        buttonPanel.add(saveButton);
-        buttonPanel.add(importButton);
-        buttonPanel.add(exportButton);
-        buttonPanel.add(clearButton);
-        settingsPanel.add(buttonPanel, gbc);
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        buttonPanel.add(applyButton);
+        poolPanel.add(buttonPanel, gbc);
 
-        return settingsPanel;
+        gbc.gridy++;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        poolPanel.add(new JScrollPane(poolStatsArea), gbc);
+
+        return poolPanel;
     }
 
-    private JPanel createConfigurePanel() {
-        JPanel configurePanel = new JPanel(new GridBagLayout());
+    private JPanel createLoggingPanel() {
+        JPanel loggingPanel = new JPanel(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(5, 5, 5, 5);
         gbc.anchor = GridBagConstraints.WEST;
 
         gbc.gridx = 0;
         gbc.gridy = 0;
-        configurePanel.add(new JLabel("Rule Type:"), gbc);
+        loggingPanel.add(new JLabel("Log Level:"), gbc);
         gbc.gridx = 1;
-        configurePanel.add(ruleTypeComboBox, gbc);
+        loggingPanel.add(logLevelComboBox, gbc);
 
         gbc.gridy++;
         gbc.gridx = 0;
-        configurePanel.add(new JLabel("Parameter Name:"), gbc);
-        gbc.gridx = 1;
-        configurePanel.add(parameterNameField, gbc);
+        gbc.gridwidth = 2;
+        loggingPanel.add(new JLabel("DEBUG adds a line per request; repeats of a line within 10s are counted, not written."), gbc);
+
+        gbc.gridy++;
+        loggingPanel.add(logStatsLabel, gbc);
 
         gbc.gridy++;
+        JButton applyButton = new JButton("Apply");
+        applyButton.addActionListener(e -> saveLogLevel());
+        loggingPanel.add(applyButton, gbc);
+
+        return loggingPanel;
+    }
+
+    private JPanel createMetricsPanel() {
+        JPanel metricsPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
         gbc.gridx = 0;
-        gbc.gridwidth = 2;
-        JButton generateConfigButton = new JButton("Generate Config");
-        generateConfigButton.addActionListener(e -> saveConfigurationSettings());
-        configurePanel.add(generateConfigButton, gbc);
+        gbc.gridy = 0;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        metricsPanel.add(new JScrollPane(metricsArea), gbc);
 
-        return configurePanel;
+        gbc.gridy++;
+        gbc.fill = GridBagConstraints.NONE;
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton exportJsonButton = new JButton("Export JSON");
+        JButton exportCsvButton = new JButton("Export CSV");
+        JButton resetButton = new JButton("Reset");
+
+        exportJsonButton.addActionListener(e -> exportMetricsToFile(false));
+        exportCsvButton.addActionListener(e -> exportMetricsToFile(true));
+        resetButton.addActionListener(e -> {
+            otpHandler.getMetrics().reset();
+            updateMetrics();
+            statusLabel.setText("Metrics reset.");
+        });
+
+        buttonPanel.add(exportJsonButton);
+        buttonPanel.add(exportCsvButton);
+        buttonPanel.add(resetButton);
+        metricsPanel.add(buttonPanel, gbc);
+
+        return metricsPanel;
     }
 
     private JPanel createFooter() {
@@ -231,7 +1137,14 @@ public class OTPDisplayPanel extends JPanel {
         String authToken = new String(authTokenField.getPassword());
         String fromNumber = fromNumberField.getText().trim();
         String toNumber = toNumberField.getText().trim();
+        String baseUrl = baseUrlField.getText().trim();
 
+        try {
+            otpHandler.updateBaseUrl(baseUrl.isEmpty() ? OTPHandler.DEFAULT_BASE_URL : baseUrl);
+        } catch (IllegalArgumentException ex) {
+            statusLabel.setText("Status: " + ex.getMessage());
+            return;
+        }
         otpHandler.updateSettings(accountSid, authToken, fromNumber, toNumber);
 
         savePreference("accountSid", accountSid);
@@ -254,6 +1167,7 @@ public class OTPDisplayPanel extends JPanel {
             authTokenField.setText(map.getOrDefault("authToken", ""));
             fromNumberField.setText(map.getOrDefault("fromNumber", ""));
             toNumberField.setText(map.getOrDefault("toNumber", ""));
+            baseUrlField.setText(map.getOrDefault("baseUrl", OTPHandler.DEFAULT_BASE_URL));
             statusLabel.setText("Imported settings from file.");
         } catch (IOException ex) {
             statusLabel.setText("Failed to import settings.");
@@ -271,6 +1185,7 @@ public class OTPDisplayPanel extends JPanel {
         map.put("authToken", new String(authTokenField.getPassword()));
         map.put("fromNumber", fromNumberField.getText().trim());
         map.put("toNumber", toNumberField.getText().trim());
+        map.put("baseUrl", baseUrlField.getText().trim());
 
         try (OutputStream output = new FileOutputStream(fileChooser.getSelectedFile())) {
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(output, map);
@@ -286,6 +1201,8 @@ public class OTPDisplayPanel extends JPanel {
         authTokenField.setText("");
         fromNumberField.setText("");
         toNumberField.setText("");
+        baseUrlField.setText(OTPHandler.DEFAULT_BASE_URL);
+        otpHandler.updateBaseUrl(OTPHandler.DEFAULT_BASE_URL);
 
         savePreference("accountSid", "");
         savePreference("authToken", "");
@@ -296,27 +1213,519 @@ public class OTPDisplayPanel extends JPanel {
         api.logging().logToOutput("Twilio credentials cleared.");
     }
 
-    private void saveConfigurationSettings() {
+    // Adds the rule described by the Configure fields to the list; returns false if the fields are invalid
+    private boolean addRuleFromFields() {
         Object selectedRuleTypeObj = ruleTypeComboBox.getSelectedItem();
 
         if (selectedRuleTypeObj == null) {
             statusLabel.setText("Status: Rule Type selection is required.");
             api.logging().logToError("Rule Type not selected.");
-            return;
+            return false;
         }
 
-        String selectedRuleType = selectedRuleTypeObj.toString();
         String parameterName = parameterNameField.getText().trim();
 
         if (parameterName.isEmpty()) {
             statusLabel.setText("Status: Parameter Name is required.");
             api.logging().logToError("Parameter Name is empty.");
+            return false;
+        }
+
+        InjectionRule rule = new InjectionRule(
+                ruleHostField.getText(),
+                rulePathPrefixField.getText(),
+                ruleMethodField.getText(),
+                (RuleType) selectedRuleTypeObj,
+                parameterName);
+        rulesModel.addElement(rule);
+        statusLabel.setText("Rule added: " + rule);
+        return true;
+    }
+
+    private void saveConfigurationSettings() {
+        // A single filled-in rule can still be saved in one click, as before rules were scoped
+        if (rulesModel.isEmpty() && !addRuleFromFields()) {
+            return;
+        }
+
+        List<InjectionRule> rules = new ArrayList<>();
+        for (int i = 0; i < rulesModel.size(); i++) {
+            rules.add(rulesModel.get(i));
+        }
+
+        try {
+            configParser.saveRules(rules);
+        } catch (IllegalArgumentException ex) {
+            statusLabel.setText("Status: " + ex.getMessage());
+            api.logging().logToError("Failed to save configuration: " + ex.getMessage());
+            return;
+        }
+        statusLabel.setText(String.format("Config Saved: %d rule(s)", rules.size()));
+        api.logging().logToOutput(String.format("Configuration Saved: %d rule(s)", rules.size()));
+    }
+
+    private void saveCacheSettings() {
+        int ttlSeconds;
+        int maxAgeSeconds;
+        int useBudget;
+        try {
+            ttlSeconds = Integer.parseInt(cacheTtlField.getText().trim());
+            maxAgeSeconds = Integer.parseInt(cacheMaxAgeField.getText().trim());
+            useBudget = Integer.parseInt(useBudgetField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Cache TTL, Max Age and Uses per OTP must be whole numbers.");
+            return;
+        }
+
+        if (ttlSeconds < 0 || maxAgeSeconds < 0 || useBudget < 0) {
+            statusLabel.setText("Status: Cache TTL, Max Age and Uses per OTP cannot be negative.");
+            return;
+        }
+
+        otpHandler.updateCacheSettings(ttlSeconds, maxAgeSeconds);
+        otpHandler.updateUseBudget(useBudget);
+        statusLabel.setText(String.format("Cache Saved: TTL=%ds, MaxAge=%ds, UsesPerOTP=%s", ttlSeconds, maxAgeSeconds,
+                useBudget == 0 ? "unlimited" : String.valueOf(useBudget)));
+    }
+
+    private void saveFreshModeSettings() {
+        int deadlineSeconds;
+        int maxBackoffMillis;
+        try {
+            deadlineSeconds = Integer.parseInt(freshDeadlineField.getText().trim());
+            maxBackoffMillis = Integer.parseInt(freshMaxBackoffField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Deadline and Max Backoff must be whole numbers.");
+            return;
+        }
+
+        if (deadlineSeconds <= 0 || maxBackoffMillis <= 0) {
+            statusLabel.setText("Status: Deadline and Max Backoff must be positive.");
+            return;
+        }
+
+        boolean enabled = freshModeCheckBox.isSelected();
+        otpHandler.updateFreshModeSettings(enabled, deadlineSeconds, maxBackoffMillis);
+        statusLabel.setText(String.format("Fresh OTP Saved: Enabled=%s, Deadline=%ds, MaxBackoff=%dms",
+                enabled, deadlineSeconds, maxBackoffMillis));
+    }
+
+    private void saveSourceSettings() {
+        OTPSource.Type type = (OTPSource.Type) sourceTypeComboBox.getSelectedItem();
+        String secret = new String(totpSecretField.getPassword()).trim();
+
+        if (!secret.isEmpty()) {
+            int digits;
+            int periodSeconds;
+            int skewSeconds;
+            try {
+                digits = Integer.parseInt(totpDigitsField.getText().trim());
+                periodSeconds = Integer.parseInt(totpPeriodField.getText().trim());
+                skewSeconds = Integer.parseInt(totpSkewField.getText().trim());
+            } catch (NumberFormatException ex) {
+                statusLabel.setText("Status: Digits, Period and Clock Offset must be whole numbers.");
+                return;
+            }
+
+            try {
+                otpHandler.updateTotpSettings(secret, digits, periodSeconds,
+                        (TotpSource.Algorithm) totpAlgorithmComboBox.getSelectedItem(), skewSeconds);
+            } catch (IllegalArgumentException ex) {
+                statusLabel.setText("Status: " + ex.getMessage());
+                return;
+            }
+        } else if (type == OTPSource.Type.TOTP) {
+            statusLabel.setText("Status: TOTP Secret is required for the TOTP source.");
+            return;
+        }
+
+        otpHandler.updateOtpSource(type);
+        statusLabel.setText("OTP Source Saved: " + type);
+    }
+
+    private void saveDeadlineSettings() {
+        int deadlineMillis;
+        try {
+            deadlineMillis = Integer.parseInt(acquireDeadlineField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Deadline must be a whole number.");
+            return;
+        }
+
+        if (deadlineMillis < 0) {
+            statusLabel.setText("Status: Deadline must not be negative.");
+            return;
+        }
+
+        OTPHandler.DeadlinePolicy policy = (OTPHandler.DeadlinePolicy) deadlinePolicyComboBox.getSelectedItem();
+        otpHandler.updateDeadlineSettings(deadlineMillis, policy);
+        statusLabel.setText(String.format("Acquisition Deadline Saved: Deadline=%dms, Policy=%s", deadlineMillis, policy));
+    }
+
+    private void saveLogLevel() {
+        AsyncLogger.Level level = (AsyncLogger.Level) logLevelComboBox.getSelectedItem();
+        otpHandler.updateLogLevel(level);
+        statusLabel.setText("Log Level Saved: " + level);
+    }
+
+    private void saveRefreshAheadSettings() {
+        int refreshPercent;
+        int idleSeconds;
+        try {
+            refreshPercent = Integer.parseInt(refreshAheadPercentField.getText().trim());
+            idleSeconds = Integer.parseInt(refreshAheadIdleField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Refresh At and Pause After Idle must be whole numbers.");
+            return;
+        }
+
+        if (refreshPercent < 1 || refreshPercent > 99 || idleSeconds <= 0) {
+            statusLabel.setText("Status: Refresh At must be 1-99% and Pause After Idle must be positive.");
+            return;
+        }
+
+        boolean enabled = refreshAheadCheckBox.isSelected();
+        otpHandler.updateRefreshAheadSettings(enabled, refreshPercent, idleSeconds);
+        updateRefreshAheadStatus();
+        statusLabel.setText(String.format("Refresh Ahead Saved: Enabled=%s, RefreshAt=%d%%, PauseAfterIdle=%ds",
+                enabled, refreshPercent, idleSeconds));
+    }
+
+    private void saveRateLimitSettings() {
+        int ratePerSecond;
+        int burst;
+        int maxWaitMillis;
+        int failureThreshold;
+        int openSeconds;
+        try {
+            ratePerSecond = Integer.parseInt(rateLimitField.getText().trim());
+            burst = Integer.parseInt(rateLimitBurstField.getText().trim());
+            maxWaitMillis = Integer.parseInt(maxThrottleWaitField.getText().trim());
+            failureThreshold = Integer.parseInt(breakerThresholdField.getText().trim());
+            openSeconds = Integer.parseInt(breakerOpenField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Rate limit and circuit breaker settings must be whole numbers.");
+            return;
+        }
+
+        if (ratePerSecond <= 0 || burst <= 0 || failureThreshold <= 0 || maxWaitMillis < 0 || openSeconds < 0) {
+            statusLabel.setText("Status: Rate, Burst and Failures must be positive; waits must not be negative.");
+            return;
+        }
+
+        boolean serveLast = breakerServeLastCheckBox.isSelected();
+        otpHandler.updateRateLimitSettings(ratePerSecond, burst, maxWaitMillis, failureThreshold, openSeconds, serveLast);
+        updateRateLimitStatus();
+        statusLabel.setText(String.format("Rate Limit Saved: %d/s, Burst=%d, MaxWait=%dms, Threshold=%d, Open=%ds, ServeLast=%s",
+                ratePerSecond, burst, maxWaitMillis, failureThreshold, openSeconds, serveLast));
+    }
+
+    private void saveExecutorSettings() {
+        int concurrency;
+        int queueBound;
+        try {
+            concurrency = Integer.parseInt(fetchConcurrencyField.getText().trim());
+            queueBound = Integer.parseInt(fetchQueueBoundField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Concurrent Fetches and Queue Bound must be whole numbers.");
+            return;
+        }
+
+        if (concurrency <= 0 || queueBound < 0) {
+            statusLabel.setText("Status: Concurrent Fetches must be positive and Queue Bound cannot be negative.");
+            return;
+        }
+
+        otpHandler.updateExecutorSettings(concurrency, queueBound);
+        updateFetchExecutorLabel();
+        statusLabel.setText(String.format("Executor Saved: Concurrency=%d, QueueBound=%d", concurrency, queueBound));
+    }
+
+    private void saveTransportSettings() {
+        int requestTimeoutMillis;
+        int maxConcurrentStreams;
+        try {
+            requestTimeoutMillis = Integer.parseInt(requestTimeoutField.getText().trim());
+            maxConcurrentStreams = Integer.parseInt(maxConcurrentStreamsField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Request Timeout and Max Concurrent Streams must be whole numbers.");
+            return;
+        }
+
+        if (requestTimeoutMillis <= 0 || maxConcurrentStreams <= 0) {
+            statusLabel.setText("Status: Request Timeout and Max Concurrent Streams must be positive.");
+            return;
+        }
+
+        TwilioTransport.Mode mode = (TwilioTransport.Mode) transportModeComboBox.getSelectedItem();
+        otpHandler.updateTransportSettings(mode, requestTimeoutMillis, maxConcurrentStreams);
+        statusLabel.setText(String.format("Transport Saved: Mode=%s, Timeout=%dms, MaxStreams=%d",
+                mode, requestTimeoutMillis, maxConcurrentStreams));
+    }
+
+    private void updateFetchExecutorLabel() {
+        fetchExecutorLabel.setText(otpHandler.getFetchExecutor().isVirtual()
+                ? "Running on virtual threads."
+                : "Running on platform threads.");
+    }
+
+    private void saveWebhookSettings() {
+        int port;
+        try {
+            port = Integer.parseInt(webhookPortField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Webhook port must be a whole number.");
+            return;
+        }
+
+        if (port <= 0 || port > 65535) {
+            statusLabel.setText("Status: Webhook port must be between 1 and 65535.");
+            return;
+        }
+
+        String bindAddress = webhookBindAddressField.getText().trim();
+        if (bindAddress.isEmpty()) {
+            statusLabel.setText("Status: Webhook bind address is required.");
+            return;
+        }
+
+        otpHandler.updateWebhookSettings(
+                webhookEnabledCheckBox.isSelected(),
+                bindAddress,
+                port,
+                webhookPublicUrlField.getText().trim(),
+                webhookVerifySignatureCheckBox.isSelected());
+        updateWebhookStatusLabel();
+        statusLabel.setText("Webhook settings saved.");
+    }
+
+    private void saveSharedStoreSettings() {
+        String path = sharedStorePathField.getText().trim();
+        if (sharedStoreCheckBox.isSelected() && path.isEmpty()) {
+            statusLabel.setText("Status: Store File is required to share OTPs.");
             return;
         }
 
-        configParser.saveToPreferences(selectedRuleType, parameterName);
-        statusLabel.setText(String.format("Config Saved: RuleType=%s, ParameterName=%s", selectedRuleType, parameterName));
-        api.logging().logToOutput(String.format("Configuration Saved: RuleType=%s, ParameterName=%s", selectedRuleType, parameterName));
+        try {
+            otpHandler.updateSharedStoreSettings(sharedStoreCheckBox.isSelected(), path);
+        } catch (IOException | RuntimeException ex) {
+            statusLabel.setText("Status: Could not open the shared store: " + ex.getMessage());
+            return;
+        }
+        updateSharedStoreStatus();
+        statusLabel.setText("Shared Cache Saved: " + (sharedStoreCheckBox.isSelected() ? path : "disabled"));
+    }
+
+    private void updateSharedStoreStatus() {
+        SharedOTPStore store = otpHandler.getSharedStore();
+        OTPMetrics metrics = otpHandler.getMetrics();
+        sharedStoreStatusLabel.setText(store == null
+                ? "Not sharing."
+                : String.format("Slots Used: %d/%d   Codes From Other Instances: %d   Waits: %d",
+                        store.getUsedSlots(), store.getSlotCount(), metrics.getSharedHits(), metrics.getSharedWaits()));
+    }
+
+    private void updateWebhookStatusLabel() {
+        webhookStatusLabel.setText(otpHandler.isWebhookRunning()
+                ? "Listening on " + otpHandler.getWebhookBindAddress() + ":" + otpHandler.getWebhookPort() + InboundSmsWebhookServer.WEBHOOK_PATH
+                : "Webhook listener stopped.");
+    }
+
+    private void addTemplateFromFields() {
+        OTPTemplate template;
+        try {
+            template = new OTPTemplate(
+                    templateSenderField.getText().trim(),
+                    templatePrefixField.getText().trim(),
+                    templateSuffixField.getText().trim(),
+                    (OTPTemplate.Charset) templateCharsetComboBox.getSelectedItem(),
+                    Integer.parseInt(templateMinLengthField.getText().trim()),
+                    Integer.parseInt(templateMaxLengthField.getText().trim()),
+                    templateRegexField.getText().trim());
+        } catch (NumberFormatException ex) {
+            statusLabel.setText("Status: Min Length and Max Length must be whole numbers.");
+            return;
+        } catch (IllegalArgumentException ex) {
+            statusLabel.setText("Status: " + ex.getMessage());
+            return;
+        }
+
+        templatesModel.addElement(template);
+        templateSenderField.setText("");
+        templatePrefixField.setText("");
+        templateSuffixField.setText("");
+        templateRegexField.setText("");
+        statusLabel.setText("OTP template added: " + template);
+    }
+
+    private void saveTemplates() {
+        List<OTPTemplate> templates = new ArrayList<>();
+        for (int i = 0; i < templatesModel.size(); i++) {
+            templates.add(templatesModel.get(i));
+        }
+
+        otpHandler.updateOtpTemplates(templates);
+        templatesModel.clear();
+        otpHandler.getOtpTemplates().forEach(templatesModel::addElement);
+        statusLabel.setText("OTP Templates Saved: " + templatesModel.size() + " template(s)");
+    }
+
+    private void addPoolEntryFromFields() {
+        String from = poolFromNumberField.getText().trim();
+        String to = poolToNumberField.getText().trim();
+        if (from.isEmpty() || to.isEmpty()) {
+            statusLabel.setText("Status: From and To numbers are required for a pool entry.");
+            return;
+        }
+
+        String accountSid = new String(poolAccountSidField.getPassword()).trim();
+        String authToken = new String(poolAuthTokenField.getPassword()).trim();
+        if (accountSid.isEmpty() != authToken.isEmpty()) {
+            statusLabel.setText("Status: Account SID and Auth Token must be given together.");
+            return;
+        }
+
+        Map<String, String> entry = new LinkedHashMap<>();
+        entry.put("fromNumber", from);
+        entry.put("toNumber", to);
+        if (!accountSid.isEmpty()) {
+            entry.put("accountSid", accountSid);
+            entry.put("authToken", authToken);
+        }
+        poolModel.addElement(new PoolEntry(entry));
+
+        poolFromNumberField.setText("");
+        poolToNumberField.setText("");
+        poolAccountSidField.setText("");
+        poolAuthTokenField.setText("");
+        statusLabel.setText("Pool number added: " + from + " -> " + to);
+    }
+
+    private void savePoolSettings() {
+        String selectedKeyType = (String) sessionKeyTypeComboBox.getSelectedItem();
+        RuleType keyType = NO_SESSION_KEY.equals(selectedKeyType) ? null : RuleType.valueOf(selectedKeyType);
+        String keyName = sessionKeyNameField.getText().trim();
+        if (keyType != null && keyName.isEmpty()) {
+            statusLabel.setText("Status: Session Key Name is required when a key location is selected.");
+            return;
+        }
+
+        List<Map<String, String>> entries = new ArrayList<>();
+        for (int i = 0; i < poolModel.size(); i++) {
+            entries.add(poolModel.get(i).entry());
+        }
+
+        otpHandler.updatePoolSettings(entries, keyType, keyName);
+        statusLabel.setText(String.format("Number Pool Saved: %d shard(s)", otpHandler.getShards().size()));
+    }
+
+    // Cache stats are summed over every shard; the pool area shows each shard on its own line
+    private void updateCacheStats() {
+        long hits = 0;
+        long misses = 0;
+        long coalesced = 0;
+        StringBuilder poolStats = new StringBuilder();
+        for (OTPShard shard : otpHandler.getShards()) {
+            OTPCache otpCache = shard.getCache();
+            hits += otpCache.getHits();
+            misses += otpCache.getMisses();
+            coalesced += otpCache.getCoalesced();
+            poolStats.append(String.format("%s   Fetches: %d   Avg: %d ms   Last: %d ms   Waiting: %d%n",
+                    shard, shard.getFetchCount(), shard.getAverageFetchMillis(), shard.getLastFetchMillis(), shard.getQueueDepth()));
+        }
+        String leases = "";
+        if (otpHandler.getUseBudget() > 0) {
+            leases = String.format("   Uses of Current OTP: %d/%d   Lease Waits: %d",
+                    otpHandler.getShards().get(0).getLeaseLedger().getLatestUses(), otpHandler.getUseBudget(),
+                    otpHandler.getMetrics().getLeaseWaits());
+        }
+        cacheStatsLabel.setText(String.format("Hits: %d   Misses: %d   Coalesced: %d%s", hits, misses, coalesced, leases));
+        poolStatsArea.setText(poolStats.toString());
+    }
+
+    private void updateRateLimitStatus() {
+        TwilioRateLimiter rateLimiter = otpHandler.getRateLimiter();
+        CircuitBreaker circuitBreaker = otpHandler.getCircuitBreaker();
+        String circuit = circuitBreaker.getState().toString();
+        if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+            circuit += " (" + circuitBreaker.getOpenRemainingMillis() / 1000 + "s left)";
+        }
+        rateLimitStatusLabel.setText(String.format("Circuit: %s   Consecutive Failures: %d   Tokens: %.1f/%d   Retry-After: %d ms",
+                circuit, circuitBreaker.getConsecutiveFailures(), rateLimiter.getAvailableTokens(), rateLimiter.getBurst(),
+                rateLimiter.getBlockedMillis()));
+    }
+
+    private void updateLogStats() {
+        AsyncLogger log = otpHandler.getLogger();
+        logStatsLabel.setText(String.format("Repeats Suppressed: %d   Dropped (buffer full): %d",
+                log.getSuppressed(), log.getDropped()));
+    }
+
+    private void updateRefreshAheadStatus() {
+        RefreshAheadScheduler scheduler = otpHandler.getRefreshAheadScheduler();
+        String state;
+        if (!scheduler.isEnabled()) {
+            state = "Disabled";
+        } else if (otpHandler.isFreshMode()) {
+            state = "Inactive in fresh OTP mode";
+        } else if (scheduler.isPaused()) {
+            state = "Paused until the next session-handling request";
+        } else {
+            state = "Active";
+        }
+
+        OTPMetrics metrics = otpHandler.getMetrics();
+        refreshAheadStatusLabel.setText(String.format("%s   Refreshes: %d   Wasted: %d   Hot-path Misses: %d",
+                state, metrics.getRefreshes(), metrics.getWastedRefreshes(), metrics.getHotPathMisses()));
+    }
+
+    private void updateMetrics() {
+        OTPMetrics metrics = otpHandler.getMetrics();
+        StringBuilder text = new StringBuilder(String.format("%-28s %8s %10s %10s %10s %10s%n",
+                "Latency (us)", "Count", "p50", "p95", "p99", "Max"));
+        for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            text.append(String.format("%-28s %8d %10d %10d %10d %10d%n",
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getPercentileNanos(50) / 1000,
+                    histogram.getPercentileNanos(95) / 1000,
+                    histogram.getPercentileNanos(99) / 1000,
+                    histogram.getMaxNanos() / 1000));
+        }
+        text.append(System.lineSeparator());
+        for (Map.Entry<String, Long> entry : metrics.getCounters().entrySet()) {
+            text.append(String.format("%-28s %8d%n", entry.getKey(), entry.getValue()));
+        }
+        metricsArea.setText(text.toString());
+    }
+
+    private void exportMetricsToFile(boolean csv) {
+        JFileChooser fileChooser = new JFileChooser();
+        int result = fileChooser.showSaveDialog(this);
+        if (result != JFileChooser.APPROVE_OPTION) return;
+
+        OTPMetrics metrics = otpHandler.getMetrics();
+        try (OutputStream output = new FileOutputStream(fileChooser.getSelectedFile())) {
+            if (csv) {
+                output.write(metrics.toCsv().getBytes(StandardCharsets.UTF_8));
+            } else {
+                objectMapper.writerWithDefaultPrettyPrinter().writeValue(output, metrics.snapshot());
+            }
+            statusLabel.setText("Metrics exported successfully.");
+        } catch (IOException ex) {
+            statusLabel.setText("Failed to export metrics.");
+            api.logging().logToError("Error exporting metrics: " + ex.getMessage());
+        }
+    }
+
+    // Pool list item; shows the numbers but never the credentials
+    private record PoolEntry(Map<String, String> entry) {
+        @Override
+        public String toString() {
+            String ownAccount = entry.get("accountSid") != null ? "   (own account)" : "";
+            return entry.get("fromNumber") + " -> " + entry.get("toNumber") + ownAccount;
+        }
     }
 
     private void savePreference(String key, String value) {
@@ -0,0 +1,243 @@
+package twilio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pulls the OTP out of an SMS body using an ordered list of {@link OTPTemplate}s. Templates for
+ * the message's sender are tried before generic ones, and within each group in configured order.
+ *
+ * <p>Templates without a regex are matched by a hand-written scanner over the body's characters:
+ * anchors are found case-insensitively with {@code regionMatches} and must not start or end
+ * inside a word, and a code is a whole word (a maximal run of letters, digits and underscores,
+ * as between regex {@code \b}s) of the template's charset and length. The only allocation is
+ * the returned code. Regex templates are the fallback for layouts the anchors can't describe.
+ */
+public class OTPExtractor {
+    private final Rule[] rules;
+
+    public OTPExtractor(List<OTPTemplate> templates) {
+        List<Rule> ordered = new ArrayList<>();
+        for (OTPTemplate template : templates) {
+            if (template.getSender() != null) {
+                ordered.add(compile(template));
+            }
+        }
+        for (OTPTemplate template : templates) {
+            if (template.getSender() == null) {
+                ordered.add(compile(template));
+            }
+        }
+        this.rules = ordered.toArray(new Rule[0]);
+    }
+
+    /**
+     * Returns the OTP in {@code body}, or {@code null} if no template matches. A {@code null}
+     * sender only matches generic templates.
+     */
+    public String extract(String from, String body) {
+        if (body == null) {
+            return null;
+        }
+        for (Rule rule : rules) {
+            if (rule.sender != null && !rule.sender.equals(from)) {
+                continue;
+            }
+            String code = rule.extract(body);
+            if (code != null) {
+                return code;
+            }
+        }
+        return null;
+    }
+
+    private static Rule compile(OTPTemplate template) {
+        if (template.getRegex() != null) {
+            return new RegexRule(template.getSender(), Pattern.compile(template.getRegex()));
+        }
+        return new ScannerRule(template);
+    }
+
+    private abstract static class Rule {
+        private final String sender;
+
+        private Rule(String sender) {
+            this.sender = sender;
+        }
+
+        abstract String extract(String body);
+    }
+
+    private static final class RegexRule extends Rule {
+        private final Pattern pattern;
+
+        private RegexRule(String sender, Pattern pattern) {
+            super(sender);
+            this.pattern = pattern;
+        }
+
+        @Override
+        String extract(String body) {
+            Matcher matcher = pattern.matcher(body);
+            if (!matcher.find()) {
+                return null;
+            }
+            return matcher.groupCount() > 0 && matcher.group(1) != null ? matcher.group(1) : matcher.group();
+        }
+    }
+
+    private static final class ScannerRule extends Rule {
+        private final String prefix;
+        private final String suffix;
+        private final boolean alphanumeric;
+        private final int minLength;
+        private final int maxLength;
+
+        private ScannerRule(OTPTemplate template) {
+            super(template.getSender());
+            this.prefix = template.getPrefix();
+            this.suffix = template.getSuffix();
+            this.alphanumeric = template.getCharset() == OTPTemplate.Charset.ALPHANUMERIC;
+            this.minLength = template.getMinLength();
+            this.maxLength = template.getMaxLength();
+        }
+
+        @Override
+        String extract(String body) {
+            if (prefix != null) {
+                return afterPrefix(body);
+            }
+            if (suffix != null) {
+                return beforeSuffix(body);
+            }
+            return firstWord(body);
+        }
+
+        // The first word in the body that is a valid code
+        private String firstWord(String body) {
+            int length = body.length();
+            int position = 0;
+            while (position < length) {
+                while (position < length && !isWordChar(body.charAt(position))) {
+                    position++;
+                }
+                int end = wordEnd(body, position);
+                if (isCode(body, position, end)) {
+                    return body.substring(position, end);
+                }
+                position = end;
+            }
+            return null;
+        }
+
+        // The word right after an occurrence of the prefix, and before the suffix if there is one
+        private String afterPrefix(String body) {
+            int length = body.length();
+            for (int at = indexOfIgnoreCase(body, prefix, 0); at >= 0; at = indexOfIgnoreCase(body, prefix, at + 1)) {
+                // The prefix started inside a word, e.g. "code" matching "barcode"
+                if (at > 0 && isWordChar(prefix.charAt(0)) && isWordChar(body.charAt(at - 1))) {
+                    continue;
+                }
+
+                int anchorEnd = at + prefix.length();
+                int start = anchorEnd;
+                while (start < length && !isWordChar(body.charAt(start))) {
+                    start++;
+                }
+                // The prefix ended inside a word, e.g. "code" matching "codes"
+                if (start == anchorEnd && start > 0 && start < length && isWordChar(body.charAt(start - 1))) {
+                    continue;
+                }
+
+                int end = wordEnd(body, start);
+                if (!isCode(body, start, end)) {
+                    continue;
+                }
+                if (suffix != null) {
+                    int next = end;
+                    while (next < length && !isWordChar(body.charAt(next))) {
+                        next++;
+                    }
+                    if (!body.regionMatches(true, next, suffix, 0, suffix.length())) {
+                        continue;
+                    }
+                }
+                return body.substring(start, end);
+            }
+            return null;
+        }
+
+        // The word right before an occurrence of the suffix
+        private String beforeSuffix(String body) {
+            for (int at = indexOfIgnoreCase(body, suffix, 0); at >= 0; at = indexOfIgnoreCase(body, suffix, at + 1)) {
+                int end = at;
+                while (end > 0 && !isWordChar(body.charAt(end - 1))) {
+                    end--;
+                }
+                // The suffix started inside a word
+                if (end == at && end > 0 && end < body.length() && isWordChar(body.charAt(end))) {
+                    continue;
+                }
+
+                int start = end;
+                while (start > 0 && isWordChar(body.charAt(start - 1))) {
+                    start--;
+                }
+                if (isCode(body, start, end)) {
+                    return body.substring(start, end);
+                }
+            }
+            return null;
+        }
+
+        private boolean isCode(String body, int start, int end) {
+            int length = end - start;
+            if (length < minLength || length > maxLength) {
+                return false;
+            }
+            boolean hasDigit = false;
+            for (int i = start; i < end; i++) {
+                char c = body.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    hasDigit = true;
+                } else if (!alphanumeric || !isAsciiLetter(c)) {
+                    return false;
+                }
+            }
+            // Alphanumeric codes still need a digit, or every ordinary word would match
+            return hasDigit;
+        }
+
+        private static int wordEnd(String body, int start) {
+            int end = start;
+            while (end < body.length() && isWordChar(body.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
+
+        private static int indexOfIgnoreCase(String body, String anchor, int from) {
+            int last = body.length() - anchor.length();
+            char first = anchor.charAt(0);
+            char firstUpper = Character.toUpperCase(first);
+            char firstLower = Character.toLowerCase(first);
+            for (int i = Math.max(from, 0); i <= last; i++) {
+                char c = body.charAt(i);
+                if ((c == firstLower || c == firstUpper) && body.regionMatches(true, i, anchor, 0, anchor.length())) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+
+        private static boolean isAsciiLetter(char c) {
+            return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+        }
+    }
+}
@@ -2,42 +2,343 @@ package twilio;
 
 import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.persistence.Preferences;
-import burp.api.montoya.http.HttpService;
-import burp.api.montoya.http.message.requests.HttpRequest;
-import burp.api.montoya.http.message.responses.HttpResponse;
-import burp.api.montoya.http.HttpMode;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import utils.AsyncLogger;
+import utils.BodyFieldScanner;
+import utils.RuleType;
+import utils.StructuredBodyRewriter;
 
-import java.util.Base64;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class OTPHandler {
+
+    // What performAction does when the OTP isn't ready by the acquisition deadline
+    public enum DeadlinePolicy {
+        SERVE_STALE,
+        PASS_THROUGH
+    }
+
     private final MontoyaApi api;
     private final Preferences preferences;
-    private final Pattern otpRegex;
     private final ObjectMapper objectMapper;
+    private final AsyncLogger log;
+    private volatile List<OTPTemplate> otpTemplates;
+    private volatile OTPExtractor otpExtractor;
+    private volatile MessagePageParser messagePageParser;
+    private final OTPMetrics metrics = new OTPMetrics();
+    private volatile FetchExecutor fetchExecutor;
+    private volatile TwilioTransport transport;
+    private TwilioTransport.Mode transportMode;
+    private int requestTimeoutMillis;
+    private int maxConcurrentStreams;
+
+    // Shared by every Twilio request, whichever shard or transport makes it
+    private final TwilioRateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private volatile long maxThrottleWaitMillis;
+    private volatile boolean serveLastWhileOpen;
 
     // Twilio settings
     private String accountSid;
     private String authToken;
     private String fromNumber;
     private String toNumber;
+    private volatile URI baseUrl;
+
+    // Cache limits, shared by every shard
+    private volatile long cacheTtlMillis;
+    private volatile long cacheMaxAgeMillis;
+
+    // Requests each OTP may be injected into; 0 means no limit
+    private volatile int useBudget;
+
+    // How long performAction waits for an OTP; 0 means no limit
+    private volatile long acquireDeadlineMillis;
+    private volatile DeadlinePolicy deadlinePolicy;
+
+    // Where OTPs come from; the local TOTP generator is null until it has been configured
+    private final OTPSource twilioSource = sessionKey -> latestOTPAsync(sessionKey, true);
+    private volatile OTPSource.Type sourceType;
+    private volatile OTPSource otpSource;
+    private volatile TotpSource totpSource;
+
+    // Number pool; the first shard is always the number pair from the Twilio settings
+    private volatile List<OTPShard> shards = List.of();
+    private List<Map<String, String>> poolEntries = List.of();
+    private volatile RuleType sessionKeyType;
+    private volatile String sessionKeyName;
+    private volatile BodyFieldScanner sessionKeyScanner;
+    private volatile StructuredBodyRewriter sessionKeyField;
+    private final Map<String, OTPShard> sessionAssignments = new ConcurrentHashMap<>();
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    // Completes once the OTP state saved by the previous session has been restored
+    private final CompletableFuture<Void> stateRestored;
+
+    // Background refresh of cached OTPs before they expire
+    private final RefreshAheadScheduler refreshAheadScheduler;
+
+    // Fresh OTP mode
+    private volatile boolean freshMode;
+    private volatile long freshDeadlineMillis;
+    private volatile long freshMaxBackoffMillis;
+
+    // Inbound-SMS webhook
+    private boolean webhookEnabled;
+    private String webhookBindAddress;
+    private int webhookPort;
+    private String webhookPublicUrl;
+    private boolean webhookVerifySignature;
+    private InboundSmsWebhookServer webhookServer;
+
+    // Store shared with other Burp instances on this machine; null when sharing is off
+    private volatile SharedOTPStore sharedStore;
+    private boolean sharedStoreEnabled;
+    private String sharedStorePath;
 
     // Preference Keys
     private static final String PREF_ACCOUNT_SID = "accountSid";
     private static final String PREF_AUTH_TOKEN = "authToken";
     private static final String PREF_FROM_NUMBER = "fromNumber";
     private static final String PREF_TO_NUMBER = "toNumber";
+    private static final String PREF_BASE_URL = "twilioBaseUrl";
+    private static final String PREF_CACHE_TTL_SECONDS = "otpCacheTtlSeconds";
+    private static final String PREF_CACHE_MAX_AGE_SECONDS = "otpCacheMaxAgeSeconds";
+    private static final String PREF_USE_BUDGET = "otpUseBudget";
+    private static final String PREF_ACQUIRE_DEADLINE_MILLIS = "acquireDeadlineMillis";
+    private static final String PREF_DEADLINE_POLICY = "deadlinePolicy";
+    private static final String PREF_FRESH_MODE = "freshOtpMode";
+    private static final String PREF_FRESH_DEADLINE_SECONDS = "freshOtpDeadlineSeconds";
+    private static final String PREF_FRESH_MAX_BACKOFF_MILLIS = "freshOtpMaxBackoffMillis";
+    private static final String PREF_FETCH_CONCURRENCY = "fetchConcurrency";
+    private static final String PREF_FETCH_QUEUE_BOUND = "fetchQueueBound";
+    private static final String PREF_TRANSPORT_MODE = "transportMode";
+    private static final String PREF_REQUEST_TIMEOUT_MILLIS = "requestTimeoutMillis";
+    private static final String PREF_MAX_CONCURRENT_STREAMS = "maxConcurrentStreams";
+    private static final String PREF_WEBHOOK_ENABLED = "webhookEnabled";
+    private static final String PREF_WEBHOOK_BIND_ADDRESS = "webhookBindAddress";
+    private static final String PREF_WEBHOOK_PORT = "webhookPort";
+    private static final String PREF_WEBHOOK_PUBLIC_URL = "webhookPublicUrl";
+    private static final String PREF_WEBHOOK_VERIFY_SIGNATURE = "webhookVerifySignature";
+    private static final String PREF_NUMBER_POOL = "numberPool";
+    private static final String PREF_SESSION_KEY_TYPE = "sessionKeyType";
+    private static final String PREF_SESSION_KEY_NAME = "sessionKeyName";
+    private static final String PREF_OTP_STATE = "otpState";
+    private static final String PREF_OTP_TEMPLATES = "otpTemplates";
+    private static final String PREF_RATE_LIMIT_PER_SECOND = "rateLimitPerSecond";
+    private static final String PREF_RATE_LIMIT_BURST = "rateLimitBurst";
+    private static final String PREF_MAX_THROTTLE_WAIT_MILLIS = "maxThrottleWaitMillis";
+    private static final String PREF_BREAKER_FAILURE_THRESHOLD = "breakerFailureThreshold";
+    private static final String PREF_BREAKER_OPEN_SECONDS = "breakerOpenSeconds";
+    private static final String PREF_BREAKER_SERVE_LAST = "breakerServeLast";
+    private static final String PREF_REFRESH_AHEAD_ENABLED = "refreshAheadEnabled";
+    private static final String PREF_REFRESH_AHEAD_PERCENT = "refreshAheadPercent";
+    private static final String PREF_REFRESH_AHEAD_IDLE_SECONDS = "refreshAheadIdleSeconds";
+    private static final String PREF_OTP_SOURCE = "otpSource";
+    private static final String PREF_TOTP_SECRET = "totpSecret";
+    private static final String PREF_TOTP_DIGITS = "totpDigits";
+    private static final String PREF_TOTP_PERIOD_SECONDS = "totpPeriodSeconds";
+    private static final String PREF_TOTP_ALGORITHM = "totpAlgorithm";
+    private static final String PREF_TOTP_SKEW_SECONDS = "totpSkewSeconds";
+    private static final String PREF_LOG_LEVEL = "logLevel";
+    private static final String PREF_SHARED_STORE_ENABLED = "sharedStoreEnabled";
+    private static final String PREF_SHARED_STORE_PATH = "sharedStorePath";
+
+    public static final String DEFAULT_BASE_URL = "https://api.twilio.com";
+
+    // Cache defaults
+    private static final int DEFAULT_CACHE_TTL_SECONDS = 30;
+    private static final int DEFAULT_CACHE_MAX_AGE_SECONDS = 300;
+
+    // TOTP defaults, as used by most authenticator apps
+    private static final int DEFAULT_TOTP_DIGITS = 6;
+    private static final int DEFAULT_TOTP_PERIOD_SECONDS = 30;
+
+    // Acquisition deadline default
+    private static final int DEFAULT_ACQUIRE_DEADLINE_MILLIS = 30_000;
+
+    // Fresh OTP mode defaults
+    private static final int DEFAULT_FRESH_DEADLINE_SECONDS = 60;
+    private static final int DEFAULT_FRESH_MAX_BACKOFF_MILLIS = 5000;
+    private static final long FRESH_INITIAL_BACKOFF_MILLIS = 250;
+
+    // Refresh-ahead defaults
+    private static final int DEFAULT_REFRESH_AHEAD_PERCENT = 80;
+    private static final int DEFAULT_REFRESH_AHEAD_IDLE_SECONDS = 120;
+
+    // Fetch executor defaults
+    private static final int DEFAULT_FETCH_CONCURRENCY = 4;
+    private static final int DEFAULT_FETCH_QUEUE_BOUND = 64;
+
+    // Transport defaults
+    private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
+    private static final int DEFAULT_MAX_CONCURRENT_STREAMS = 16;
+
+    // Rate limiting and circuit breaker defaults
+    private static final int DEFAULT_RATE_LIMIT_PER_SECOND = 5;
+    private static final int DEFAULT_RATE_LIMIT_BURST = 5;
+    private static final int DEFAULT_MAX_THROTTLE_WAIT_MILLIS = 5000;
+    private static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_BREAKER_OPEN_SECONDS = 30;
+    // Backoff after a 429 that carries no Retry-After
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    // Incremental listing: messages per page and pages followed per fetch
+    private static final int INCREMENTAL_PAGE_SIZE = 20;
+    private static final int MAX_PAGES_PER_FETCH = 5;
+    private static final DateTimeFormatter DATE_SENT_FILTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
+    // Webhook defaults
+    private static final String DEFAULT_WEBHOOK_BIND_ADDRESS = "127.0.0.1";
+    private static final int DEFAULT_WEBHOOK_PORT = 8765;
+
+    // How often an instance waiting on another instance's fetch re-reads the shared store
+    private static final long SHARED_POLL_MILLIS = 50;
 
-    public OTPHandler(MontoyaApi api) {
+    // Sessions are pinned to a shard until this many distinct keys have been seen
+    private static final int MAX_SESSION_ASSIGNMENTS = 10_000;
+
+    /**
+     * Logs through {@code log}, shared with the rest of the extension and shut down by the caller.
+     */
+    public OTPHandler(MontoyaApi api, AsyncLogger log) {
         this.api = api;
         this.preferences = api.persistence().preferences();
-        this.otpRegex = Pattern.compile("\\b\\d{4,6}\\b");
         this.objectMapper = new ObjectMapper();
+        this.log = Objects.requireNonNull(log, "log");
+        loadLogLevel();
+        loadOtpTemplates();
+        this.cacheTtlMillis = loadInteger(PREF_CACHE_TTL_SECONDS, DEFAULT_CACHE_TTL_SECONDS) * 1000L;
+        this.cacheMaxAgeMillis = loadInteger(PREF_CACHE_MAX_AGE_SECONDS, DEFAULT_CACHE_MAX_AGE_SECONDS) * 1000L;
+        this.useBudget = Math.max(0, loadInteger(PREF_USE_BUDGET, 0));
+        this.acquireDeadlineMillis = Math.max(0, loadInteger(PREF_ACQUIRE_DEADLINE_MILLIS, DEFAULT_ACQUIRE_DEADLINE_MILLIS));
+        String savedPolicy = preferences.getString(PREF_DEADLINE_POLICY);
+        try {
+            this.deadlinePolicy = savedPolicy == null || savedPolicy.isEmpty() ? DeadlinePolicy.SERVE_STALE : DeadlinePolicy.valueOf(savedPolicy);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid deadline policy in preferences: {}", savedPolicy);
+            this.deadlinePolicy = DeadlinePolicy.SERVE_STALE;
+        }
+
+        Boolean savedFreshMode = preferences.getBoolean(PREF_FRESH_MODE);
+        this.freshMode = savedFreshMode != null && savedFreshMode;
+        this.freshDeadlineMillis = loadInteger(PREF_FRESH_DEADLINE_SECONDS, DEFAULT_FRESH_DEADLINE_SECONDS) * 1000L;
+        this.freshMaxBackoffMillis = loadInteger(PREF_FRESH_MAX_BACKOFF_MILLIS, DEFAULT_FRESH_MAX_BACKOFF_MILLIS);
+        this.fetchExecutor = new FetchExecutor(
+                Math.max(1, loadInteger(PREF_FETCH_CONCURRENCY, DEFAULT_FETCH_CONCURRENCY)),
+                loadInteger(PREF_FETCH_QUEUE_BOUND, DEFAULT_FETCH_QUEUE_BOUND));
+        loadTransportSettings();
+        this.rateLimiter = new TwilioRateLimiter(
+                Math.max(1, loadInteger(PREF_RATE_LIMIT_PER_SECOND, DEFAULT_RATE_LIMIT_PER_SECOND)),
+                Math.max(1, loadInteger(PREF_RATE_LIMIT_BURST, DEFAULT_RATE_LIMIT_BURST)));
+        this.circuitBreaker = new CircuitBreaker(
+                Math.max(1, loadInteger(PREF_BREAKER_FAILURE_THRESHOLD, DEFAULT_BREAKER_FAILURE_THRESHOLD)),
+                loadInteger(PREF_BREAKER_OPEN_SECONDS, DEFAULT_BREAKER_OPEN_SECONDS) * 1000L);
+        this.maxThrottleWaitMillis = loadInteger(PREF_MAX_THROTTLE_WAIT_MILLIS, DEFAULT_MAX_THROTTLE_WAIT_MILLIS);
+        Boolean savedServeLast = preferences.getBoolean(PREF_BREAKER_SERVE_LAST);
+        this.serveLastWhileOpen = savedServeLast == null || savedServeLast;
         loadSettings();
+        loadSourceSettings();
+        loadPoolSettings();
+        loadWebhookSettings();
+        loadSharedStoreSettings();
+
+        Boolean savedRefreshAhead = preferences.getBoolean(PREF_REFRESH_AHEAD_ENABLED);
+        this.refreshAheadScheduler = new RefreshAheadScheduler(this,
+                savedRefreshAhead != null && savedRefreshAhead,
+                loadInteger(PREF_REFRESH_AHEAD_PERCENT, DEFAULT_REFRESH_AHEAD_PERCENT),
+                loadInteger(PREF_REFRESH_AHEAD_IDLE_SECONDS, DEFAULT_REFRESH_AHEAD_IDLE_SECONDS) * 1000L);
+
+        // Read the saved state off the calling thread; the hot path waits for it only if it is still loading
+        stateRestored = CompletableFuture.runAsync(this::restoreState, fetchExecutor);
+    }
+
+    // Restore each shard's cursor, and its cached OTP if that is still within the cache lifetime
+    private void restoreState() {
+        String savedState = preferences.getString(PREF_OTP_STATE);
+        if (savedState == null || savedState.isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<String, Map<String, Object>> state = objectMapper.readValue(savedState, new TypeReference<Map<String, Map<String, Object>>>() { });
+            int restoredCodes = 0;
+            for (OTPShard shard : shards) {
+                Map<String, Object> saved = state.get(shard.stateKey());
+                if (saved == null || saved.get("code") == null) {
+                    continue;
+                }
+                Object dateSent = saved.get("dateSent");
+                long fetchedAt = ((Number) saved.getOrDefault("fetchedAt", 0L)).longValue();
+                FetchedOTP otp = new FetchedOTP(
+                        (String) saved.get("code"),
+                        (String) saved.get("messageSid"),
+                        dateSent == null ? null : Instant.parse((String) dateSent));
+
+                if (shard.getCursor() == null) {
+                    shard.setCursor(otp, fetchedAt);
+                    if (otp.dateSent() != null) {
+                        // Resume listing from the restored message rather than the whole history
+                        shard.advanceWatermark(otp.dateSent());
+                    }
+                }
+                if (shard.getCache().restore(otp, fetchedAt)) {
+                    restoredCodes++;
+                }
+            }
+            log.info("Restored OTP state: {} cached OTP(s) still valid.", restoredCodes);
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.error("Ignoring invalid OTP state in preferences: {}", e.getMessage());
+        }
+    }
+
+    // Persist every shard's cursor: message SID, date_sent, code and when it was fetched
+    private synchronized void saveState() {
+        Map<String, Map<String, Object>> state = new LinkedHashMap<>();
+        for (OTPShard shard : shards) {
+            FetchedOTP cursor = shard.getCursor();
+            if (cursor == null) {
+                continue;
+            }
+            Map<String, Object> saved = new LinkedHashMap<>();
+            saved.put("messageSid", cursor.messageSid());
+            saved.put("dateSent", cursor.dateSent() == null ? null : cursor.dateSent().toString());
+            saved.put("code", cursor.code());
+            saved.put("fetchedAt", shard.getCursorFetchedAt());
+            state.put(shard.stateKey(), saved);
+        }
+
+        try {
+            preferences.setString(PREF_OTP_STATE, objectMapper.writeValueAsString(state));
+        } catch (JsonProcessingException e) {
+            log.error("Failed to save OTP state: {}", e.getMessage());
+        }
     }
 
     // Load Twilio settings from Preferences
@@ -47,8 +348,139 @@ public class OTPHandler {
         this.fromNumber = preferences.getString(PREF_FROM_NUMBER);
         this.toNumber = preferences.getString(PREF_TO_NUMBER);
 
+        String savedBaseUrl = preferences.getString(PREF_BASE_URL);
+        try {
+            this.baseUrl = parseBaseUrl(savedBaseUrl != null && !savedBaseUrl.isEmpty() ? savedBaseUrl : DEFAULT_BASE_URL);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid Twilio base URL in preferences, using default: {}", e.getMessage());
+            this.baseUrl = URI.create(DEFAULT_BASE_URL);
+        }
+
         if (accountSid == null || authToken == null || fromNumber == null || toNumber == null) {
-            api.logging().logToError("Twilio settings are not fully configured.");
+            log.error("Twilio settings are not fully configured.");
+        }
+    }
+
+    // Load the OTP source and the TOTP generator settings from Preferences
+    private void loadSourceSettings() {
+        String savedSecret = preferences.getString(PREF_TOTP_SECRET);
+        if (savedSecret != null && !savedSecret.isEmpty()) {
+            String savedAlgorithm = preferences.getString(PREF_TOTP_ALGORITHM);
+            Integer savedSkew = preferences.getInteger(PREF_TOTP_SKEW_SECONDS);
+            try {
+                totpSource = TotpSource.fromBase32(savedSecret,
+                        loadInteger(PREF_TOTP_DIGITS, DEFAULT_TOTP_DIGITS),
+                        loadInteger(PREF_TOTP_PERIOD_SECONDS, DEFAULT_TOTP_PERIOD_SECONDS),
+                        savedAlgorithm == null || savedAlgorithm.isEmpty() ? TotpSource.Algorithm.SHA1 : TotpSource.Algorithm.valueOf(savedAlgorithm),
+                        savedSkew == null ? 0 : savedSkew);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid TOTP settings in preferences: {}", e.getMessage());
+            }
+        }
+
+        String savedSource = preferences.getString(PREF_OTP_SOURCE);
+        OTPSource.Type type = OTPSource.Type.TWILIO_SMS;
+        if (savedSource != null && !savedSource.isEmpty()) {
+            try {
+                type = OTPSource.Type.valueOf(savedSource);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid OTP source in preferences: {}", savedSource);
+            }
+        }
+        if (type == OTPSource.Type.TOTP && totpSource == null) {
+            log.error("TOTP source selected but not configured; using Twilio SMS.");
+            type = OTPSource.Type.TWILIO_SMS;
+        }
+        applyOtpSource(type);
+    }
+
+    private void applyOtpSource(OTPSource.Type type) {
+        otpSource = type == OTPSource.Type.TOTP ? totpSource : twilioSource;
+        sourceType = type;
+    }
+
+    // Load the number pool and session key from Preferences
+    private void loadPoolSettings() {
+        String savedPool = preferences.getString(PREF_NUMBER_POOL);
+        if (savedPool != null && !savedPool.isEmpty()) {
+            try {
+                poolEntries = objectMapper.readValue(savedPool, new TypeReference<List<Map<String, String>>>() { });
+            } catch (JsonProcessingException e) {
+                log.error("Invalid number pool in preferences: {}", e.getMessage());
+            }
+        }
+
+        String savedKeyType = preferences.getString(PREF_SESSION_KEY_TYPE);
+        try {
+            setSessionKey(savedKeyType == null || savedKeyType.isEmpty() ? null : RuleType.valueOf(savedKeyType),
+                    preferences.getString(PREF_SESSION_KEY_NAME));
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid session key type in preferences: {}", e.getMessage());
+        }
+
+        rebuildShards();
+    }
+
+    // Load the OTP extraction templates from Preferences, keeping the 4-6 digit default if there are none
+    private void loadOtpTemplates() {
+        String savedTemplates = preferences.getString(PREF_OTP_TEMPLATES);
+        List<OTPTemplate> templates = List.of(OTPTemplate.anyDigits());
+        if (savedTemplates != null && !savedTemplates.isEmpty()) {
+            try {
+                List<Map<String, String>> entries = objectMapper.readValue(savedTemplates, new TypeReference<List<Map<String, String>>>() { });
+                List<OTPTemplate> loaded = new ArrayList<>();
+                for (Map<String, String> entry : entries) {
+                    loaded.add(OTPTemplate.fromMap(entry));
+                }
+                if (!loaded.isEmpty()) {
+                    templates = loaded;
+                }
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                log.error("Invalid OTP templates in preferences: {}", e.getMessage());
+            }
+        }
+        applyOtpTemplates(templates);
+    }
+
+    private void applyOtpTemplates(List<OTPTemplate> templates) {
+        OTPExtractor extractor = new OTPExtractor(templates);
+        otpTemplates = List.copyOf(templates);
+        otpExtractor = extractor;
+        messagePageParser = new MessagePageParser(extractor);
+    }
+
+    // Load webhook settings from Preferences and start the listener if it is enabled
+    private synchronized void loadWebhookSettings() {
+        Boolean enabled = preferences.getBoolean(PREF_WEBHOOK_ENABLED);
+        Boolean verifySignature = preferences.getBoolean(PREF_WEBHOOK_VERIFY_SIGNATURE);
+        String bindAddress = preferences.getString(PREF_WEBHOOK_BIND_ADDRESS);
+        String publicUrl = preferences.getString(PREF_WEBHOOK_PUBLIC_URL);
+
+        this.webhookEnabled = enabled != null && enabled;
+        this.webhookBindAddress = (bindAddress != null && !bindAddress.isEmpty()) ? bindAddress : DEFAULT_WEBHOOK_BIND_ADDRESS;
+        this.webhookPort = loadInteger(PREF_WEBHOOK_PORT, DEFAULT_WEBHOOK_PORT);
+        this.webhookPublicUrl = (publicUrl != null) ? publicUrl : "";
+        this.webhookVerifySignature = verifySignature == null || verifySignature;
+
+        if (webhookEnabled) {
+            startWebhookServer();
+        }
+    }
+
+    // Load shared store settings from Preferences and open the store if sharing is enabled
+    private synchronized void loadSharedStoreSettings() {
+        Boolean enabled = preferences.getBoolean(PREF_SHARED_STORE_ENABLED);
+        String path = preferences.getString(PREF_SHARED_STORE_PATH);
+
+        this.sharedStoreEnabled = enabled != null && enabled;
+        this.sharedStorePath = (path != null && !path.isEmpty()) ? path : SharedOTPStore.defaultPath().toString();
+
+        if (sharedStoreEnabled) {
+            try {
+                sharedStore = SharedOTPStore.open(Path.of(sharedStorePath));
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to open shared OTP store {}: {}", sharedStorePath, e.getMessage());
+            }
         }
     }
 
@@ -65,54 +497,1036 @@ public class OTPHandler {
         preferences.setString(PREF_FROM_NUMBER, fromNumber);
         preferences.setString(PREF_TO_NUMBER, toNumber);
 
-        api.logging().logToOutput("Twilio settings updated successfully.");
+        // Codes cached for the previous account or numbers are no longer valid
+        rebuildShards();
+
+        log.info("Twilio settings updated successfully.");
+    }
+
+    // Point the handler at a different Twilio-compatible API, e.g. a local stand-in for testing
+    public void updateBaseUrl(String url) {
+        this.baseUrl = parseBaseUrl(url);
+        preferences.setString(PREF_BASE_URL, url);
+
+        rebuildShards();
+
+        log.info("Twilio base URL set to {}", url);
+    }
+
+    public String getBaseUrl() {
+        return baseUrl.toString();
     }
 
-    // Fetch the latest OTP from Twilio messages using Montoya API
+    // Update cache limits and save them to Preferences
+    public void updateCacheSettings(int ttlSeconds, int maxAgeSeconds) {
+        cacheTtlMillis = ttlSeconds * 1000L;
+        cacheMaxAgeMillis = maxAgeSeconds * 1000L;
+        for (OTPShard shard : shards) {
+            shard.getCache().updateLimits(cacheTtlMillis, cacheMaxAgeMillis);
+        }
+
+        preferences.setInteger(PREF_CACHE_TTL_SECONDS, ttlSeconds);
+        preferences.setInteger(PREF_CACHE_MAX_AGE_SECONDS, maxAgeSeconds);
+
+        log.info("OTP cache settings updated: TTL={}s, MaxAge={}s", ttlSeconds, maxAgeSeconds);
+    }
+
+    // Update how many requests each OTP may be injected into and save it to Preferences
+    public void updateUseBudget(int useBudget) {
+        this.useBudget = useBudget;
+        preferences.setInteger(PREF_USE_BUDGET, useBudget);
+        log.info("OTP use budget updated: {}", useBudget == 0 ? "unlimited" : useBudget + " request(s) per OTP");
+    }
+
+    public int getUseBudget() {
+        return useBudget;
+    }
+
+    /**
+     * Configures the local TOTP generator from a Base32 secret and saves it to Preferences.
+     * Throws {@link IllegalArgumentException} if the secret or parameters are invalid.
+     */
+    public void updateTotpSettings(String secret, int digits, int periodSeconds, TotpSource.Algorithm algorithm, int skewSeconds) {
+        TotpSource source = TotpSource.fromBase32(secret, digits, periodSeconds, algorithm, skewSeconds);
+        totpSource = source;
+        if (sourceType == OTPSource.Type.TOTP) {
+            applyOtpSource(OTPSource.Type.TOTP);
+        }
+
+        preferences.setString(PREF_TOTP_SECRET, secret.trim());
+        preferences.setInteger(PREF_TOTP_DIGITS, digits);
+        preferences.setInteger(PREF_TOTP_PERIOD_SECONDS, periodSeconds);
+        preferences.setString(PREF_TOTP_ALGORITHM, algorithm.name());
+        preferences.setInteger(PREF_TOTP_SKEW_SECONDS, skewSeconds);
+
+        log.info("TOTP settings updated: Digits={}, Period={}s, Algorithm={}, Skew={}s",
+                digits, periodSeconds, algorithm, skewSeconds);
+    }
+
+    // Switch between Twilio SMS and the local TOTP generator and save it to Preferences
+    public void updateOtpSource(OTPSource.Type type) {
+        if (type == OTPSource.Type.TOTP && totpSource == null) {
+            throw new IllegalStateException("TOTP settings are not configured.");
+        }
+        applyOtpSource(type);
+        preferences.setString(PREF_OTP_SOURCE, type.name());
+        log.info("OTP source updated: {}", type);
+    }
+
+    public OTPSource.Type getOtpSourceType() {
+        return sourceType;
+    }
+
+    // The configured TOTP generator, or null
+    public TotpSource getTotpSource() {
+        return totpSource;
+    }
+
+    public String getTotpSecret() {
+        String secret = preferences.getString(PREF_TOTP_SECRET);
+        return secret == null ? "" : secret;
+    }
+
+    private void loadLogLevel() {
+        String savedLevel = preferences.getString(PREF_LOG_LEVEL);
+        if (savedLevel == null || savedLevel.isEmpty()) {
+            return;
+        }
+        try {
+            log.setLevel(AsyncLogger.Level.valueOf(savedLevel));
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid log level in preferences: {}", savedLevel);
+        }
+    }
+
+    // Update the extension's log level and save it to Preferences
+    public void updateLogLevel(AsyncLogger.Level level) {
+        log.setLevel(level);
+        preferences.setString(PREF_LOG_LEVEL, level.name());
+
+        log.info("Log level updated: {}", level);
+    }
+
+    public AsyncLogger getLogger() {
+        return log;
+    }
+
+    // Update the acquisition deadline and what happens when it is missed, and save them to Preferences
+    public void updateDeadlineSettings(int deadlineMillis, DeadlinePolicy policy) {
+        this.acquireDeadlineMillis = deadlineMillis;
+        this.deadlinePolicy = policy;
+
+        preferences.setInteger(PREF_ACQUIRE_DEADLINE_MILLIS, deadlineMillis);
+        preferences.setString(PREF_DEADLINE_POLICY, policy.name());
+
+        log.info("OTP acquisition deadline updated: {}, Policy={}",
+                deadlineMillis == 0 ? "none" : deadlineMillis + "ms", policy);
+    }
+
+    public long getAcquireDeadlineMillis() {
+        return acquireDeadlineMillis;
+    }
+
+    public DeadlinePolicy getDeadlinePolicy() {
+        return deadlinePolicy;
+    }
+
+    // Update fresh OTP mode and save it to Preferences
+    public void updateFreshModeSettings(boolean enabled, int deadlineSeconds, int maxBackoffMillis) {
+        this.freshMode = enabled;
+        this.freshDeadlineMillis = deadlineSeconds * 1000L;
+        this.freshMaxBackoffMillis = Math.max(maxBackoffMillis, FRESH_INITIAL_BACKOFF_MILLIS);
+
+        preferences.setBoolean(PREF_FRESH_MODE, enabled);
+        preferences.setInteger(PREF_FRESH_DEADLINE_SECONDS, deadlineSeconds);
+        preferences.setInteger(PREF_FRESH_MAX_BACKOFF_MILLIS, maxBackoffMillis);
+
+        log.info("Fresh OTP mode {}: Deadline={}s, MaxBackoff={}ms",
+                enabled ? "enabled" : "disabled", deadlineSeconds, maxBackoffMillis);
+    }
+
+    // Update refresh-ahead settings and save them to Preferences
+    public void updateRefreshAheadSettings(boolean enabled, int refreshPercent, int idleSeconds) {
+        refreshAheadScheduler.configure(enabled, refreshPercent, idleSeconds * 1000L);
+
+        preferences.setBoolean(PREF_REFRESH_AHEAD_ENABLED, enabled);
+        preferences.setInteger(PREF_REFRESH_AHEAD_PERCENT, refreshPercent);
+        preferences.setInteger(PREF_REFRESH_AHEAD_IDLE_SECONDS, idleSeconds);
+
+        log.info("Refresh-ahead {}: RefreshAt={}% of TTL, PauseAfterIdle={}s",
+                enabled ? "enabled" : "disabled", refreshPercent, idleSeconds);
+    }
+
+    public RefreshAheadScheduler getRefreshAheadScheduler() {
+        return refreshAheadScheduler;
+    }
+
+    // Called by the session handling action for every request, so refresh-ahead knows it is in use
+    public void recordSessionTraffic() {
+        // Locally generated codes have nothing to refresh ahead of time
+        if (sourceType == OTPSource.Type.TWILIO_SMS) {
+            refreshAheadScheduler.recordTraffic();
+        }
+    }
+
+    public boolean isFreshMode() {
+        return freshMode;
+    }
+
+    public long getFreshDeadlineMillis() {
+        return freshDeadlineMillis;
+    }
+
+    public long getFreshMaxBackoffMillis() {
+        return freshMaxBackoffMillis;
+    }
+
+    public long getCacheTtlMillis() {
+        return cacheTtlMillis;
+    }
+
+    public long getCacheMaxAgeMillis() {
+        return cacheMaxAgeMillis;
+    }
+
+    // Replace the OTP extraction templates and save them to Preferences; an empty list restores the default
+    public void updateOtpTemplates(List<OTPTemplate> templates) {
+        List<OTPTemplate> effective = templates.isEmpty() ? List.of(OTPTemplate.anyDigits()) : templates;
+        List<Map<String, String>> entries = new ArrayList<>();
+        for (OTPTemplate template : effective) {
+            entries.add(template.toMap());
+        }
+
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(entries);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialise OTP templates: " + e.getMessage(), e);
+        }
+
+        applyOtpTemplates(effective);
+        preferences.setString(PREF_OTP_TEMPLATES, json);
+        log.info("OTP templates updated: {} template(s).", effective.size());
+    }
+
+    public List<OTPTemplate> getOtpTemplates() {
+        return otpTemplates;
+    }
+
+    // Replace the additional pool numbers and session key, and save them to Preferences
+    public void updatePoolSettings(List<Map<String, String>> entries, RuleType keyType, String keyName) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(entries);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialise number pool: " + e.getMessage(), e);
+        }
+
+        poolEntries = List.copyOf(entries);
+        setSessionKey(keyType, keyName);
+
+        preferences.setString(PREF_NUMBER_POOL, json);
+        preferences.setString(PREF_SESSION_KEY_TYPE, keyType == null ? "" : keyType.name());
+        preferences.setString(PREF_SESSION_KEY_NAME, keyName == null ? "" : keyName);
+
+        rebuildShards();
+        log.info("Number pool updated: {} shard(s), session key {}",
+                shards.size(), keyType == null ? "disabled" : keyType + " " + keyName);
+    }
+
+    public List<OTPShard> getShards() {
+        return shards;
+    }
+
+    public List<Map<String, String>> getPoolEntries() {
+        return poolEntries;
+    }
+
+    public RuleType getSessionKeyType() {
+        return sessionKeyType;
+    }
+
+    public String getSessionKeyName() {
+        return sessionKeyName;
+    }
+
+    /**
+     * Returns the scanner for a BODY_REGEX session key, or {@code null} for other key types.
+     */
+    public BodyFieldScanner getSessionKeyScanner() {
+        return sessionKeyScanner;
+    }
+
+    /**
+     * Returns the selector for a BODY_FIELD session key, or {@code null} for other key types.
+     */
+    public StructuredBodyRewriter getSessionKeyField() {
+        return sessionKeyField;
+    }
+
+    private void setSessionKey(RuleType keyType, String keyName) {
+        boolean enabled = keyType != null && keyName != null && !keyName.trim().isEmpty();
+        this.sessionKeyName = enabled ? keyName.trim() : null;
+        this.sessionKeyScanner = enabled && keyType == RuleType.BODY_REGEX && BodyFieldScanner.isSupported(sessionKeyName)
+                ? new BodyFieldScanner(sessionKeyName)
+                : null;
+        StructuredBodyRewriter field = null;
+        if (enabled && keyType == RuleType.BODY_FIELD) {
+            try {
+                field = new StructuredBodyRewriter(sessionKeyName);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid session key selector: {}", e.getMessage());
+            }
+        }
+        this.sessionKeyField = field;
+        this.sessionKeyType = enabled
+                && (keyType != RuleType.BODY_REGEX || sessionKeyScanner != null)
+                && (keyType != RuleType.BODY_FIELD || sessionKeyField != null) ? keyType : null;
+    }
+
+    // Pool entries without their own account use the primary account
+    private synchronized void rebuildShards() {
+        List<OTPShard> rebuilt = new ArrayList<>();
+        rebuilt.add(new OTPShard(accountSid, authToken, fromNumber, toNumber, cacheTtlMillis, cacheMaxAgeMillis));
+        for (Map<String, String> entry : poolEntries) {
+            String entrySid = entry.get("accountSid");
+            String entryToken = entry.get("authToken");
+            boolean ownAccount = entrySid != null && !entrySid.isEmpty();
+            rebuilt.add(new OTPShard(
+                    ownAccount ? entrySid : accountSid,
+                    ownAccount ? entryToken : authToken,
+                    entry.get("fromNumber"),
+                    entry.get("toNumber"),
+                    cacheTtlMillis, cacheMaxAgeMillis));
+        }
+        shards = List.copyOf(rebuilt);
+        sessionAssignments.clear();
+    }
+
+    // Each new session key is pinned to the next shard in turn, so concurrent sessions spread evenly
+    private OTPShard route(String sessionKey) {
+        List<OTPShard> current = shards;
+        if (sessionKey == null || current.size() == 1) {
+            return current.get(0);
+        }
+        if (sessionAssignments.size() >= MAX_SESSION_ASSIGNMENTS) {
+            sessionAssignments.clear();
+        }
+        return sessionAssignments.computeIfAbsent(sessionKey,
+                key -> current.get(Math.floorMod(nextShard.getAndIncrement(), current.size())));
+    }
+
+    private void loadTransportSettings() {
+        String savedMode = preferences.getString(PREF_TRANSPORT_MODE);
+        try {
+            transportMode = savedMode == null || savedMode.isEmpty() ? TwilioTransport.Mode.MONTOYA : TwilioTransport.Mode.valueOf(savedMode);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid transport mode in preferences: {}", savedMode);
+            transportMode = TwilioTransport.Mode.MONTOYA;
+        }
+        requestTimeoutMillis = Math.max(1, loadInteger(PREF_REQUEST_TIMEOUT_MILLIS, DEFAULT_REQUEST_TIMEOUT_MILLIS));
+        maxConcurrentStreams = Math.max(1, loadInteger(PREF_MAX_CONCURRENT_STREAMS, DEFAULT_MAX_CONCURRENT_STREAMS));
+        transport = createTransport();
+    }
+
+    private TwilioTransport createTransport() {
+        return transportMode == TwilioTransport.Mode.JDK_HTTP2
+                ? new JdkHttpTransport(requestTimeoutMillis, maxConcurrentStreams)
+                : new MontoyaTransport(api);
+    }
+
+    // Replace the transport and save its settings to Preferences; the timeout and stream limit apply to the HTTP/2 client
+    public synchronized void updateTransportSettings(TwilioTransport.Mode mode, int requestTimeoutMillis, int maxConcurrentStreams) {
+        this.transportMode = mode;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+
+        TwilioTransport previous = transport;
+        transport = createTransport();
+        previous.close();
+
+        preferences.setString(PREF_TRANSPORT_MODE, mode.name());
+        preferences.setInteger(PREF_REQUEST_TIMEOUT_MILLIS, requestTimeoutMillis);
+        preferences.setInteger(PREF_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+
+        log.info("Twilio transport updated: Mode={}, Timeout={}ms, MaxStreams={}", mode, requestTimeoutMillis, maxConcurrentStreams);
+    }
+
+    public synchronized TwilioTransport.Mode getTransportMode() {
+        return transportMode;
+    }
+
+    public synchronized int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public synchronized int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    // Update the request rate limit and circuit breaker, and save them to Preferences
+    public void updateRateLimitSettings(int ratePerSecond, int burst, int maxWaitMillis, int failureThreshold, int openSeconds, boolean serveLast) {
+        rateLimiter.configure(ratePerSecond, burst);
+        circuitBreaker.configure(failureThreshold, openSeconds * 1000L);
+        this.maxThrottleWaitMillis = maxWaitMillis;
+        this.serveLastWhileOpen = serveLast;
+
+        preferences.setInteger(PREF_RATE_LIMIT_PER_SECOND, ratePerSecond);
+        preferences.setInteger(PREF_RATE_LIMIT_BURST, burst);
+        preferences.setInteger(PREF_MAX_THROTTLE_WAIT_MILLIS, maxWaitMillis);
+        preferences.setInteger(PREF_BREAKER_FAILURE_THRESHOLD, failureThreshold);
+        preferences.setInteger(PREF_BREAKER_OPEN_SECONDS, openSeconds);
+        preferences.setBoolean(PREF_BREAKER_SERVE_LAST, serveLast);
+
+        log.info("Twilio rate limit updated: {}/s, Burst={}, MaxWait={}ms; circuit breaker: Threshold={}, Open={}s, ServeLast={}",
+                ratePerSecond, burst, maxWaitMillis, failureThreshold, openSeconds, serveLast);
+    }
+
+    public TwilioRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public long getMaxThrottleWaitMillis() {
+        return maxThrottleWaitMillis;
+    }
+
+    public boolean isServeLastWhileOpen() {
+        return serveLastWhileOpen;
+    }
+
+    // Replace the fetch executor and save its limits to Preferences; fetches already queued on the old one still run
+    public void updateExecutorSettings(int concurrency, int queueBound) {
+        FetchExecutor previous = fetchExecutor;
+        fetchExecutor = new FetchExecutor(concurrency, queueBound);
+        previous.shutdown();
+
+        preferences.setInteger(PREF_FETCH_CONCURRENCY, concurrency);
+        preferences.setInteger(PREF_FETCH_QUEUE_BOUND, queueBound);
+
+        log.info("Fetch executor updated: Concurrency={}, QueueBound={}{}", concurrency, queueBound,
+                fetchExecutor.isVirtual() ? " (virtual threads)" : " (platform threads)");
+    }
+
+    public FetchExecutor getFetchExecutor() {
+        return fetchExecutor;
+    }
+
+    // Update webhook settings, save them to Preferences and restart the listener
+    public synchronized void updateWebhookSettings(boolean enabled, String bindAddress, int port, String publicUrl, boolean verifySignature) {
+        this.webhookEnabled = enabled;
+        this.webhookBindAddress = bindAddress;
+        this.webhookPort = port;
+        this.webhookPublicUrl = publicUrl;
+        this.webhookVerifySignature = verifySignature;
+
+        preferences.setBoolean(PREF_WEBHOOK_ENABLED, enabled);
+        preferences.setString(PREF_WEBHOOK_BIND_ADDRESS, bindAddress);
+        preferences.setInteger(PREF_WEBHOOK_PORT, port);
+        preferences.setString(PREF_WEBHOOK_PUBLIC_URL, publicUrl);
+        preferences.setBoolean(PREF_WEBHOOK_VERIFY_SIGNATURE, verifySignature);
+
+        stopWebhookServer();
+        if (enabled) {
+            startWebhookServer();
+        }
+    }
+
+    /**
+     * Turns sharing OTPs with other Burp instances through the store at {@code path} on or off,
+     * and saves the setting to Preferences. Nothing changes if the store can't be opened.
+     */
+    public synchronized void updateSharedStoreSettings(boolean enabled, String path) throws IOException {
+        SharedOTPStore store = enabled ? SharedOTPStore.open(Path.of(path)) : null;
+        this.sharedStoreEnabled = enabled;
+        this.sharedStorePath = path;
+        this.sharedStore = store;
+
+        preferences.setBoolean(PREF_SHARED_STORE_ENABLED, enabled);
+        preferences.setString(PREF_SHARED_STORE_PATH, path);
+
+        log.info("Shared OTP store {}", enabled ? "enabled: " + store : "disabled");
+    }
+
+    public synchronized boolean isSharedStoreEnabled() {
+        return sharedStoreEnabled;
+    }
+
+    public synchronized String getSharedStorePath() {
+        return sharedStorePath;
+    }
+
+    // The open shared store, or null when sharing is off or the store could not be opened
+    public SharedOTPStore getSharedStore() {
+        return sharedStore;
+    }
+
+    public synchronized boolean isWebhookEnabled() {
+        return webhookEnabled;
+    }
+
+    public synchronized String getWebhookBindAddress() {
+        return webhookBindAddress;
+    }
+
+    public synchronized int getWebhookPort() {
+        return webhookPort;
+    }
+
+    public synchronized String getWebhookPublicUrl() {
+        return webhookPublicUrl;
+    }
+
+    public synchronized boolean isWebhookVerifySignature() {
+        return webhookVerifySignature;
+    }
+
+    public synchronized boolean isWebhookRunning() {
+        return webhookServer != null;
+    }
+
+    // Publish an OTP pushed by the inbound-SMS webhook to the shard owning its numbers
+    public void acceptInboundMessage(String from, String to, String body, String messageSid) {
+        OTPShard shard = findShard(from, to);
+        if (shard == null) {
+            log.info("Ignoring inbound message {} for unconfigured numbers.", messageSid);
+            return;
+        }
+
+        String code = otpExtractor.extract(from, body);
+        if (code == null) {
+            log.error("Inbound message {} contains no valid OTP.", messageSid);
+            return;
+        }
+
+        FetchedOTP otp = new FetchedOTP(code, messageSid, Instant.now());
+        shard.setCursor(otp);
+        shard.getCache().publish(otp);
+        publishShared(shard, otp);
+        saveState();
+        log.info("Received OTP via webhook from message {}", messageSid);
+    }
+
+    // Auth token of the account that owns the number a webhook was sent to
+    String getAuthToken(String to) {
+        OTPShard shard = findShard(null, to);
+        return shard != null ? shard.getAuthToken() : authToken;
+    }
+
+    private OTPShard findShard(String from, String to) {
+        for (OTPShard shard : shards) {
+            if (shard.matches(from == null ? shard.getFromNumber() : from, to)) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    // Release the fetch threads and webhook listener; called when the extension is unloaded
+    public void shutdown() {
+        saveState();
+        refreshAheadScheduler.shutdown();
+        fetchExecutor.shutdown();
+        transport.close();
+        stopWebhookServer();
+    }
+
+    private synchronized void startWebhookServer() {
+        InboundSmsWebhookServer server = new InboundSmsWebhookServer(this, webhookBindAddress, webhookPort, webhookPublicUrl, webhookVerifySignature);
+        try {
+            server.start();
+            webhookServer = server;
+            log.info("Inbound SMS webhook listening on {}:{}{}", webhookBindAddress, webhookPort, InboundSmsWebhookServer.WEBHOOK_PATH);
+        } catch (IOException e) {
+            log.error("Failed to start inbound SMS webhook: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void stopWebhookServer() {
+        if (webhookServer != null) {
+            webhookServer.stop();
+            webhookServer = null;
+        }
+    }
+
+    public OTPMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void invalidateCache() {
+        for (OTPShard shard : shards) {
+            shard.getCache().invalidate();
+        }
+    }
+
+    // Return the primary number's OTP, as used by the "Fetch OTP" button; showing it takes no use from its budget
     public CompletableFuture<String> getLatestOTPAsync() {
-        if (accountSid == null || authToken == null || fromNumber == null || toNumber == null) {
+        if (sourceType == OTPSource.Type.TWILIO_SMS) {
+            return latestOTPAsync(null, false);
+        }
+        return otpSource.getOTPAsync(null);
+    }
+
+    // Return the OTP from the selected source: for Twilio, the cached OTP of the session's shard, or join/start a single shared fetch
+    public CompletableFuture<String> getLatestOTPAsync(String sessionKey) {
+        return otpSource.getOTPAsync(sessionKey);
+    }
+
+    /**
+     * Waits for the session's OTP for at most the acquisition deadline, so a slow or hung Twilio
+     * call can't pin a scanner thread. When the deadline is missed the fetch carries on in the
+     * background and, depending on the policy, the shard's last known OTP is returned as a stale
+     * code, or {@code null} so the request is passed through unchanged. A last known OTP older
+     * than the cache's max age is never served; the request is passed through instead.
+     */
+    public String acquireOTP(String sessionKey) throws InterruptedException, ExecutionException {
+        CompletableFuture<String> otp = getLatestOTPAsync(sessionKey);
+        long deadline = acquireDeadlineMillis;
+        if (deadline <= 0) {
+            return otp.get();
+        }
+
+        try {
+            return otp.get(deadline, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            metrics.recordDeadlineMiss();
+            OTPShard shard = route(sessionKey);
+            FetchedOTP last = shard.getCursor();
+            int budget = useBudget;
+            if (deadlinePolicy == DeadlinePolicy.SERVE_STALE && last != null && isServableStale(shard, last)
+                    && (budget <= 0 || shard.getLeaseLedger().tryLease(last, budget))) {
+                metrics.recordStaleServe();
+                log.info("OTP not ready within {}ms; serving stale OTP from message {}", deadline, last.messageSid());
+                return last.code();
+            }
+            log.error("OTP not ready within {}ms; passing the request through unchanged.", deadline);
+            return null;
+        }
+    }
+
+    // The same max age the cache applies, measured from when the message was sent, or from when
+    // it was fetched if Twilio gave no date_sent
+    private static boolean isServableStale(OTPShard shard, FetchedOTP last) {
+        long sentAt = last.dateSent() != null ? last.dateSent().toEpochMilli() : shard.getCursorFetchedAt();
+        return System.currentTimeMillis() - sentAt < shard.getCache().getMaxAgeMillis();
+    }
+
+    private CompletableFuture<String> latestOTPAsync(String sessionKey, boolean lease) {
+        if (!stateRestored.isDone()) {
+            return stateRestored.thenCompose(ignored -> latestOTPAsync(sessionKey, lease));
+        }
+
+        OTPShard shard = route(sessionKey);
+        if (!shard.isConfigured()) {
+            metrics.recordFailure(OTPMetrics.FailureCause.NOT_CONFIGURED);
             throw new IllegalStateException("Twilio settings are not configured.");
         }
 
-        return CompletableFuture.supplyAsync(() -> {
+        Instant requestedAt = Instant.now();
+        shard.enterQueue();
+        CompletableFuture<FetchedOTP> otp = shard.getCache().get(() -> fetchOTPAsync(shard, requestedAt, false));
+        if (!otp.isDone()) {
+            metrics.recordHotPathMiss();
+        }
+        int budget = useBudget;
+        if (lease && budget > 0) {
+            otp = otp.thenCompose(fetched -> leaseAsync(shard, fetched, budget));
+        }
+        return otp.whenComplete((fetched, ex) -> shard.leaveQueue())
+                .thenApply(FetchedOTP::code);
+    }
+
+    // Hand out the code while it has uses left; once they are spent, wait for the next code
+    // rather than inject one the target has already invalidated
+    private CompletableFuture<FetchedOTP> leaseAsync(OTPShard shard, FetchedOTP otp, int budget) {
+        // With the shared store the budget covers every instance's requests, not just this one's
+        SharedOTPStore.Slot slot = sharedSlot(shard);
+        boolean leased = slot != null
+                ? slot.tryLease(otp, budget, shard.getLeaseLedger())
+                : shard.getLeaseLedger().tryLease(otp, budget);
+        if (leased) {
+            return CompletableFuture.completedFuture(otp);
+        }
+
+        metrics.recordLeaseWait();
+        OTPCache cache = shard.getCache();
+        cache.evict(otp);
+        Instant requestedAt = Instant.now();
+        return cache.get(() -> fetchOTPAsync(shard, requestedAt, true))
+                .thenCompose(next -> leaseAsync(shard, next, budget));
+    }
+
+    // Started by the refresh-ahead scheduler when the shard's cached OTP is nearing expiry
+    void refreshAhead(OTPShard shard) {
+        CompletableFuture<Boolean> refresh = shard.getCache().refresh(() -> fetchOTPAsync(shard, Instant.now(), false));
+        if (refresh == null) {
+            return;
+        }
+        metrics.recordRefreshAhead();
+        refresh.whenComplete((wasted, ex) -> {
+            if (Boolean.TRUE.equals(wasted)) {
+                metrics.recordWastedRefresh();
+            }
+        });
+    }
+
+    // waitForNew polls for a message newer than the cursor, as fresh OTP mode always does
+    private CompletableFuture<FetchedOTP> fetchOTPAsync(OTPShard shard, Instant requestedAt, boolean waitForNew) {
+        SharedOTPStore.Slot slot = sharedSlot(shard);
+        if (slot != null) {
+            long giveUpAt = System.currentTimeMillis() + sharedLeaseMillis(waitForNew);
+            return sharedFetchAsync(slot, shard, requestedAt, waitForNew, giveUpAt, false);
+        }
+        return twilioFetchAsync(shard, requestedAt, waitForNew);
+    }
+
+    /**
+     * Fetches through the shared store: a code another instance fetched recently enough is used
+     * without any network I/O; otherwise the instance that wins the slot's lease calls Twilio and
+     * publishes the result, while the others poll the slot for it. If the lease holder fails, the
+     * lease is freed and a waiter takes over; one that waits past {@code giveUpAt} fetches itself.
+     */
+    private CompletableFuture<FetchedOTP> sharedFetchAsync(SharedOTPStore.Slot slot, OTPShard shard, Instant requestedAt,
+                                                           boolean waitForNew, long giveUpAt, boolean waited) {
+        FetchedOTP shared = adoptShared(slot, shard, requestedAt, freshMode || waitForNew);
+        if (shared != null) {
+            metrics.recordSharedHit();
+            return CompletableFuture.completedFuture(shared);
+        }
+
+        long lease = slot.tryAcquireLease(sharedLeaseMillis(waitForNew));
+        if (lease != 0) {
+            return twilioFetchAsync(shard, requestedAt, waitForNew).whenComplete((otp, ex) -> slot.releaseLease(lease));
+        }
+        if (System.currentTimeMillis() >= giveUpAt) {
+            return twilioFetchAsync(shard, requestedAt, waitForNew);
+        }
+
+        if (!waited) {
+            metrics.recordSharedWait();
+        }
+        return delayAsync(SHARED_POLL_MILLIS)
+                .thenCompose(ignored -> sharedFetchAsync(slot, shard, requestedAt, waitForNew, giveUpAt, true));
+    }
+
+    // The slot's code if this shard can use it as if it had fetched it: fetched since the shard's
+    // cursor, within the cache's TTL and max age, and in fresh mode newer than the cursor. It
+    // becomes the shard's cursor.
+    private FetchedOTP adoptShared(SharedOTPStore.Slot slot, OTPShard shard, Instant requestedAt, boolean fresh) {
+        SharedOTPStore.Entry entry = slot.read();
+        if (entry == null || entry.fetchedAt() <= shard.getCursorFetchedAt()) {
+            return null;
+        }
+
+        FetchedOTP otp = entry.otp();
+        OTPCache cache = shard.getCache();
+        long now = System.currentTimeMillis();
+        if (now - entry.fetchedAt() >= cache.getTtlMillis()
+                || (otp.dateSent() != null && now - otp.dateSent().toEpochMilli() >= cache.getMaxAgeMillis())) {
+            return null;
+        }
+        if (fresh && !isNewerThanCursor(shard, otp, requestedAt)) {
+            return null;
+        }
+
+        shard.setCursor(otp, entry.fetchedAt());
+        if (otp.dateSent() != null) {
+            shard.advanceWatermark(otp.dateSent());
+        }
+        saveState();
+        return otp;
+    }
+
+    // Long enough for a whole fetch, including the fresh-mode polling deadline and rate-limit waits
+    private long sharedLeaseMillis(boolean waitForNew) {
+        long fetchMillis = (long) requestTimeoutMillis * MAX_PAGES_PER_FETCH + maxThrottleWaitMillis;
+        return (freshMode || waitForNew) ? freshDeadlineMillis + fetchMillis : fetchMillis;
+    }
+
+    private SharedOTPStore.Slot sharedSlot(OTPShard shard) {
+        SharedOTPStore store = sharedStore;
+        return store == null ? null : store.slot(shard.getAccountSid() + "|" + shard.stateKey());
+    }
+
+    // Called right after otp became the shard's cursor; sharing the cursor's timestamp keeps this
+    // instance from adopting its own code back once its cache expires
+    private void publishShared(OTPShard shard, FetchedOTP otp) {
+        SharedOTPStore.Slot slot = sharedSlot(shard);
+        if (slot != null) {
+            slot.publish(otp, shard.getCursorFetchedAt());
+        }
+    }
+
+    private CompletableFuture<FetchedOTP> twilioFetchAsync(OTPShard shard, Instant requestedAt, boolean waitForNew) {
+        long startedAt = System.nanoTime();
+        boolean fresh = freshMode || waitForNew;
+        CompletableFuture<FetchedOTP> fetch;
+        if (fresh) {
+            fetch = pollForFreshOTPAsync(shard, requestedAt, shard.getCursor(), System.currentTimeMillis() + freshDeadlineMillis, FRESH_INITIAL_BACKOFF_MILLIS);
+        } else {
+            fetch = submitFetch(shard).thenApply(otp -> {
+                if (otp == null) {
+                    metrics.recordFailure(OTPMetrics.FailureCause.NO_OTP);
+                    log.error("Failed to retrieve OTP: No valid OTP found in recent messages.");
+                    throw new IllegalStateException("No valid OTP found in recent messages.");
+                }
+                return otp;
+            });
+        }
+
+        CompletableFuture<FetchedOTP> fetched = fetch.thenApply(otp -> {
+            shard.setCursor(otp);
+            shard.recordFetch(System.nanoTime() - startedAt);
+            publishShared(shard, otp);
+            saveState();
+            return otp;
+        });
+        if (fresh) {
+            return fetched;
+        }
+
+        // While Twilio is throttling us, the last code we saw beats failing the request outright,
+        // as long as it is within the max age; waiting for a new message (fresh OTP mode, spent
+        // leases) always fails fast
+        return fetched.exceptionallyCompose(ex -> {
+            FetchedOTP last = shard.getCursor();
+            if (serveLastWhileOpen && last != null && isCircuitOpen(ex) && isServableStale(shard, last)) {
+                return CompletableFuture.completedFuture(last);
+            }
+            return CompletableFuture.failedFuture(ex);
+        });
+    }
+
+    private static boolean isCircuitOpen(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitBreaker.OpenException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Poll with bounded exponential backoff until a message newer than the cursor shows up
+    private CompletableFuture<FetchedOTP> pollForFreshOTPAsync(OTPShard shard, Instant requestedAt, FetchedOTP startCursor, long deadline, long backoffMillis) {
+        return submitFetch(shard).thenCompose(otp -> {
+            if (otp != null && isNewerThanCursor(shard, otp, requestedAt)) {
+                return CompletableFuture.completedFuture(otp);
+            }
+
+            // The webhook may have delivered a newer message while we were polling
+            FetchedOTP pushed = shard.getCursor();
+            if (pushed != null && pushed != startCursor) {
+                return CompletableFuture.completedFuture(pushed);
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                metrics.recordFailure(OTPMetrics.FailureCause.TIMEOUT);
+                log.error("Failed to retrieve OTP: No fresh OTP received before the deadline.");
+                return CompletableFuture.failedFuture(new TimeoutException("No fresh OTP received before the deadline."));
+            }
+
+            long nextBackoff = Math.min(backoffMillis * 2, freshMaxBackoffMillis);
+            return delayAsync(Math.min(backoffMillis, remaining))
+                    .thenCompose(ignored -> pollForFreshOTPAsync(shard, requestedAt, startCursor, deadline, nextBackoff));
+        });
+    }
+
+    /**
+     * Completes on the fetch executor current when the delay ends, so a retry scheduled before
+     * the executor is replaced runs on its successor. If the executor rejects the task, the
+     * future fails rather than being left for a single-flight fetch to wait on forever.
+     */
+    private CompletableFuture<Void> delayAsync(long delayMillis) {
+        CompletableFuture<Void> delayed = new CompletableFuture<>();
+        Executor currentFetchExecutor = task -> {
             try {
-                String credentials = accountSid + ":" + authToken;
-                String encodedCredentials = Base64.getEncoder().encodeToString(credentials.getBytes());
+                fetchExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                metrics.recordFailure(OTPMetrics.FailureCause.REJECTED);
+                delayed.completeExceptionally(e);
+            }
+        };
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, currentFetchExecutor)
+                .execute(() -> delayed.complete(null));
+        return delayed;
+    }
+
+    private CompletableFuture<FetchedOTP> submitFetch(OTPShard shard) {
+        try {
+            return CompletableFuture.supplyAsync(() -> fetchLatestMessage(shard), fetchExecutor);
+        } catch (RejectedExecutionException e) {
+            metrics.recordFailure(OTPMetrics.FailureCause.REJECTED);
+            throw e;
+        }
+    }
+
+    private boolean isNewerThanCursor(OTPShard shard, FetchedOTP otp, Instant requestedAt) {
+        FetchedOTP last = shard.getCursor();
+        if (last == null) {
+            // Nothing consumed yet, so the message must have been sent after the triggering request was seen
+            return otp.dateSent() != null && !otp.dateSent().isBefore(requestedAt.truncatedTo(ChronoUnit.SECONDS));
+        }
+        if (otp.messageSid() != null && otp.messageSid().equals(last.messageSid())) {
+            return false;
+        }
+        // date_sent only has second precision, so a different SID sent in the same second still counts as newer
+        return otp.dateSent() == null || last.dateSent() == null || !otp.dateSent().isBefore(last.dateSent());
+    }
 
-                HttpService twilioService = HttpService.httpService("api.twilio.com", 443, true);
-                String path = String.format("/2010-04-01/Accounts/%s/Messages.json?From=%s&To=%s&PageSize=1", accountSid, fromNumber, toNumber);
+    // Fetches the newest OTP for the shard from Twilio. Lists only messages sent since the
+    // shard's watermark and follows next_page_uri until an OTP, a message read by an earlier
+    // poll, or the page limit. Returns the shard's cursor when nothing new carries an OTP, since
+    // that is still the latest OTP for the number pair.
+    // The watermark and the seen SIDs only move once every page older than the newest message has
+    // been read or superseded by an OTP; after the page limit or a failed page the next fetch
+    // lists the same messages again rather than skipping the unread ones.
+    private FetchedOTP fetchLatestMessage(OTPShard shard) {
+        OTPMetrics.FailureCause failureCause = OTPMetrics.FailureCause.TRANSPORT;
+        try {
+            URI url = baseUrl;
+            String path = String.format("%s/2010-04-01/Accounts/%s/Messages.json?From=%s&To=%s&PageSize=%d", basePath(url), shard.getAccountSid(),
+                    URLEncoder.encode(shard.getFromNumber(), StandardCharsets.UTF_8), URLEncoder.encode(shard.getToNumber(), StandardCharsets.UTF_8),
+                    INCREMENTAL_PAGE_SIZE);
+            Instant watermark = shard.getWatermark();
+            if (watermark != null) {
+                // DateSent>= is inclusive at second precision; the shard's recent SIDs drop the overlap
+                path += "&" + URLEncoder.encode("DateSent>", StandardCharsets.UTF_8) + "="
+                        + URLEncoder.encode(DATE_SENT_FILTER.format(watermark), StandardCharsets.UTF_8);
+            }
 
-                HttpRequest request = HttpRequest.httpRequest()
-                        .withService(twilioService)
-                        .withMethod("GET")
-                        .withPath(path)
-                        .withAddedHeader("Host", "api.twilio.com")
-                        .withAddedHeader("Authorization", "Basic " + encodedCredentials);
+            RecentSids read = shard.getRecentSids().stage();
+            Instant newestDateSent = null;
+            for (int pageNumber = 0; pageNumber < MAX_PAGES_PER_FETCH; pageNumber++) {
+                failureCause = OTPMetrics.FailureCause.CIRCUIT_OPEN;
+                circuitBreaker.acquire();
+                failureCause = OTPMetrics.FailureCause.THROTTLED;
+                boolean admitted = false;
+                try {
+                    admitted = rateLimiter.acquire(maxThrottleWaitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                } finally {
+                    // A half-open probe that never reaches Twilio must not keep the circuit open
+                    if (!admitted) {
+                        circuitBreaker.release();
+                    }
+                }
+                if (!admitted) {
+                    throw new Exception("Gave up waiting " + maxThrottleWaitMillis + " ms for the Twilio rate limit.");
+                }
 
-                HttpResponse response = api.http().sendRequest(request, HttpMode.HTTP_1).response();
+                failureCause = OTPMetrics.FailureCause.TRANSPORT;
+                long sentAt = System.nanoTime();
+                TwilioResponse response;
+                try {
+                    response = transport.get(url, path, shard.getAuthorizationHeader());
+                } catch (Exception e) {
+                    circuitBreaker.recordFailure(0);
+                    throw e;
+                }
+                metrics.recordTwilioRoundTrip(System.nanoTime() - sentAt);
+                recordOutcome(response);
 
-                if (response.statusCode() == 200) {
-                    JsonNode rootNode = objectMapper.readTree(response.body().toString());
-                    JsonNode messages = rootNode.path("messages");
+                if (response.statusCode() != 200) {
+                    if (response.statusCode() == 429) {
+                        metrics.recordRateLimited();
+                    }
+                    failureCause = OTPMetrics.FailureCause.HTTP_STATUS;
+                    throw new Exception("Failed to retrieve messages: " + response.statusCode() + " " + response.reasonPhrase());
+                }
 
-                    if (messages.isArray() && !messages.isEmpty()) {
-                        String body = messages.get(0).path("body").asText();
+                failureCause = OTPMetrics.FailureCause.PARSE;
+                // Parse time includes OTP extraction, which the parser interleaves with reading messages
+                long parseStartedAt = System.nanoTime();
+                MessagePage page = messagePageParser.parse(response.body(), shard.getFromNumber(), shard.getToNumber(), read, metrics);
+                metrics.recordJsonParse(System.nanoTime() - parseStartedAt);
 
-                        Matcher matcher = otpRegex.matcher(body);
-                        if (matcher.find()) {
-                            return matcher.group();
-                        }
+                if (pageNumber == 0) {
+                    newestDateSent = page.newestDateSent();
+                }
+                if (page.otp() != null || page.reachedSeen() || page.nextPageUri() == null) {
+                    // Older messages were read by an earlier poll, or can't hold a newer OTP
+                    read.commit();
+                    if (newestDateSent != null) {
+                        shard.advanceWatermark(newestDateSent);
                     }
-                } else {
-                    api.logging().logToError("Failed to retrieve messages: " + response.statusCode() + " " + response.reasonPhrase());
+                    return page.otp() != null ? page.otp() : shard.getCursor();
                 }
+                path = basePath(url) + page.nextPageUri();
+            }
+            return shard.getCursor();
 
-                throw new Exception("No valid OTP found in recent messages.");
+        } catch (Exception e) {
+            metrics.recordFailure(failureCause);
+            // Fast failures while the circuit is open are counted, not logged, to keep the log readable
+            if (failureCause != OTPMetrics.FailureCause.CIRCUIT_OPEN) {
+                log.error("Failed to retrieve OTP: {}", e.getMessage());
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Feed a Twilio response to the rate limiter and circuit breaker: 429s and 5xx count as failures
+    private void recordOutcome(TwilioResponse response) {
+        int status = response.statusCode();
+        if (status != 429 && status < 500) {
+            circuitBreaker.recordSuccess();
+            return;
+        }
+
+        long retryAfterMillis = retryAfterMillis(response);
+        if (status == 429 || retryAfterMillis > 0) {
+            rateLimiter.backOff(retryAfterMillis > 0 ? retryAfterMillis : DEFAULT_RETRY_AFTER_MILLIS);
+        }
+        circuitBreaker.recordFailure(retryAfterMillis);
+    }
 
-            } catch (Exception e) {
-                api.logging().logToError("Failed to retrieve OTP: " + e.getMessage());
-                throw new RuntimeException(e);
+    // Retry-After is either a number of seconds or an HTTP date; 0 if absent or unparseable
+    static long retryAfterMillis(TwilioResponse response) {
+        String value = response.header("Retry-After");
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // Not delay-seconds, so try the HTTP-date form
+        }
+        try {
+            return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    private static URI parseBaseUrl(String url) {
+        try {
+            URI uri = new URI(url.trim());
+            if (uri.getHost() == null || !("https".equalsIgnoreCase(uri.getScheme()) || "http".equalsIgnoreCase(uri.getScheme()))) {
+                throw new IllegalArgumentException("Base URL must be an absolute http(s) URL: " + url);
             }
-        });
+            return uri;
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Malformed base URL: " + url, e);
+        }
+    }
+
+    // Any path on the base URL is kept as a prefix, without a trailing slash
+    private static String basePath(URI url) {
+        String path = url.getRawPath();
+        if (path == null) {
+            return "";
+        }
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private int loadInteger(String key, int defaultValue) {
+        Integer value = preferences.getInteger(key);
+        return (value != null && value >= 0) ? value : defaultValue;
     }
 }
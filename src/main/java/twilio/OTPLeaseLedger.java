@@ -0,0 +1,74 @@
+package twilio;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts how many requests each OTP has been handed to, so a code the target accepts only once
+ * (or N times) is never injected into more requests than that. Taking a use is a lock-free
+ * compare-and-set on the code's counter; the latest code's counter is kept in a volatile field
+ * so the hot path never touches the map, which only changes when a new code shows up.
+ */
+public class OTPLeaseLedger {
+    // Older codes are only remembered so a late caller holding one can't reset its budget
+    private static final int MAX_TRACKED_CODES = 32;
+
+    private volatile Lease latest;
+    private final Map<String, Lease> leases = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Lease> eldest) {
+            return size() > MAX_TRACKED_CODES;
+        }
+    };
+
+    /**
+     * Takes one use of {@code otp}. Returns {@code false} once {@code budget} uses have been
+     * handed out, meaning the caller must wait for the next code.
+     */
+    public boolean tryLease(FetchedOTP otp, int budget) {
+        String key = keyOf(otp);
+        Lease lease = latest;
+        if (lease == null || !lease.key.equals(key)) {
+            lease = leaseFor(key);
+        }
+        return lease.take(budget);
+    }
+
+    // Uses handed out so far for the latest code
+    public int getLatestUses() {
+        Lease lease = latest;
+        return lease == null ? 0 : lease.used.get();
+    }
+
+    private synchronized Lease leaseFor(String key) {
+        Lease lease = leases.computeIfAbsent(key, Lease::new);
+        latest = lease;
+        return lease;
+    }
+
+    private static String keyOf(FetchedOTP otp) {
+        return otp.messageSid() != null ? otp.messageSid() : otp.code();
+    }
+
+    private static final class Lease {
+        private final String key;
+        private final AtomicInteger used = new AtomicInteger();
+
+        private Lease(String key) {
+            this.key = key;
+        }
+
+        private boolean take(int budget) {
+            while (true) {
+                int current = used.get();
+                if (current >= budget) {
+                    return false;
+                }
+                if (used.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
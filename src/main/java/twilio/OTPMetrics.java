@@ -0,0 +1,250 @@
+package twilio;
+
+import utils.LatencyHistogram;
+import utils.RuleType;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the OTP hot path. All instruments are created up front,
+ * so recording never allocates or locks.
+ */
+public class OTPMetrics {
+
+    public enum FailureCause {
+        NOT_CONFIGURED,
+        NO_OTP,
+        HTTP_STATUS,
+        TRANSPORT,
+        PARSE,
+        TIMEOUT,
+        REJECTED,
+        THROTTLED,
+        CIRCUIT_OPEN
+    }
+
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    private final LatencyHistogram twilioRoundTrip = new LatencyHistogram();
+    private final LatencyHistogram jsonParse = new LatencyHistogram();
+    private final LatencyHistogram otpExtraction = new LatencyHistogram();
+    private final Map<RuleType, LatencyHistogram> performAction = new EnumMap<>(RuleType.class);
+    private final Map<FailureCause, LongAdder> failures = new EnumMap<>(FailureCause.class);
+    private final LongAdder skips = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder wastedRefreshes = new LongAdder();
+    private final LongAdder hotPathMisses = new LongAdder();
+    private final LongAdder leaseWaits = new LongAdder();
+    private final LongAdder deadlineMisses = new LongAdder();
+    private final LongAdder staleServes = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder sharedWaits = new LongAdder();
+
+    public OTPMetrics() {
+        for (RuleType ruleType : RuleType.values()) {
+            performAction.put(ruleType, new LatencyHistogram());
+        }
+        for (FailureCause cause : FailureCause.values()) {
+            failures.put(cause, new LongAdder());
+        }
+    }
+
+    public void recordTwilioRoundTrip(long nanos) {
+        twilioRoundTrip.record(nanos);
+    }
+
+    public void recordJsonParse(long nanos) {
+        jsonParse.record(nanos);
+    }
+
+    public void recordOtpExtraction(long nanos) {
+        otpExtraction.record(nanos);
+    }
+
+    public void recordPerformAction(RuleType ruleType, long nanos) {
+        performAction.get(ruleType).record(nanos);
+    }
+
+    // performAction found none of the configured parameters in the request
+    public void recordSkip() {
+        skips.increment();
+    }
+
+    public void recordFailure(FailureCause cause) {
+        failures.get(cause).increment();
+    }
+
+    public void recordRateLimited() {
+        rateLimited.increment();
+    }
+
+    public void recordRefreshAhead() {
+        refreshes.increment();
+    }
+
+    // A refreshed OTP was replaced by the next refresh without ever being read
+    public void recordWastedRefresh() {
+        wastedRefreshes.increment();
+    }
+
+    // A caller had to wait for a fetch instead of getting a cached OTP
+    public void recordHotPathMiss() {
+        hotPathMisses.increment();
+    }
+
+    // A request found its code's uses spent and had to wait for the next code
+    public void recordLeaseWait() {
+        leaseWaits.increment();
+    }
+
+    // performAction gave up waiting for the OTP at the acquisition deadline
+    public void recordDeadlineMiss() {
+        deadlineMisses.increment();
+    }
+
+    // A deadline miss was answered with the last known, possibly stale, OTP
+    public void recordStaleServe() {
+        staleServes.increment();
+    }
+
+    // A fetch was answered from the shared store with a code another instance fetched
+    public void recordSharedHit() {
+        sharedHits.increment();
+    }
+
+    // A fetch waited for another instance holding the shared store's lease
+    public void recordSharedWait() {
+        sharedWaits.increment();
+    }
+
+    public long getSharedHits() {
+        return sharedHits.sum();
+    }
+
+    public long getSharedWaits() {
+        return sharedWaits.sum();
+    }
+
+    public long getDeadlineMisses() {
+        return deadlineMisses.sum();
+    }
+
+    public long getStaleServes() {
+        return staleServes.sum();
+    }
+
+    public long getLeaseWaits() {
+        return leaseWaits.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getWastedRefreshes() {
+        return wastedRefreshes.sum();
+    }
+
+    public long getHotPathMisses() {
+        return hotPathMisses.sum();
+    }
+
+    public void reset() {
+        twilioRoundTrip.reset();
+        jsonParse.reset();
+        otpExtraction.reset();
+        performAction.values().forEach(LatencyHistogram::reset);
+        failures.values().forEach(LongAdder::reset);
+        skips.reset();
+        rateLimited.reset();
+        refreshes.reset();
+        wastedRefreshes.reset();
+        hotPathMisses.reset();
+        leaseWaits.reset();
+        deadlineMisses.reset();
+        staleServes.reset();
+        sharedHits.reset();
+        sharedWaits.reset();
+    }
+
+    /**
+     * Every histogram by name, in display order.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        histograms.put("twilioRoundTrip", twilioRoundTrip);
+        histograms.put("jsonParse", jsonParse);
+        histograms.put("otpExtraction", otpExtraction);
+        for (Map.Entry<RuleType, LatencyHistogram> entry : performAction.entrySet()) {
+            histograms.put("performAction." + entry.getKey(), entry.getValue());
+        }
+        return histograms;
+    }
+
+    /**
+     * Every counter by name, in display order.
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("skips", skips.sum());
+        counters.put("rateLimited", rateLimited.sum());
+        counters.put("hotPathMisses", hotPathMisses.sum());
+        counters.put("leaseWaits", leaseWaits.sum());
+        counters.put("deadlineMisses", deadlineMisses.sum());
+        counters.put("staleServes", staleServes.sum());
+        counters.put("shared.hits", sharedHits.sum());
+        counters.put("shared.waits", sharedWaits.sum());
+        counters.put("refreshAhead.refreshes", refreshes.sum());
+        counters.put("refreshAhead.wasted", wastedRefreshes.sum());
+        for (Map.Entry<FailureCause, LongAdder> entry : failures.entrySet()) {
+            counters.put("failures." + entry.getKey(), entry.getValue().sum());
+        }
+        return counters;
+    }
+
+    /**
+     * A point-in-time snapshot suitable for JSON export; latencies are in microseconds.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> histograms = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", histogram.getCount());
+            stats.put("meanMicros", histogram.getMeanNanos() / 1000);
+            for (double percentile : PERCENTILES) {
+                stats.put("p" + (int) percentile + "Micros", histogram.getPercentileNanos(percentile) / 1000);
+            }
+            stats.put("maxMicros", histogram.getMaxNanos() / 1000);
+            histograms.put(entry.getKey(), stats);
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("timestamp", System.currentTimeMillis());
+        snapshot.put("histograms", histograms);
+        snapshot.put("counters", getCounters());
+        return snapshot;
+    }
+
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder("metric,count,mean_us,p50_us,p95_us,p99_us,max_us\n");
+        for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            csv.append(entry.getKey()).append(',')
+                    .append(histogram.getCount()).append(',')
+                    .append(histogram.getMeanNanos() / 1000);
+            for (double percentile : PERCENTILES) {
+                csv.append(',').append(histogram.getPercentileNanos(percentile) / 1000);
+            }
+            csv.append(',').append(histogram.getMaxNanos() / 1000).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            csv.append(entry.getKey()).append(',').append(entry.getValue()).append(",,,,,\n");
+        }
+        return csv.toString();
+    }
+}
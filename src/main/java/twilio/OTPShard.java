@@ -0,0 +1,176 @@
+package twilio;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One Twilio number pair, optionally on its own account, with its own OTP cache and fetch
+ * cursor, so sessions routed to different shards never consume each other's codes.
+ */
+public class OTPShard {
+    private static final int RECENT_SIDS_CAPACITY = 64;
+
+    private final String accountSid;
+    private final String authToken;
+    private final String fromNumber;
+    private final String toNumber;
+    private final String authorizationHeader;
+    private final OTPCache cache;
+    private final OTPLeaseLedger leaseLedger = new OTPLeaseLedger();
+    private volatile FetchedOTP cursor;
+    private volatile long cursorFetchedAt;
+
+    // Incremental fetching: newest date_sent listed so far and the SIDs already read
+    private volatile Instant watermark;
+    private final RecentSids recentSids = new RecentSids(RECENT_SIDS_CAPACITY);
+
+    // Per-shard stats for the UI
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder fetchCount = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+    private volatile long lastFetchNanos;
+
+    OTPShard(String accountSid, String authToken, String fromNumber, String toNumber, long ttlMillis, long maxAgeMillis) {
+        this.accountSid = accountSid;
+        this.authToken = authToken;
+        this.fromNumber = fromNumber;
+        this.toNumber = toNumber;
+        // Built once per settings change rather than on every fetch
+        this.authorizationHeader = isConfigured()
+                ? "Basic " + Base64.getEncoder().encodeToString((accountSid + ":" + authToken).getBytes(StandardCharsets.UTF_8))
+                : null;
+        this.cache = new OTPCache(ttlMillis, maxAgeMillis);
+    }
+
+    public boolean isConfigured() {
+        return accountSid != null && authToken != null && fromNumber != null && toNumber != null;
+    }
+
+    // A blank number matches nothing, so an unconfigured number pair never claims unrelated messages
+    public boolean matches(String from, String to) {
+        return matchesNumber(fromNumber, from) && matchesNumber(toNumber, to);
+    }
+
+    public String getAccountSid() {
+        return accountSid;
+    }
+
+    String getAuthToken() {
+        return authToken;
+    }
+
+    String getAuthorizationHeader() {
+        return authorizationHeader;
+    }
+
+    public String getFromNumber() {
+        return fromNumber;
+    }
+
+    public String getToNumber() {
+        return toNumber;
+    }
+
+    public OTPCache getCache() {
+        return cache;
+    }
+
+    public OTPLeaseLedger getLeaseLedger() {
+        return leaseLedger;
+    }
+
+    // The last message handed out by this shard, used as the cursor in fresh OTP mode
+    public FetchedOTP getCursor() {
+        return cursor;
+    }
+
+    // When the cursor's message was fetched or pushed, in epoch millis
+    public long getCursorFetchedAt() {
+        return cursorFetchedAt;
+    }
+
+    void setCursor(FetchedOTP cursor) {
+        setCursor(cursor, System.currentTimeMillis());
+    }
+
+    void setCursor(FetchedOTP cursor, long fetchedAt) {
+        this.cursorFetchedAt = fetchedAt;
+        this.cursor = cursor;
+    }
+
+    // Messages sent before this have all been listed; null until the first fetch
+    public Instant getWatermark() {
+        return watermark;
+    }
+
+    void advanceWatermark(Instant dateSent) {
+        Instant current = watermark;
+        if (current == null || dateSent.isAfter(current)) {
+            watermark = dateSent;
+        }
+    }
+
+    RecentSids getRecentSids() {
+        return recentSids;
+    }
+
+    // Identifies the shard's persisted state across reloads
+    String stateKey() {
+        return fromNumber + "|" + toNumber;
+    }
+
+    void enterQueue() {
+        waiting.incrementAndGet();
+    }
+
+    void leaveQueue() {
+        waiting.decrementAndGet();
+    }
+
+    void recordFetch(long nanos) {
+        fetchCount.increment();
+        fetchNanos.add(nanos);
+        lastFetchNanos = nanos;
+    }
+
+    // Callers currently waiting on this shard's OTP
+    public int getQueueDepth() {
+        return waiting.get();
+    }
+
+    public long getFetchCount() {
+        return fetchCount.sum();
+    }
+
+    public long getAverageFetchMillis() {
+        long count = fetchCount.sum();
+        return count == 0 ? 0 : fetchNanos.sum() / count / 1_000_000;
+    }
+
+    public long getLastFetchMillis() {
+        return lastFetchNanos / 1_000_000;
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("accountSid", accountSid);
+        map.put("authToken", authToken);
+        map.put("fromNumber", fromNumber);
+        map.put("toNumber", toNumber);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return fromNumber + " -> " + toNumber;
+    }
+
+    private static boolean matchesNumber(String configured, String actual) {
+        return configured != null && !configured.isEmpty() && configured.equals(actual);
+    }
+}
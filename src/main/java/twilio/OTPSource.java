@@ -0,0 +1,18 @@
+package twilio;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where the OTPs injected into requests come from: SMS messages polled from Twilio by
+ * {@link OTPHandler}, or codes generated locally by {@link TotpSource}.
+ */
+public interface OTPSource {
+
+    enum Type {
+        TWILIO_SMS,
+        TOTP
+    }
+
+    // The OTP to inject into the session's next request; sessionKey may be null
+    CompletableFuture<String> getOTPAsync(String sessionKey);
+}
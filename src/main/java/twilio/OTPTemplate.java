@@ -0,0 +1,129 @@
+package twilio;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Describes where an OTP sits in an SMS body. A template may be limited to one sender, anchored
+ * by literal text before and/or after the code, and restricted to a charset and length range.
+ * A template with a regex ignores the anchors, charset and lengths and uses the regex instead,
+ * taking group 1 if it has one.
+ */
+public class OTPTemplate {
+
+    public enum Charset {
+        DIGITS,
+        ALPHANUMERIC
+    }
+
+    private final String sender;
+    private final String prefix;
+    private final String suffix;
+    private final Charset charset;
+    private final int minLength;
+    private final int maxLength;
+    private final String regex;
+
+    public OTPTemplate(String sender, String prefix, String suffix, Charset charset, int minLength, int maxLength, String regex) {
+        if (minLength < 1 || maxLength < minLength) {
+            throw new IllegalArgumentException("OTP length must be at least 1 and Max Length must not be below Min Length.");
+        }
+        if (regex != null && !regex.isEmpty()) {
+            try {
+                Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid OTP regex: " + e.getDescription(), e);
+            }
+        }
+        this.sender = emptyToNull(sender);
+        this.prefix = emptyToNull(prefix);
+        this.suffix = emptyToNull(suffix);
+        this.charset = charset == null ? Charset.DIGITS : charset;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.regex = emptyToNull(regex);
+    }
+
+    // The extractor's behaviour before templates existed: the first standalone 4-6 digit number
+    public static OTPTemplate anyDigits() {
+        return new OTPTemplate(null, null, null, Charset.DIGITS, 4, 6, null);
+    }
+
+    public static OTPTemplate fromMap(Map<String, String> map) {
+        String charset = map.get("charset");
+        return new OTPTemplate(
+                map.get("sender"),
+                map.get("prefix"),
+                map.get("suffix"),
+                charset == null || charset.isEmpty() ? Charset.DIGITS : Charset.valueOf(charset),
+                Integer.parseInt(map.getOrDefault("minLength", "4")),
+                Integer.parseInt(map.getOrDefault("maxLength", "6")),
+                map.get("regex"));
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        if (sender != null) {
+            map.put("sender", sender);
+        }
+        if (prefix != null) {
+            map.put("prefix", prefix);
+        }
+        if (suffix != null) {
+            map.put("suffix", suffix);
+        }
+        map.put("charset", charset.name());
+        map.put("minLength", String.valueOf(minLength));
+        map.put("maxLength", String.valueOf(maxLength));
+        if (regex != null) {
+            map.put("regex", regex);
+        }
+        return map;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    @Override
+    public String toString() {
+        String from = sender == null ? "any sender" : sender;
+        if (regex != null) {
+            return from + ": /" + regex + "/";
+        }
+        String length = minLength == maxLength ? String.valueOf(minLength) : minLength + "-" + maxLength;
+        return from + ": " + (prefix == null ? "" : "\"" + prefix + "\" ")
+                + "[" + charset + " " + length + "]"
+                + (suffix == null ? "" : " \"" + suffix + "\"");
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,60 @@
+package twilio;
+
+/**
+ * Fixed-size ring of the most recently seen message SIDs. Incremental queries re-list the
+ * newest message on every poll, and this lets the parser recognise and skip it.
+ */
+public class RecentSids {
+    private final String[] ring;
+    // Set on a staged ring, whose SIDs only reach the parent on commit()
+    private final RecentSids parent;
+    private int next;
+
+    public RecentSids(int capacity) {
+        this(capacity, null);
+    }
+
+    private RecentSids(int capacity, RecentSids parent) {
+        this.ring = new String[capacity];
+        this.parent = parent;
+    }
+
+    /**
+     * A ring that also sees this ring's SIDs but keeps the ones added to it until
+     * {@link #commit()}, so a fetch that stops part-way never marks what it read as seen.
+     */
+    public RecentSids stage() {
+        return new RecentSids(ring.length, this);
+    }
+
+    // A linear scan is cheaper than hashing at this size
+    public synchronized boolean contains(String sid) {
+        if (parent != null && parent.contains(sid)) {
+            return true;
+        }
+        for (String seen : ring) {
+            if (sid.equals(seen)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void add(String sid) {
+        ring[next] = sid;
+        next = (next + 1) % ring.length;
+    }
+
+    // Adds a staged ring's SIDs to its parent, oldest first
+    public synchronized void commit() {
+        if (parent == null) {
+            return;
+        }
+        for (int i = 0; i < ring.length; i++) {
+            String sid = ring[(next + i) % ring.length];
+            if (sid != null) {
+                parent.add(sid);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package twilio;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Refreshes each shard's cached OTP in the background once it has lived for a configurable share
+ * of the cache TTL, so session-handling requests keep hitting a valid code instead of waiting on
+ * Twilio when it expires. Refreshing pauses once no session-handling traffic has been seen for
+ * the idle timeout and resumes on the next request.
+ */
+public class RefreshAheadScheduler {
+    private static final long MIN_TICK_MILLIS = 100;
+    private static final long MAX_TICK_MILLIS = 1000;
+
+    private final OTPHandler handler;
+    private final ScheduledExecutorService timer;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean enabled;
+    private volatile int refreshPercent;
+    private volatile long idleMillis;
+    private volatile long lastTrafficAt;
+
+    RefreshAheadScheduler(OTPHandler handler, boolean enabled, int refreshPercent, long idleMillis) {
+        this.handler = handler;
+        this.enabled = enabled;
+        this.refreshPercent = refreshPercent;
+        this.idleMillis = idleMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TwilioOTP-refresh-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void configure(boolean enabled, int refreshPercent, long idleMillis) {
+        this.enabled = enabled;
+        this.refreshPercent = refreshPercent;
+        this.idleMillis = idleMillis;
+    }
+
+    // Called for every session-handling request; restarts the ticks if they were paused
+    void recordTraffic() {
+        lastTrafficAt = System.currentTimeMillis();
+        if (enabled && !running.get() && running.compareAndSet(false, true)) {
+            timer.execute(this::tick);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getRefreshPercent() {
+        return refreshPercent;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    // Enabled but not ticking, because no session-handling traffic has been seen recently
+    public boolean isPaused() {
+        return enabled && !running.get();
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            if (!enabled || System.currentTimeMillis() - lastTrafficAt >= idleMillis) {
+                running.set(false);
+                // Traffic recorded while stopping saw the ticks still running, so pick it up here
+                if (!enabled || System.currentTimeMillis() - lastTrafficAt >= idleMillis || !running.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+
+            // Fresh OTP mode wants a new message per request, which a prefetched code can't provide
+            if (!handler.isFreshMode()) {
+                long now = System.currentTimeMillis();
+                for (OTPShard shard : handler.getShards()) {
+                    if (shard.isConfigured() && shard.getCache().isDueForRefresh(now, refreshPercent)) {
+                        handler.refreshAhead(shard);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // Keep ticking; the failure has already been logged and counted by the fetch
+        }
+
+        try {
+            timer.schedule(this::tick, tickMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down while this tick was running
+        }
+    }
+
+    // A quarter of the window between the refresh point and expiry, so refreshes land well before it
+    private long tickMillis() {
+        long window = handler.getCacheTtlMillis() * (100 - refreshPercent) / 100;
+        return Math.max(MIN_TICK_MILLIS, Math.min(MAX_TICK_MILLIS, window / 4));
+    }
+}
@@ -0,0 +1,368 @@
+package twilio;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OTP cache shared by every Burp instance on the machine through a small memory-mapped file, so
+ * instances reading the same Twilio inbox take turns fetching instead of racing each other.
+ *
+ * <p>The file holds one fixed-size slot per number pair. A slot carries the latest code, its
+ * message SID and {@code date_sent}, when it was fetched, how many requests it has been handed
+ * to, and a fetch lease. Coordination is lock-free on the mapped memory: the lease is a single
+ * word (expiry and owner) taken by compare-and-set, so only one process calls Twilio for a number
+ * pair at a time and an owner that dies simply lets it expire; the code fields are guarded by a
+ * sequence number that is odd while a writer is inside, so readers retry instead of seeing a
+ * half-written code. The file lock is only taken once, to lay out a new file.
+ *
+ * <p>Slots are never freed; delete the file while no instance has it open to start over.
+ */
+public class SharedOTPStore {
+    private static final long MAGIC = 0x54574f5450303031L; // "TWOTP001"
+    private static final int VERSION = 1;
+    private static final int SLOT_COUNT = 64;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 256;
+    private static final int FILE_SIZE = HEADER_SIZE + SLOT_COUNT * SLOT_SIZE;
+
+    // Header layout
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_SLOT_COUNT = 12;
+
+    // Slot layout; the longs are 8-byte aligned so they can be accessed atomically
+    private static final int SEQUENCE = 0;
+    private static final int KEY = 8;
+    private static final int LEASE = 16;
+    private static final int FETCHED_AT = 24;
+    private static final int DATE_SENT = 32;
+    private static final int USES = 40;
+    private static final int CODE_LENGTH = 48;
+    private static final int SID_LENGTH = 52;
+    private static final int CODE = 56;
+    private static final int SID = 88;
+    private static final int MAX_CODE_BYTES = SID - CODE;
+    private static final int MAX_SID_BYTES = 64;
+
+    // The lease word is the expiry in epoch millis above a per-process owner id
+    private static final int OWNER_BITS = 20;
+    private static final long OWNER_MASK = (1L << OWNER_BITS) - 1;
+
+    private static final long NO_DATE_SENT = Long.MIN_VALUE;
+    // A sequence number that stays odd this long belongs to a writer that died mid-update
+    private static final long WRITER_STALL_NANOS = 200_000_000L;
+    private static final int MAX_READ_ATTEMPTS = 1000;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final long ownerId;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * A code read from the store, with when the instance that fetched it did so (epoch millis).
+     */
+    public record Entry(FetchedOTP otp, long fetchedAt) {
+    }
+
+    private SharedOTPStore(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        SecureRandom random = new SecureRandom();
+        long id;
+        do {
+            id = random.nextLong() & OWNER_MASK;
+        } while (id == 0);
+        this.ownerId = id;
+    }
+
+    public static Path defaultPath() {
+        return Path.of(System.getProperty("user.home"), ".twilio-otp-authenticate", "shared-otp.dat");
+    }
+
+    /**
+     * Maps the store at {@code path}, laying out the file if it does not exist yet or is empty.
+     */
+    public static SharedOTPStore open(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        if (absolute.getParent() != null) {
+            Files.createDirectories(absolute.getParent());
+        }
+
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(absolute, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                // Never lay out over a file that is something else
+                long size = channel.size();
+                if (size != 0 && size != FILE_SIZE) {
+                    throw new IOException(absolute + " is not a shared OTP store of this version.");
+                }
+                boolean created = size == 0;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                buffer.order(ByteOrder.nativeOrder());
+
+                long magic = buffer.getLong(HEADER_MAGIC);
+                if (created || magic == 0) {
+                    buffer.putInt(HEADER_VERSION, VERSION);
+                    buffer.putInt(HEADER_SLOT_COUNT, SLOT_COUNT);
+                    buffer.putLong(HEADER_MAGIC, MAGIC);
+                    buffer.force();
+                } else if (magic != MAGIC || buffer.getInt(HEADER_VERSION) != VERSION || buffer.getInt(HEADER_SLOT_COUNT) != SLOT_COUNT) {
+                    throw new IOException(absolute + " is not a shared OTP store of this version.");
+                }
+                return new SharedOTPStore(absolute, buffer);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * The slot for {@code key}, claiming a free one the first time any instance asks for it, or
+     * {@code null} if every slot is taken by other keys.
+     */
+    public Slot slot(String key) {
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+
+        long hash = hash(key);
+        int start = (int) Long.remainderUnsigned(hash, SLOT_COUNT);
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            int base = HEADER_SIZE + (start + i) % SLOT_COUNT * SLOT_SIZE;
+            long owner = (long) LONGS.getVolatile(buffer, base + KEY);
+            if (owner == hash || (owner == 0 && (LONGS.compareAndSet(buffer, base + KEY, 0L, hash)
+                    || (long) LONGS.getVolatile(buffer, base + KEY) == hash))) {
+                slot = new Slot(base);
+                Slot raced = slots.putIfAbsent(key, slot);
+                return raced != null ? raced : slot;
+            }
+        }
+        return null;
+    }
+
+    // Slots claimed by any instance
+    public int getUsedSlots() {
+        int used = 0;
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if ((long) LONGS.getVolatile(buffer, HEADER_SIZE + i * SLOT_SIZE + KEY) != 0) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+    public int getSlotCount() {
+        return SLOT_COUNT;
+    }
+
+    // FNV-1a, which unlike String.hashCode is 64 bits; 0 marks a free slot
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * One number pair's record in the store.
+     */
+    public final class Slot {
+        private final int base;
+
+        private Slot(int base) {
+            this.base = base;
+        }
+
+        /**
+         * The latest code any instance has published, or {@code null} if there is none or a
+         * writer kept the slot busy for too long.
+         */
+        public Entry read() {
+            for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+                long sequence = (long) LONGS.getVolatile(buffer, base + SEQUENCE);
+                if ((sequence & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                long fetchedAt = buffer.getLong(base + FETCHED_AT);
+                long dateSent = buffer.getLong(base + DATE_SENT);
+                String code = readString(CODE, buffer.getInt(base + CODE_LENGTH), MAX_CODE_BYTES);
+                String sid = readString(SID, buffer.getInt(base + SID_LENGTH), MAX_SID_BYTES);
+
+                VarHandle.loadLoadFence();
+                if ((long) LONGS.getVolatile(buffer, base + SEQUENCE) == sequence) {
+                    if (code == null || code.isEmpty()) {
+                        return null;
+                    }
+                    return new Entry(new FetchedOTP(code, sid == null || sid.isEmpty() ? null : sid,
+                            dateSent == NO_DATE_SENT ? null : Instant.ofEpochMilli(dateSent)), fetchedAt);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Stores {@code otp} as the latest code. Its use count starts over unless it is the code
+         * already stored. Codes too long for the slot are not shared.
+         */
+        public void publish(FetchedOTP otp, long fetchedAt) {
+            if (!isShareable(otp)) {
+                return;
+            }
+            byte[] code = otp.code().getBytes(StandardCharsets.UTF_8);
+            byte[] sid = otp.messageSid() == null ? new byte[0] : otp.messageSid().getBytes(StandardCharsets.UTF_8);
+
+            long sequence = beginWrite();
+            try {
+                if (!holds(otp)) {
+                    LONGS.setVolatile(buffer, base + USES, 0L);
+                }
+                buffer.putLong(base + FETCHED_AT, fetchedAt);
+                buffer.putLong(base + DATE_SENT, otp.dateSent() == null ? NO_DATE_SENT : otp.dateSent().toEpochMilli());
+                buffer.putInt(base + CODE_LENGTH, code.length);
+                buffer.put(base + CODE, code);
+                buffer.putInt(base + SID_LENGTH, sid.length);
+                buffer.put(base + SID, sid);
+            } finally {
+                LONGS.setRelease(buffer, base + SEQUENCE, sequence + 1);
+            }
+        }
+
+        /**
+         * Takes the fetch lease for {@code leaseMillis} unless another fetch holds an unexpired
+         * one. Returns a token for {@link #releaseLease(long)}, or 0 if the lease is taken.
+         */
+        public long tryAcquireLease(long leaseMillis) {
+            long now = System.currentTimeMillis();
+            long current = (long) LONGS.getVolatile(buffer, base + LEASE);
+            if (current != 0 && current >>> OWNER_BITS > now) {
+                return 0;
+            }
+            long token = (now + leaseMillis) << OWNER_BITS | ownerId;
+            return LONGS.compareAndSet(buffer, base + LEASE, current, token) ? token : 0;
+        }
+
+        // A lease that expired and was taken over by another fetch is left alone
+        public void releaseLease(long token) {
+            LONGS.compareAndSet(buffer, base + LEASE, token, 0L);
+        }
+
+        /**
+         * Takes one use of {@code otp} against {@code budget} across every instance. Returns
+         * {@code false} once the uses are spent, or if the slot has moved on to a newer code, so
+         * the caller waits for that one. A code the slot can't hold, because it is too long or
+         * nothing has been published yet, is counted in the caller's own {@code fallback} ledger,
+         * as is one whose slot a writer kept busy for too long.
+         */
+        public boolean tryLease(FetchedOTP otp, int budget, OTPLeaseLedger fallback) {
+            if (!isShareable(otp)) {
+                return fallback.tryLease(otp, budget);
+            }
+            for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; ) {
+                long sequence = (long) LONGS.getVolatile(buffer, base + SEQUENCE);
+                if ((sequence & 1) != 0) {
+                    attempt++;
+                    Thread.onSpinWait();
+                    continue;
+                }
+                boolean empty = buffer.getInt(base + CODE_LENGTH) == 0;
+                boolean held = holds(otp);
+                long used = (long) LONGS.getVolatile(buffer, base + USES);
+                if ((long) LONGS.getVolatile(buffer, base + SEQUENCE) != sequence) {
+                    attempt++;
+                    continue;
+                }
+
+                if (empty) {
+                    return fallback.tryLease(otp, budget);
+                }
+                if (!held || used >= budget) {
+                    return false;
+                }
+                // Losing the race to another lease is progress, so it doesn't count as an attempt
+                if (LONGS.compareAndSet(buffer, base + USES, used, used + 1)) {
+                    return true;
+                }
+            }
+            return fallback.tryLease(otp, budget);
+        }
+
+        // Makes the sequence number odd, taking over from a writer that stalled mid-update
+        private long beginWrite() {
+            long stalledSequence = -1;
+            long stalledSince = 0;
+            while (true) {
+                long sequence = (long) LONGS.getVolatile(buffer, base + SEQUENCE);
+                if ((sequence & 1) == 0) {
+                    if (LONGS.compareAndSet(buffer, base + SEQUENCE, sequence, sequence + 1)) {
+                        return sequence + 1;
+                    }
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                if (sequence != stalledSequence) {
+                    stalledSequence = sequence;
+                    stalledSince = now;
+                } else if (now - stalledSince > WRITER_STALL_NANOS
+                        && LONGS.compareAndSet(buffer, base + SEQUENCE, sequence, sequence + 2)) {
+                    return sequence + 2;
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        private boolean isShareable(FetchedOTP otp) {
+            int codeBytes = otp.code().getBytes(StandardCharsets.UTF_8).length;
+            return codeBytes > 0 && codeBytes <= MAX_CODE_BYTES
+                    && (otp.messageSid() == null || otp.messageSid().getBytes(StandardCharsets.UTF_8).length <= MAX_SID_BYTES);
+        }
+
+        // Whether the stored message is otp's, by SID or, without one, by code
+        private boolean holds(FetchedOTP otp) {
+            if (otp.messageSid() != null) {
+                return otp.messageSid().equals(readString(SID, buffer.getInt(base + SID_LENGTH), MAX_SID_BYTES));
+            }
+            return otp.code().equals(readString(CODE, buffer.getInt(base + CODE_LENGTH), MAX_CODE_BYTES));
+        }
+
+        // A length torn by a concurrent writer can be out of range; the sequence check discards the result
+        private String readString(int offset, int length, int maxLength) {
+            if (length < 0 || length > maxLength) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(base + offset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + getUsedSlots() + " of " + SLOT_COUNT + " slots used)";
+    }
+}
@@ -0,0 +1,189 @@
+package twilio;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Generates authenticator-app codes locally: RFC 6238 TOTP on top of RFC 4226 HOTP, so targets
+ * that accept them need no round trip to Twilio at all. The codes for the current time step and
+ * the one after it are kept together, so the step boundary only promotes a code that is already
+ * computed. Each thread keeps its own initialised {@link Mac}, which makes a cache miss one HMAC
+ * over eight bytes.
+ */
+public class TotpSource implements OTPSource {
+
+    public enum Algorithm {
+        SHA1("HmacSHA1"),
+        SHA256("HmacSHA256"),
+        SHA512("HmacSHA512");
+
+        private final String macName;
+
+        Algorithm(String macName) {
+            this.macName = macName;
+        }
+    }
+
+    public static final int MIN_DIGITS = 6;
+    public static final int MAX_DIGITS = 8;
+    private static final int[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000};
+    private static final String BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    private final SecretKeySpec key;
+    private final int digits;
+    private final long periodMillis;
+    private final long skewMillis;
+    private final Algorithm algorithm;
+    private final ThreadLocal<Mac> macs;
+
+    private volatile StepCodes codes;
+
+    private record StepCodes(long step, String current, String next) {
+    }
+
+    /**
+     * @param skewSeconds added to the local clock, for a target whose clock runs ahead (positive)
+     *                    or behind (negative). This is a single fixed offset, not a verifier's
+     *                    window of +/- steps: only one code can be injected per request.
+     */
+    public TotpSource(byte[] secret, int digits, int periodSeconds, Algorithm algorithm, int skewSeconds) {
+        if (secret.length == 0) {
+            throw new IllegalArgumentException("TOTP secret must not be empty.");
+        }
+        if (digits < MIN_DIGITS || digits > MAX_DIGITS) {
+            throw new IllegalArgumentException("TOTP digits must be between " + MIN_DIGITS + " and " + MAX_DIGITS + ".");
+        }
+        if (periodSeconds <= 0) {
+            throw new IllegalArgumentException("TOTP period must be positive.");
+        }
+        this.key = new SecretKeySpec(secret, algorithm.macName);
+        this.digits = digits;
+        this.periodMillis = periodSeconds * 1000L;
+        this.skewMillis = skewSeconds * 1000L;
+        this.algorithm = algorithm;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        // Fail on an unusable key now rather than on the first scanner request
+        newMac();
+    }
+
+    public static TotpSource fromBase32(String secret, int digits, int periodSeconds, Algorithm algorithm, int skewSeconds) {
+        return new TotpSource(decodeBase32(secret), digits, periodSeconds, algorithm, skewSeconds);
+    }
+
+    @Override
+    public CompletableFuture<String> getOTPAsync(String sessionKey) {
+        return CompletableFuture.completedFuture(currentCode());
+    }
+
+    public String currentCode() {
+        return codeAt(System.currentTimeMillis());
+    }
+
+    // The TOTP for the given wall-clock time, served from the current/next pair when possible
+    public String codeAt(long epochMillis) {
+        long step = Math.floorDiv(epochMillis + skewMillis, periodMillis);
+        StepCodes cached = codes;
+        if (cached != null && cached.step == step) {
+            return cached.current;
+        }
+
+        StepCodes updated = cached != null && cached.step + 1 == step
+                ? new StepCodes(step, cached.next, hotp(step + 1))
+                : new StepCodes(step, hotp(step), hotp(step + 1));
+        codes = updated;
+        return updated.current;
+    }
+
+    // Milliseconds until the current code is replaced by the next one
+    public long getRemainingMillis() {
+        return periodMillis - Math.floorMod(System.currentTimeMillis() + skewMillis, periodMillis);
+    }
+
+    // RFC 4226 HOTP: dynamic truncation of the HMAC of the big-endian counter
+    public String hotp(long counter) {
+        byte[] message = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            message[i] = (byte) counter;
+            counter >>>= 8;
+        }
+        byte[] hash = macs.get().doFinal(message);
+
+        int offset = hash[hash.length - 1] & 0x0f;
+        int binary = ((hash[offset] & 0x7f) << 24)
+                | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8)
+                | (hash[offset + 3] & 0xff);
+
+        char[] code = new char[digits];
+        int value = binary % POWERS_OF_TEN[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            code[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(code);
+    }
+
+    public int getDigits() {
+        return digits;
+    }
+
+    public int getPeriodSeconds() {
+        return (int) (periodMillis / 1000);
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getSkewSeconds() {
+        return (int) (skewMillis / 1000);
+    }
+
+    /**
+     * Decodes an RFC 4648 Base32 secret as shown by authenticator enrolment pages. Case, spaces,
+     * dashes and trailing padding are ignored.
+     */
+    public static byte[] decodeBase32(String secret) {
+        if (secret == null) {
+            throw new IllegalArgumentException("TOTP secret is required.");
+        }
+        byte[] decoded = new byte[secret.length() * 5 / 8];
+        int length = 0;
+        int buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < secret.length(); i++) {
+            char c = secret.charAt(i);
+            if (c == ' ' || c == '-' || c == '=') {
+                continue;
+            }
+            int value = BASE32_ALPHABET.indexOf(Character.toUpperCase(c));
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid Base32 character in TOTP secret: '" + c + "'");
+            }
+            // At most 12 unconsumed bits are ever needed
+            buffer = ((buffer << 5) | value) & 0xfff;
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                decoded[length++] = (byte) (buffer >> bits);
+            }
+        }
+        if (length == 0) {
+            throw new IllegalArgumentException("TOTP secret must not be empty.");
+        }
+        return Arrays.copyOf(decoded, length);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(algorithm.macName);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Unusable TOTP key for " + algorithm + ": " + e.getMessage(), e);
+        }
+    }
+}
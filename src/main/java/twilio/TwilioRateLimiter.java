@@ -0,0 +1,112 @@
+package twilio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by every Twilio request: up to {@code burst} requests at once, refilled at
+ * {@code ratePerSecond}. It is kept as the time the bucket will next be full (the GCRA form), so
+ * a request reserves its slot with one synchronized update and then sleeps outside the lock.
+ * A {@code Retry-After} from Twilio blocks the bucket until then and resumes at the steady rate
+ * rather than with a full burst.
+ */
+public class TwilioRateLimiter {
+    private volatile long intervalNanos;
+    private volatile long toleranceNanos;
+    private volatile int ratePerSecond;
+    private volatile int burst;
+
+    // How a reserved wait is spent; tests swap it to interrupt a waiting request on cue
+    private volatile Sleeper sleeper = TimeUnit.NANOSECONDS::sleep;
+
+    // Guarded by this
+    private long theoreticalArrivalNanos = System.nanoTime();
+    private long blockedUntilNanos = System.nanoTime();
+
+    public TwilioRateLimiter(int ratePerSecond, int burst) {
+        configure(ratePerSecond, burst);
+    }
+
+    public synchronized void configure(int ratePerSecond, int burst) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(ratePerSecond, 1);
+        this.toleranceNanos = intervalNanos * (Math.max(burst, 1) - 1);
+    }
+
+    /**
+     * Waits for a token. Returns {@code false} without taking one if that would mean waiting
+     * longer than {@code maxWaitMillis}.
+     */
+    public boolean acquire(long maxWaitMillis) throws InterruptedException {
+        long waitNanos = reserve(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        if (waitNanos < 0) {
+            return false;
+        }
+        if (waitNanos > 0) {
+            sleeper.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    void setSleeper(Sleeper sleeper) {
+        this.sleeper = sleeper;
+    }
+
+    // Stop handing out tokens for the given time, e.g. from a Retry-After header
+    public synchronized void backOff(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (until - blockedUntilNanos > 0) {
+            blockedUntilNanos = until;
+        }
+        // Resume at the steady rate instead of with a full burst
+        long resumeAt = blockedUntilNanos + toleranceNanos;
+        if (resumeAt - theoreticalArrivalNanos > 0) {
+            theoreticalArrivalNanos = resumeAt;
+        }
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    // Tokens that could be taken right now without waiting
+    public synchronized double getAvailableTokens() {
+        long now = System.nanoTime();
+        if (blockedUntilNanos - now > 0) {
+            return 0;
+        }
+        double tokens = (double) (now + toleranceNanos - theoreticalArrivalNanos) / intervalNanos + 1;
+        return Math.max(0, Math.min(burst, tokens));
+    }
+
+    // How long Retry-After still blocks requests, or 0
+    public synchronized long getBlockedMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(blockedUntilNanos - System.nanoTime()));
+    }
+
+    // Nanos to wait for the reserved token, or -1 if that is longer than maxWaitNanos
+    private synchronized long reserve(long now, long maxWaitNanos) {
+        long allowedAt = theoreticalArrivalNanos - toleranceNanos;
+        if (blockedUntilNanos - allowedAt > 0) {
+            allowedAt = blockedUntilNanos;
+        }
+        if (now - allowedAt > 0) {
+            allowedAt = now;
+        }
+
+        long waitNanos = allowedAt - now;
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        theoreticalArrivalNanos = Math.max(theoreticalArrivalNanos, allowedAt) + intervalNanos;
+        return waitNanos;
+    }
+
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+}
@@ -0,0 +1,14 @@
+package twilio;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Status, body and headers of a Twilio API response; header names are stored in lower case.
+ */
+public record TwilioResponse(int statusCode, String reasonPhrase, byte[] body, Map<String, String> headers) {
+
+    public String header(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,30 @@
+package twilio;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Sends OTPHandler's GET requests to the Twilio REST API. Implementations are shared by every
+ * fetch thread, so they must be thread-safe.
+ */
+public interface TwilioTransport {
+
+    enum Mode {
+        // Burp's own HTTP stack through api.http(), one HTTP/1.1 request at a time
+        MONTOYA,
+        // A long-lived java.net.http client with HTTP/2 multiplexing and connection reuse
+        JDK_HTTP2
+    }
+
+    /**
+     * Sends {@code GET pathAndQuery} to the origin of {@code baseUrl}. The path is already
+     * encoded and includes any base path.
+     */
+    TwilioResponse get(URI baseUrl, String pathAndQuery, String authorization) throws IOException, InterruptedException;
+
+    /**
+     * Releases pooled connections once the transport has been replaced.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,317 @@
+package utils;
+
+import burp.api.montoya.logging.Logging;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps Burp's logger off the scanner threads. Callers only check the level and put the message
+ * pattern and its arguments into a bounded lock-free ring buffer; one background thread formats
+ * them ({@code {}} placeholders, as in SLF4J) and writes them to Burp. A line identical to one
+ * written in the last {@link #REPEAT_WINDOW_MILLIS} is only counted, and written once the window
+ * ends as "(...repeated N times)". When the buffer is full, events are dropped and counted rather
+ * than blocking the caller.
+ */
+public class AsyncLogger {
+
+    public enum Level {
+        ERROR,
+        INFO,
+        DEBUG
+    }
+
+    private static final int CAPACITY = 1024;
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    public static final long REPEAT_WINDOW_MILLIS = 10_000;
+    // Distinct lines tracked for repeats; more than this flushes them all early
+    private static final int MAX_TRACKED_LINES = 512;
+
+    private final Logging sink;
+    private volatile Level level = Level.INFO;
+
+    // Bounded multi-producer, single-consumer ring: a slot is free for position p when its sequence is p,
+    // and holds the event for p when its sequence is p + 1
+    private final Event[] slots = new Event[CAPACITY];
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private long droppedReported;
+
+    // Drainer thread only
+    private final Map<String, Repeat> recentLines = new HashMap<>();
+    private long nextExpiry;
+
+    private final Thread drainer;
+    private volatile boolean running = true;
+
+    private record Event(Level level, String pattern, Object[] args) {
+    }
+
+    private static final class Repeat {
+        private final Level level;
+        private final long windowEnd;
+        private int count;
+
+        private Repeat(Level level, long windowEnd) {
+            this.level = level;
+            this.windowEnd = windowEnd;
+        }
+    }
+
+    public AsyncLogger(Logging sink) {
+        this.sink = sink;
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        drainer = new Thread(this::drainLoop, "TwilioOTP-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() <= this.level.ordinal();
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public void error(String pattern, Object arg) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, pattern, new Object[]{arg});
+        }
+    }
+
+    public void error(String pattern, Object arg1, Object arg2) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, pattern, new Object[]{arg1, arg2});
+        }
+    }
+
+    public void error(String pattern, Object... args) {
+        log(Level.ERROR, pattern, args);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public void info(String pattern, Object arg) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, pattern, new Object[]{arg});
+        }
+    }
+
+    public void info(String pattern, Object arg1, Object arg2) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, pattern, new Object[]{arg1, arg2});
+        }
+    }
+
+    public void info(String pattern, Object... args) {
+        log(Level.INFO, pattern, args);
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public void debug(String pattern, Object arg) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, pattern, new Object[]{arg});
+        }
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, pattern, new Object[]{arg1, arg2});
+        }
+    }
+
+    public void debug(String pattern, Object... args) {
+        log(Level.DEBUG, pattern, args);
+    }
+
+    // Events dropped because the buffer was full
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // Lines not written because they repeated within the window
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    /**
+     * Writes everything still buffered, including pending repeat counts, and stops the thread.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void log(Level eventLevel, String pattern, Object[] args) {
+        if (!isEnabled(eventLevel)) {
+            return;
+        }
+        Event event = new Event(eventLevel, pattern, args);
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & (CAPACITY - 1));
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = event;
+                    sequences.set(index, position + 1);
+                    return;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The drainer is a whole buffer behind
+                dropped.increment();
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            boolean stopping = !running;
+            int drained = 0;
+            Event event;
+            while ((event = poll()) != null) {
+                publish(event.level, format(event.pattern, event.args), System.currentTimeMillis());
+                drained++;
+            }
+            reportDropped();
+
+            long now = System.currentTimeMillis();
+            if (stopping) {
+                expireRepeats(now, true);
+                return;
+            }
+            if (now >= nextExpiry) {
+                expireRepeats(now, false);
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(this, POLL_NANOS);
+            }
+        }
+    }
+
+    private Event poll() {
+        int index = (int) (head & (CAPACITY - 1));
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        Event event = slots[index];
+        slots[index] = null;
+        sequences.set(index, head + CAPACITY);
+        head++;
+        return event;
+    }
+
+    private void publish(Level eventLevel, String line, long now) {
+        Repeat repeat = recentLines.get(line);
+        if (repeat != null && now < repeat.windowEnd) {
+            repeat.count++;
+            suppressed.increment();
+            return;
+        }
+        if (repeat != null) {
+            writeRepeats(line, repeat);
+        }
+
+        write(eventLevel, line);
+        if (recentLines.size() >= MAX_TRACKED_LINES) {
+            expireRepeats(now, true);
+        }
+        recentLines.put(line, new Repeat(eventLevel, now + REPEAT_WINDOW_MILLIS));
+        if (recentLines.size() == 1) {
+            nextExpiry = now + REPEAT_WINDOW_MILLIS;
+        }
+    }
+
+    private void expireRepeats(long now, boolean all) {
+        long earliest = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Repeat>> entries = recentLines.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Repeat> entry = entries.next();
+            Repeat repeat = entry.getValue();
+            if (all || now >= repeat.windowEnd) {
+                writeRepeats(entry.getKey(), repeat);
+                entries.remove();
+            } else {
+                earliest = Math.min(earliest, repeat.windowEnd);
+            }
+        }
+        nextExpiry = earliest;
+    }
+
+    private void writeRepeats(String line, Repeat repeat) {
+        if (repeat.count > 0) {
+            write(repeat.level, line + " (...repeated " + repeat.count + " times)");
+        }
+    }
+
+    private void reportDropped() {
+        long total = dropped.sum();
+        if (total > droppedReported) {
+            write(Level.ERROR, "Log buffer full: dropped " + (total - droppedReported) + " log event(s).");
+            droppedReported = total;
+        }
+    }
+
+    private void write(Level eventLevel, String line) {
+        try {
+            if (eventLevel == Level.ERROR) {
+                sink.logToError(line);
+            } else {
+                sink.logToOutput(line);
+            }
+        } catch (RuntimeException e) {
+            // Burp's logger is gone, e.g. while the extension unloads; nothing else to report to
+        }
+    }
+
+    // Replaces each {} with the next argument
+    static String format(String pattern, Object[] args) {
+        if (args == null || args.length == 0) {
+            return pattern;
+        }
+        StringBuilder line = new StringBuilder(pattern.length() + 32);
+        int argument = 0;
+        int from = 0;
+        int at;
+        while (argument < args.length && (at = pattern.indexOf("{}", from)) >= 0) {
+            line.append(pattern, from, at).append(args[argument++]);
+            from = at + 2;
+        }
+        return line.append(pattern, from, pattern.length()).toString();
+    }
+}
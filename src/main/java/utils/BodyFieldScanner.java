@@ -0,0 +1,140 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds and replaces a {@code "name" : "value"} pair directly in a request body's bytes.
+ * Matches exactly what {@link InjectionRule#getReplacementPattern()} matches, i.e. the first
+ * {@code "name"\s*:\s*"(.*?)"}, using a single forward scan without backtracking.
+ *
+ * Only ASCII parameter names are supported, since for those the byte and String views of the
+ * body agree; other names fall back to the regex.
+ */
+public class BodyFieldScanner {
+    private final byte[] quotedName;
+    private final byte[] replacementPrefix;
+
+    public BodyFieldScanner(String parameterName) {
+        if (!isSupported(parameterName)) {
+            throw new IllegalArgumentException("Parameter name must be non-empty ASCII: " + parameterName);
+        }
+        this.quotedName = ("\"" + parameterName + "\"").getBytes(StandardCharsets.US_ASCII);
+        this.replacementPrefix = ("\"" + parameterName + "\":\"").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static boolean isSupported(String parameterName) {
+        if (parameterName == null || parameterName.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < parameterName.length(); i++) {
+            if (parameterName.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first {@code "name" : "value"} pair in {@code body}, or {@code null} if there is none.
+     */
+    public Match find(byte[] body) {
+        int from = 0;
+        while (true) {
+            int start = indexOf(body, quotedName, from);
+            if (start < 0) {
+                return null;
+            }
+
+            int i = skipWhitespace(body, start + quotedName.length);
+            if (i < body.length && body[i] == ':') {
+                i = skipWhitespace(body, i + 1);
+                if (i < body.length && body[i] == '"') {
+                    int close = indexOf(body, (byte) '"', i + 1);
+                    // Without another quote no later candidate can close its value either
+                    return close < 0 ? null : new Match(start, close + 1);
+                }
+            }
+            from = start + 1;
+        }
+    }
+
+    /**
+     * Copies {@code body} with {@code match} replaced by {@code "name":"value"}. Only the prefix
+     * and suffix around the match are copied; the body is never decoded.
+     */
+    public byte[] replace(byte[] body, Match match, String value) {
+        byte[] valueBytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        int replacementLength = replacementPrefix.length + valueBytes.length + 1;
+        byte[] updated = new byte[body.length - (match.end() - match.start()) + replacementLength];
+
+        System.arraycopy(body, 0, updated, 0, match.start());
+        int offset = match.start();
+        System.arraycopy(replacementPrefix, 0, updated, offset, replacementPrefix.length);
+        offset += replacementPrefix.length;
+        System.arraycopy(valueBytes, 0, updated, offset, valueBytes.length);
+        offset += valueBytes.length;
+        updated[offset++] = '"';
+        System.arraycopy(body, match.end(), updated, offset, body.length - match.end());
+        return updated;
+    }
+
+    /**
+     * Returns the value of a matched pair, decoded as ISO-8859-1 like the rest of the body's bytes.
+     */
+    public String value(byte[] body, Match match) {
+        // The value cannot contain a quote, so its opening quote is the last one before the closing quote
+        int close = match.end() - 1;
+        int open = close - 1;
+        while (body[open] != '"') {
+            open--;
+        }
+        return new String(body, open + 1, close - open - 1, StandardCharsets.ISO_8859_1);
+    }
+
+    // Same set as the regex \s: space, \t, \n, \x0B, \f, \r
+    private static int skipWhitespace(byte[] body, int from) {
+        int i = from;
+        while (i < body.length) {
+            byte b = body[i];
+            if (b != ' ' && b != '\t' && b != '\n' && b != 0x0B && b != '\f' && b != '\r') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int indexOf(byte[] body, byte target, int from) {
+        for (int i = from; i < body.length; i++) {
+            if (body[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] body, byte[] target, int from) {
+        byte first = target[0];
+        int last = body.length - target.length;
+        for (int i = from; i <= last; i++) {
+            if (body[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < target.length && body[i + j] == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Byte range of a matched pair, from the opening quote of the name to just past the closing
+     * quote of the value.
+     */
+    public record Match(int start, int end) {
+    }
+}
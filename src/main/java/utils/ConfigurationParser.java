@@ -1,92 +1,256 @@
 package utils;
 
 import burp.api.montoya.MontoyaApi;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.prefs.Preferences;
-import java.util.regex.Pattern;
 
 public class ConfigurationParser {
     private static final String PREFERENCES_NODE = "TwilioOTPAuthenticate";
+    private static final String RULES_KEY = "injectionRules";
     private static final String RULE_TYPE_KEY = "ruleType";
     private static final String PARAMETER_NAME_KEY = "parameterName";
+    private static final String CONFIG_FILE_KEY = "configFile";
+    private static final long CONFIG_FILE_POLL_MILLIS = 2000;
 
-    private String parameterName;
-    private RuleType ruleType;
-    private Pattern replacementPattern;
+    // The whole configuration is one immutable snapshot, swapped in a single volatile write,
+    // so scanner threads never see a rule from one configuration with a pattern from another
+    private volatile RuleDispatchIndex dispatchIndex = RuleDispatchIndex.empty();
+
+    private final List<Consumer<List<InjectionRule>>> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService configFileWatcher;
+    private Path configFile;
+    private FileTime configFileModified;
 
     private final MontoyaApi api;
     private final Preferences preferences;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AsyncLogger log;
+
+    // Logs through the extension's shared logger, which the caller shuts down
+    public ConfigurationParser(MontoyaApi api, AsyncLogger log) {
+        this(api, Preferences.userRoot().node(PREFERENCES_NODE), log);
+    }
 
-    public ConfigurationParser(MontoyaApi api) {
+    /**
+     * Creates a parser backed by the given preferences node instead of the extension's own,
+     * so benchmarks and test harnesses do not overwrite the user's configuration.
+     */
+    public ConfigurationParser(MontoyaApi api, Preferences preferences, AsyncLogger log) {
         this.api = api;
-        this.preferences = Preferences.userRoot().node(PREFERENCES_NODE);
+        this.preferences = preferences;
+        this.log = Objects.requireNonNull(log, "log");
 
         loadFromPreferences();
+
+        String savedConfigFile = preferences.get(CONFIG_FILE_KEY, null);
+        if (savedConfigFile != null) {
+            watchConfigFile(savedConfigFile);
+        }
     }
 
     /**
-     * Loads the saved configuration from persistent storage.
+     * Loads the saved rules from persistent storage. A configuration saved before rules were
+     * scoped (a single RuleType and ParameterName) is loaded as one rule matching every request.
      */
     private void loadFromPreferences() {
-        String savedRuleType = preferences.get(RULE_TYPE_KEY, null);
-        String savedParameterName = preferences.get(PARAMETER_NAME_KEY, null);
-
-        if (savedRuleType == null || savedParameterName == null || savedParameterName.isEmpty()) {
-            api.logging().logToError("Configuration not found in preferences.");
-            return;
-        }
+        String savedRules = preferences.get(RULES_KEY, null);
 
         try {
-            ruleType = RuleType.valueOf(savedRuleType.toUpperCase());
-            parameterName = savedParameterName.trim();
+            List<InjectionRule> rules = new ArrayList<>();
+            if (savedRules != null) {
+                rules = parseRules(savedRules);
+            } else {
+                String savedRuleType = preferences.get(RULE_TYPE_KEY, null);
+                String savedParameterName = preferences.get(PARAMETER_NAME_KEY, null);
+                if (savedRuleType != null && savedParameterName != null && !savedParameterName.isEmpty()) {
+                    rules.add(InjectionRule.global(RuleType.valueOf(savedRuleType.toUpperCase()), savedParameterName));
+                }
+            }
 
-            api.logging().logToOutput("Loaded configuration from Preferences:");
-            api.logging().logToOutput("Configured RuleType: " + ruleType);
-            api.logging().logToOutput("Configured ParameterName: " + parameterName);
+            if (rules.isEmpty()) {
+                log.error("Configuration not found in preferences.");
+            }
 
-            initializeReplacementPattern();
-        } catch (IllegalArgumentException e) {
-            api.logging().logToError("Invalid configuration format in preferences: " + e.getMessage());
+            dispatchIndex = RuleDispatchIndex.compile(rules);
+
+            log.info("Loaded configuration from Preferences:");
+            for (InjectionRule rule : rules) {
+                log.info("Configured rule: {}", rule);
+            }
+            for (Consumer<List<InjectionRule>> listener : listeners) {
+                listener.accept(dispatchIndex.getRules());
+            }
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            log.error("Invalid configuration format in preferences: {}", e.getMessage());
         }
     }
 
     /**
-     * Saves the configuration to persistent storage.
+     * Saves a single rule that applies to every request, replacing any configured rules.
      */
     public void saveToPreferences(String ruleType, String parameterName) {
-        preferences.put(RULE_TYPE_KEY, ruleType.toUpperCase());
-        preferences.put(PARAMETER_NAME_KEY, parameterName.trim());
+        saveRules(List.of(InjectionRule.global(RuleType.valueOf(ruleType.toUpperCase()), parameterName)));
+    }
+
+    /**
+     * Saves the rules to persistent storage as one JSON blob and recompiles the dispatch index.
+     */
+    public synchronized void saveRules(List<InjectionRule> rules) {
+        List<Map<String, String>> maps = new ArrayList<>();
+        for (InjectionRule rule : rules) {
+            maps.add(rule.toMap());
+        }
+
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(maps);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialise rules: " + e.getMessage(), e);
+        }
+        if (json.length() > Preferences.MAX_VALUE_LENGTH) {
+            throw new IllegalArgumentException("Rule set is too large to persist (" + json.length() + " characters).");
+        }
 
-        api.logging().logToOutput("Configuration saved to Preferences:");
-        api.logging().logToOutput("Saved RuleType: " + ruleType);
-        api.logging().logToOutput("Saved ParameterName: " + parameterName);
+        preferences.put(RULES_KEY, json);
+        preferences.remove(RULE_TYPE_KEY);
+        preferences.remove(PARAMETER_NAME_KEY);
+
+        log.info("Configuration saved to Preferences: {} rule(s).", rules.size());
 
         loadFromPreferences();
     }
 
     /**
-     * Initializes the replacement pattern if the RuleType is BODY_REGEX.
+     * Parses and validates a JSON array of rules, as saved by {@link #saveRules}. Every rule is
+     * built before anything is returned, so a bad entry rejects the whole set.
+     */
+    public List<InjectionRule> parseRules(String json) throws JsonProcessingException {
+        List<Map<String, String>> maps = objectMapper.readValue(json, new TypeReference<List<Map<String, String>>>() { });
+        if (maps == null) {
+            throw new IllegalArgumentException("Rules must be a JSON array, not null.");
+        }
+        List<InjectionRule> rules = new ArrayList<>();
+        for (Map<String, String> map : maps) {
+            if (map == null) {
+                throw new IllegalArgumentException("Rule " + (rules.size() + 1) + " is null.");
+            }
+            rules.add(InjectionRule.fromMap(map));
+        }
+        return rules;
+    }
+
+    /**
+     * Reloads the rules whenever the given file changes, so they can be edited mid-scan without
+     * reloading the extension. The file holds the same JSON array {@link #saveRules} stores; an
+     * invalid file is logged and the current rules are kept. A blank path stops watching.
+     */
+    public synchronized void watchConfigFile(String path) {
+        if (configFileWatcher != null) {
+            configFileWatcher.shutdownNow();
+            configFileWatcher = null;
+        }
+
+        if (path == null || path.trim().isEmpty()) {
+            configFile = null;
+            preferences.remove(CONFIG_FILE_KEY);
+            log.info("Stopped watching the configuration file.");
+            return;
+        }
+
+        configFile = Path.of(path.trim());
+        configFileModified = null;
+        preferences.put(CONFIG_FILE_KEY, configFile.toString());
+
+        configFileWatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "TwilioOTP-config-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        configFileWatcher.scheduleWithFixedDelay(this::reloadConfigFileIfChanged, 0, CONFIG_FILE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("Watching configuration file: {}", configFile);
+    }
+
+    public synchronized String getConfigFile() {
+        return configFile == null ? null : configFile.toString();
+    }
+
+    /**
+     * Registers a callback run, on the thread that changed them, whenever the rules are replaced.
      */
-    private void initializeReplacementPattern() {
-        if (ruleType == RuleType.BODY_REGEX && parameterName != null && !parameterName.isEmpty()) {
-            replacementPattern = Pattern.compile(
-                    "\"" + Pattern.quote(parameterName) + "\"\\s*:\\s*\"(.*?)\"",
-                    Pattern.DOTALL | Pattern.MULTILINE
-            );
-            api.logging().logToOutput("Initialized replacement pattern: " + replacementPattern.pattern());
+    public void addRulesListener(Consumer<List<InjectionRule>> listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void shutdown() {
+        if (configFileWatcher != null) {
+            configFileWatcher.shutdownNow();
+            configFileWatcher = null;
         }
     }
 
-    public RuleType getRuleType() {
-        return ruleType;
+    private void reloadConfigFileIfChanged() {
+        Path file;
+        synchronized (this) {
+            file = configFile;
+        }
+        if (file == null) {
+            return;
+        }
+
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            if (modified.equals(configFileModified)) {
+                return;
+            }
+            configFileModified = modified;
+
+            List<InjectionRule> rules = parseRules(Files.readString(file, StandardCharsets.UTF_8));
+            if (sameRules(rules, dispatchIndex.getRules())) {
+                return;
+            }
+            log.info("Configuration file changed, reloading {} rule(s) from {}", rules.size(), file);
+            saveRules(rules);
+        } catch (IOException | RuntimeException e) {
+            // Anything thrown out of here would cancel the watcher for good
+            log.error("Could not reload configuration file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static boolean sameRules(List<InjectionRule> a, List<InjectionRule> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!Objects.equals(a.get(i).toMap(), b.get(i).toMap())) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public String getParameterName() {
-        return parameterName;
+    public List<InjectionRule> getRules() {
+        return dispatchIndex.getRules();
     }
 
-    public Pattern getReplacementPattern() {
-        return replacementPattern;
+    public RuleDispatchIndex getDispatchIndex() {
+        return dispatchIndex;
     }
 
 }
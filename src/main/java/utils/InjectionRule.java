@@ -0,0 +1,154 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Where to inject the OTP for a given scope: requests to {@code host} whose path starts with
+ * {@code pathPrefix} (segment-wise) and whose method is {@code method}. Host and method may be
+ * {@link #ANY}. BODY_REGEX rules compile their pattern and byte scanner, and BODY_FIELD rules
+ * their selector, once, on construction.
+ */
+public final class InjectionRule {
+    public static final String ANY = "*";
+
+    private final String host;
+    private final String pathPrefix;
+    private final String method;
+    private final RuleType ruleType;
+    private final String parameterName;
+    private final Pattern replacementPattern;
+    private final BodyFieldScanner bodyFieldScanner;
+    private final StructuredBodyRewriter bodyRewriter;
+
+    public InjectionRule(String host, String pathPrefix, String method, RuleType ruleType, String parameterName) {
+        if (ruleType == null || parameterName == null || parameterName.trim().isEmpty()) {
+            throw new IllegalArgumentException("RuleType and ParameterName are required.");
+        }
+        this.host = normalizeHost(host);
+        this.pathPrefix = normalizePathPrefix(pathPrefix);
+        this.method = normalizeMethod(method);
+        this.ruleType = ruleType;
+        this.parameterName = parameterName.trim();
+
+        if (ruleType == RuleType.BODY_REGEX) {
+            this.replacementPattern = Pattern.compile(
+                    "\"" + Pattern.quote(this.parameterName) + "\"\\s*:\\s*\"(.*?)\"",
+                    Pattern.DOTALL | Pattern.MULTILINE
+            );
+            this.bodyFieldScanner = BodyFieldScanner.isSupported(this.parameterName) ? new BodyFieldScanner(this.parameterName) : null;
+        } else {
+            this.replacementPattern = null;
+            this.bodyFieldScanner = null;
+        }
+        this.bodyRewriter = ruleType == RuleType.BODY_FIELD ? new StructuredBodyRewriter(this.parameterName) : null;
+    }
+
+    /**
+     * A rule that applies to every request, which is what the single-rule configuration meant.
+     */
+    public static InjectionRule global(RuleType ruleType, String parameterName) {
+        return new InjectionRule(ANY, "/", ANY, ruleType, parameterName);
+    }
+
+    public static InjectionRule fromMap(Map<String, String> map) {
+        String ruleType = map.get("ruleType");
+        if (ruleType == null) {
+            throw new IllegalArgumentException("Rule is missing ruleType.");
+        }
+        return new InjectionRule(
+                map.getOrDefault("host", ANY),
+                map.getOrDefault("pathPrefix", "/"),
+                map.getOrDefault("method", ANY),
+                RuleType.valueOf(ruleType.toUpperCase(Locale.ROOT)),
+                map.get("parameterName"));
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("host", host);
+        map.put("pathPrefix", pathPrefix);
+        map.put("method", method);
+        map.put("ruleType", ruleType.name());
+        map.put("parameterName", parameterName);
+        return map;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPathPrefix() {
+        return pathPrefix;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public RuleType getRuleType() {
+        return ruleType;
+    }
+
+    public String getParameterName() {
+        return parameterName;
+    }
+
+    /**
+     * Returns the BODY_REGEX replacement pattern, or {@code null} for other rule types.
+     */
+    public Pattern getReplacementPattern() {
+        return replacementPattern;
+    }
+
+    /**
+     * Returns the byte-level equivalent of the replacement pattern, or {@code null} if this is not
+     * a BODY_REGEX rule or its parameter name is not ASCII.
+     */
+    public BodyFieldScanner getBodyFieldScanner() {
+        return bodyFieldScanner;
+    }
+
+    /**
+     * Returns the compiled selector of a BODY_FIELD rule, or {@code null} for other rule types.
+     */
+    public StructuredBodyRewriter getBodyRewriter() {
+        return bodyRewriter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s  @  %s %s%s", ruleType, parameterName, method, host, pathPrefix);
+    }
+
+    private static String normalizeHost(String host) {
+        if (host == null || host.trim().isEmpty()) {
+            return ANY;
+        }
+        return host.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeMethod(String method) {
+        if (method == null || method.trim().isEmpty()) {
+            return ANY;
+        }
+        return method.trim().toUpperCase(Locale.ROOT);
+    }
+
+    // Always starts with '/', never ends with one unless it is the root
+    private static String normalizePathPrefix(String pathPrefix) {
+        if (pathPrefix == null || pathPrefix.trim().isEmpty()) {
+            return "/";
+        }
+        String normalized = pathPrefix.trim();
+        if (!normalized.startsWith("/")) {
+            normalized = "/" + normalized;
+        }
+        while (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+}
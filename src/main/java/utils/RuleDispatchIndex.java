@@ -0,0 +1,200 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup from a request's host, path and method to the injection rules that apply.
+ * Compiled once per configuration into a host map of path-segment tries, where every trie node
+ * already holds the ordered rule list for each method, so a lookup is a hash probe plus one
+ * step per path segment and returns a shared list. Segments are looked up by their bounds in the
+ * path rather than as substrings, so a lookup allocates nothing unless the host has to be
+ * lower-cased or the method upper-cased.
+ */
+public final class RuleDispatchIndex {
+    private static final RuleDispatchIndex EMPTY = new RuleDispatchIndex(List.of(), Map.of(), new PathNode());
+
+    private final List<InjectionRule> rules;
+    private final Map<String, PathNode> byHost;
+    private final PathNode anyHost;
+
+    private RuleDispatchIndex(List<InjectionRule> rules, Map<String, PathNode> byHost, PathNode anyHost) {
+        this.rules = rules;
+        this.byHost = byHost;
+        this.anyHost = anyHost;
+    }
+
+    public static RuleDispatchIndex empty() {
+        return EMPTY;
+    }
+
+    public static RuleDispatchIndex compile(List<InjectionRule> rules) {
+        if (rules.isEmpty()) {
+            return EMPTY;
+        }
+        List<InjectionRule> ordered = List.copyOf(rules);
+        Map<InjectionRule, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            positions.put(ordered.get(i), i);
+        }
+
+        // Host-specific tries also carry the wildcard-host rules, so one probe finds everything
+        Map<String, PathNode> byHost = new HashMap<>();
+        for (InjectionRule rule : ordered) {
+            if (!InjectionRule.ANY.equals(rule.getHost())) {
+                byHost.computeIfAbsent(rule.getHost(), host -> buildTrie(ordered, host, positions));
+            }
+        }
+        return new RuleDispatchIndex(ordered, Map.copyOf(byHost), buildTrie(ordered, InjectionRule.ANY, positions));
+    }
+
+    /**
+     * Returns the rules matching the request, in configuration order.
+     */
+    public List<InjectionRule> match(String host, String path, String method) {
+        PathNode node = byHost.isEmpty() || host == null ? anyHost : byHost.getOrDefault(host.toLowerCase(Locale.ROOT), anyHost);
+
+        int end = path == null ? 0 : path.indexOf('?');
+        if (end < 0) {
+            end = path.length();
+        }
+        int start = 0;
+        while (start < end && node.hasChildren()) {
+            int slash = path.indexOf('/', start);
+            int segmentEnd = (slash < 0 || slash > end) ? end : slash;
+            if (segmentEnd > start) {
+                PathNode child = node.child(path, start, segmentEnd);
+                if (child == null) {
+                    break;
+                }
+                node = child;
+            }
+            start = segmentEnd + 1;
+        }
+        return node.rulesFor(method);
+    }
+
+    public List<InjectionRule> getRules() {
+        return rules;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    private static PathNode buildTrie(List<InjectionRule> rules, String host, Map<InjectionRule, Integer> positions) {
+        PathNode root = new PathNode();
+        for (InjectionRule rule : rules) {
+            if (InjectionRule.ANY.equals(rule.getHost()) || rule.getHost().equals(host)) {
+                PathNode node = root;
+                for (String segment : rule.getPathPrefix().split("/")) {
+                    if (!segment.isEmpty()) {
+                        node = node.children.computeIfAbsent(segment, s -> new PathNode());
+                    }
+                }
+                node.own.add(rule);
+            }
+        }
+        root.freeze(List.of(), positions);
+        return root;
+    }
+
+    private static final class PathNode {
+        private static final String[] NO_SEGMENTS = new String[0];
+        private static final PathNode[] NO_NODES = new PathNode[0];
+
+        private final Map<String, PathNode> children = new HashMap<>();
+        private final List<InjectionRule> own = new ArrayList<>();
+        private Map<String, List<InjectionRule>> byMethod = Map.of();
+        private List<InjectionRule> anyMethod = List.of();
+
+        // The children as an open-addressing table keyed by String.hashCode(), which can be
+        // computed over a range of the path without copying it out
+        private String[] segments = NO_SEGMENTS;
+        private PathNode[] nodes = NO_NODES;
+
+        private boolean hasChildren() {
+            return segments.length > 0;
+        }
+
+        // The child for path[start, end), or null
+        private PathNode child(String path, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int length = end - start;
+            int mask = segments.length - 1;
+            for (int slot = hash & mask; segments[slot] != null; slot = (slot + 1) & mask) {
+                String segment = segments[slot];
+                if (segment.length() == length && path.regionMatches(start, segment, 0, length)) {
+                    return nodes[slot];
+                }
+            }
+            return null;
+        }
+
+        private List<InjectionRule> rulesFor(String method) {
+            if (byMethod.isEmpty() || method == null) {
+                return anyMethod;
+            }
+            return byMethod.getOrDefault(method.toUpperCase(Locale.ROOT), anyMethod);
+        }
+
+        // Folds the ancestors' rules into this node and splits them per method
+        private void freeze(List<InjectionRule> inherited, Map<InjectionRule, Integer> positions) {
+            List<InjectionRule> cumulative = new ArrayList<>(inherited);
+            cumulative.addAll(own);
+            cumulative.sort(Comparator.comparing(positions::get));
+
+            Set<String> methods = new LinkedHashSet<>();
+            List<InjectionRule> forAnyMethod = new ArrayList<>();
+            for (InjectionRule rule : cumulative) {
+                if (InjectionRule.ANY.equals(rule.getMethod())) {
+                    forAnyMethod.add(rule);
+                } else {
+                    methods.add(rule.getMethod());
+                }
+            }
+
+            Map<String, List<InjectionRule>> perMethod = new HashMap<>();
+            for (String method : methods) {
+                List<InjectionRule> forMethod = new ArrayList<>();
+                for (InjectionRule rule : cumulative) {
+                    if (InjectionRule.ANY.equals(rule.getMethod()) || rule.getMethod().equals(method)) {
+                        forMethod.add(rule);
+                    }
+                }
+                perMethod.put(method, List.copyOf(forMethod));
+            }
+            this.byMethod = Map.copyOf(perMethod);
+            this.anyMethod = List.copyOf(forAnyMethod);
+
+            if (!children.isEmpty()) {
+                // At most half full, so every probe ends at an empty slot
+                int capacity = Integer.highestOneBit(children.size() * 2 - 1) << 1;
+                segments = new String[capacity];
+                nodes = new PathNode[capacity];
+                for (Map.Entry<String, PathNode> child : children.entrySet()) {
+                    int slot = child.getKey().hashCode() & (capacity - 1);
+                    while (segments[slot] != null) {
+                        slot = (slot + 1) & (capacity - 1);
+                    }
+                    segments[slot] = child.getKey();
+                    nodes[slot] = child.getValue();
+                }
+            }
+
+            for (PathNode child : children.values()) {
+                child.freeze(cumulative, positions);
+            }
+        }
+    }
+}
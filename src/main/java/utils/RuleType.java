@@ -7,7 +7,8 @@ public enum RuleType
     URL,
     COOKIE,
     BODY_PARAM,
-    BODY_REGEX;
+    BODY_REGEX,
+    BODY_FIELD;
 
     public HttpParameterType toParameterType() {
         return switch (this) {
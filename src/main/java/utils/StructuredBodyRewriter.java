@@ -0,0 +1,923 @@
+package utils;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds and replaces one field in a request body, picking the format from the Content-Type
+ * (or, without one, from the body's first character): JSON, form-urlencoded, multipart/form-data
+ * or XML. Each format is handled by a single forward scan over the body's bytes that keeps only
+ * the current path (no parse tree), and a replacement copies the bytes around the value.
+ *
+ * <p>Selectors, compiled once per rule:
+ * <ul>
+ *     <li>{@code $.auth.mfa.code}, {@code $.items[0].code}, {@code $.items[*].code}: a path from
+ *     the root, for JSON objects/arrays and XML elements;</li>
+ *     <li>{@code $..code} or {@code //code}: the path may start at any depth;</li>
+ *     <li>{@code /auth/mfa/code}, {@code /auth/mfa/@code}, {@code $.auth.@code}: XML paths, the
+ *     last of which selects an attribute;</li>
+ *     <li>a bare name such as {@code code}: that field at any depth, or the form field or
+ *     multipart part of that name.</li>
+ * </ul>
+ * Form fields and multipart parts are matched on the selector's name when it has a single
+ * segment. JSON keys and XML names are compared as raw bytes, so keys written with escapes and
+ * XML namespace prefixes (other than being ignored) are not resolved.
+ */
+public class StructuredBodyRewriter {
+
+    public enum Format {
+        JSON,
+        FORM,
+        MULTIPART,
+        XML
+    }
+
+    private static final int NAME = -1;
+    private static final int ANY_INDEX = -2;
+
+    private final String selector;
+    private final Segment[] segments;
+    private final boolean anywhere;
+    private final boolean attribute;
+    private final byte[] formName;
+    private final byte[] partName;
+
+    public StructuredBodyRewriter(String selector) {
+        if (selector == null || selector.trim().isEmpty()) {
+            throw new IllegalArgumentException("Body field selector is required.");
+        }
+        this.selector = selector.trim();
+
+        List<Segment> parsed = new ArrayList<>();
+        String path = this.selector;
+        boolean fromAnyDepth;
+        if (path.startsWith("$..")) {
+            fromAnyDepth = true;
+            parseDotPath(path.substring(3), parsed);
+        } else if (path.startsWith("$")) {
+            fromAnyDepth = false;
+            String rest = path.substring(1);
+            parseDotPath(rest.startsWith(".") ? rest.substring(1) : rest, parsed);
+        } else if (path.startsWith("//")) {
+            fromAnyDepth = true;
+            parseSlashPath(path.substring(2), parsed);
+        } else if (path.startsWith("/")) {
+            fromAnyDepth = false;
+            parseSlashPath(path.substring(1), parsed);
+        } else {
+            fromAnyDepth = true;
+            parsed.add(Segment.name(path));
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("Body field selector selects no field: " + selector);
+        }
+        for (int i = 0; i < parsed.size() - 1; i++) {
+            if (parsed.get(i).attribute) {
+                throw new IllegalArgumentException("Only the last segment of a selector can be an attribute: " + selector);
+            }
+        }
+
+        this.segments = parsed.toArray(new Segment[0]);
+        this.anywhere = fromAnyDepth;
+        this.attribute = segments[segments.length - 1].attribute;
+
+        Segment single = segments.length == 1 && segments[0].index == NAME && segments[0].nameBytes != null && !attribute ? segments[0] : null;
+        this.formName = single == null ? null : URLEncoder.encode(single.name, StandardCharsets.UTF_8).getBytes(StandardCharsets.US_ASCII);
+        this.partName = single == null ? null : single.nameBytes;
+    }
+
+    public String getSelector() {
+        return selector;
+    }
+
+    /**
+     * The body format for a Content-Type header value, or sniffed from the body without one.
+     * Returns {@code null} for anything else.
+     */
+    public static Format formatOf(String contentType, byte[] body) {
+        if (contentType != null && !contentType.isEmpty()) {
+            String lower = contentType.toLowerCase(Locale.ROOT);
+            if (lower.contains("multipart/form-data")) {
+                return Format.MULTIPART;
+            }
+            if (lower.contains("x-www-form-urlencoded")) {
+                return Format.FORM;
+            }
+            if (lower.contains("json")) {
+                return Format.JSON;
+            }
+            if (lower.contains("xml")) {
+                return Format.XML;
+            }
+        }
+        int first = skipWhitespace(body, 0);
+        if (first < body.length) {
+            if (body[first] == '{' || body[first] == '[') {
+                return Format.JSON;
+            }
+            if (body[first] == '<') {
+                return Format.XML;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the selected field's value range in {@code body}, or {@code null} if the body has no
+     * such field or is in a format this selector cannot address.
+     */
+    public Match find(byte[] body, String contentType) {
+        Format format = formatOf(contentType, body);
+        if (format == null) {
+            return null;
+        }
+        return switch (format) {
+            case JSON -> attribute ? null : findJson(body);
+            case FORM -> formName == null ? null : findForm(body);
+            case MULTIPART -> partName == null ? null : findPart(body, boundaryOf(contentType));
+            case XML -> findXml(body);
+        };
+    }
+
+    /**
+     * Copies {@code body} with the matched value replaced by {@code value}, encoded for the
+     * body's format. A JSON number stays a number if the value is one.
+     */
+    public byte[] replace(byte[] body, Match match, String value) {
+        byte[] replacement = switch (match.format()) {
+            case JSON -> match.bare() && isJsonNumber(value)
+                    ? value.getBytes(StandardCharsets.US_ASCII)
+                    : jsonString(value);
+            case FORM -> URLEncoder.encode(value, StandardCharsets.UTF_8).getBytes(StandardCharsets.US_ASCII);
+            case MULTIPART -> value.getBytes(StandardCharsets.UTF_8);
+            case XML -> xmlEscape(value).getBytes(StandardCharsets.UTF_8);
+        };
+
+        byte[] updated = new byte[body.length - (match.end() - match.start()) + replacement.length];
+        System.arraycopy(body, 0, updated, 0, match.start());
+        System.arraycopy(replacement, 0, updated, match.start(), replacement.length);
+        System.arraycopy(body, match.end(), updated, match.start() + replacement.length, body.length - match.end());
+        return updated;
+    }
+
+    /**
+     * Returns a matched value, decoded as ISO-8859-1 like the rest of the body's bytes, with the
+     * format's encoding undone: JSON strings lose their quotes and escapes, form values are
+     * URL-decoded as UTF-8 (the encoding {@link #replace} writes), and XML values have their
+     * character references and CDATA markers resolved. Malformed escapes are kept as written.
+     */
+    public String value(byte[] body, Match match) {
+        int start = match.start();
+        int end = match.end();
+        if (match.format() == Format.JSON && !match.bare()) {
+            start++;
+            end--;
+        }
+        String raw = new String(body, start, end - start, StandardCharsets.ISO_8859_1);
+        return switch (match.format()) {
+            case JSON -> match.bare() ? raw : unescapeJson(raw);
+            case FORM -> formDecode(body, start, end);
+            case MULTIPART -> raw;
+            case XML -> unescapeXml(raw);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return selector;
+    }
+
+    // JSON: one pass over the tokens, keeping the key or index of each open container
+    private Match findJson(byte[] body) {
+        int length = body.length;
+        PathStack stack = new PathStack();
+        int i = skipWhitespace(body, 0);
+
+        while (i < length) {
+            // i is at the start of a value
+            byte c = body[i];
+            boolean selected = stack.depth > 0 && jsonPathMatches(body, stack);
+            if (c == '{' || c == '[') {
+                boolean array = c == '[';
+                stack.push(array);
+                i = skipWhitespace(body, i + 1);
+                if (i >= length) {
+                    return null;
+                }
+                if (body[i] != (array ? ']' : '}')) {
+                    if (!array) {
+                        i = readKey(body, i, stack);
+                        if (i < 0) {
+                            return null;
+                        }
+                    }
+                    continue;
+                }
+                stack.depth--;
+                i++;
+            } else if (c == '"') {
+                int close = stringEnd(body, i);
+                if (close < 0) {
+                    return null;
+                }
+                if (selected) {
+                    return new Match(i, close + 1, Format.JSON, false);
+                }
+                i = close + 1;
+            } else {
+                int end = literalEnd(body, i);
+                if (end == i) {
+                    return null;
+                }
+                if (selected) {
+                    return new Match(i, end, Format.JSON, true);
+                }
+                i = end;
+            }
+
+            // After a value: close finished containers, then move to the next member
+            while (true) {
+                if (stack.depth == 0) {
+                    return null;
+                }
+                i = skipWhitespace(body, i);
+                if (i >= length) {
+                    return null;
+                }
+                int top = stack.depth - 1;
+                c = body[i];
+                if (c == ',') {
+                    i = skipWhitespace(body, i + 1);
+                    if (stack.array[top]) {
+                        stack.index[top]++;
+                    } else {
+                        i = readKey(body, i, stack);
+                        if (i < 0) {
+                            return null;
+                        }
+                    }
+                    break;
+                }
+                if (c != (stack.array[top] ? ']' : '}')) {
+                    return null;
+                }
+                stack.depth--;
+                i++;
+            }
+        }
+        return null;
+    }
+
+    // Reads "key" : and returns the position of the member's value, or -1 if malformed
+    private static int readKey(byte[] body, int i, PathStack stack) {
+        if (i >= body.length || body[i] != '"') {
+            return -1;
+        }
+        int close = stringEnd(body, i);
+        if (close < 0) {
+            return -1;
+        }
+        int top = stack.depth - 1;
+        stack.nameStart[top] = i + 1;
+        stack.nameEnd[top] = close;
+        int colon = skipWhitespace(body, close + 1);
+        if (colon >= body.length || body[colon] != ':') {
+            return -1;
+        }
+        return skipWhitespace(body, colon + 1);
+    }
+
+    private boolean jsonPathMatches(byte[] body, PathStack stack) {
+        int depth = stack.depth;
+        int count = segments.length;
+        if (anywhere ? depth < count : depth != count) {
+            return false;
+        }
+        // Checked from the innermost level, where a mismatch is most likely
+        for (int k = count - 1, level = depth - 1; k >= 0; k--, level--) {
+            Segment segment = segments[k];
+            boolean matches = stack.array[level]
+                    ? segment.index == ANY_INDEX || segment.index == stack.index[level]
+                    : segment.index == NAME && segment.matchesName(body, stack.nameStart[level], stack.nameEnd[level]);
+            if (!matches) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Form-urlencoded: the first name=value pair whose encoded name is the selector's
+    private Match findForm(byte[] body) {
+        int length = body.length;
+        int start = 0;
+        while (start <= length) {
+            int end = start;
+            while (end < length && body[end] != '&') {
+                end++;
+            }
+            int equals = start + formName.length;
+            if (equals < end && body[equals] == '=' && regionEquals(body, start, formName)) {
+                return new Match(equals + 1, end, Format.FORM, false);
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    // Multipart: the content of the first part whose Content-Disposition name is the selector's
+    private Match findPart(byte[] body, byte[] boundary) {
+        if (boundary == null) {
+            return null;
+        }
+        byte[] delimiter = concat("--".getBytes(StandardCharsets.US_ASCII), boundary);
+        byte[] nextDelimiter = concat("\r\n--".getBytes(StandardCharsets.US_ASCII), boundary);
+
+        int at = indexOf(body, delimiter, 0);
+        while (at >= 0) {
+            int afterDelimiter = at + delimiter.length;
+            if (afterDelimiter + 1 < body.length && body[afterDelimiter] == '-' && body[afterDelimiter + 1] == '-') {
+                return null;
+            }
+            int headersEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), afterDelimiter);
+            if (headersEnd < 0) {
+                return null;
+            }
+            int contentStart = headersEnd + 4;
+            int contentEnd = indexOf(body, nextDelimiter, contentStart);
+            if (contentEnd < 0) {
+                return null;
+            }
+            if (partNameMatches(body, afterDelimiter, headersEnd)) {
+                return new Match(contentStart, contentEnd, Format.MULTIPART, false);
+            }
+            at = contentEnd + 2;
+        }
+        return null;
+    }
+
+    // Whether the part headers in [from, to) carry name="<selector>", not counting filename=
+    private boolean partNameMatches(byte[] body, int from, int to) {
+        byte[] key = "name=\"".getBytes(StandardCharsets.US_ASCII);
+        for (int at = indexOf(body, key, from); at >= 0 && at < to; at = indexOf(body, key, at + 1)) {
+            byte before = body[at - 1];
+            if (before != ';' && before != ' ' && before != '\t') {
+                continue;
+            }
+            int valueStart = at + key.length;
+            int valueEnd = valueStart + partName.length;
+            return valueEnd < to && body[valueEnd] == '"' && regionEquals(body, valueStart, partName);
+        }
+        return false;
+    }
+
+    // XML: one pass over the tags, keeping the names of the open elements
+    private Match findXml(byte[] body) {
+        int length = body.length;
+        PathStack stack = new PathStack();
+        int elementSegments = attribute ? segments.length - 1 : segments.length;
+
+        int i = 0;
+        while ((i = indexOf(body, (byte) '<', i)) >= 0) {
+            if (startsWith(body, i, "<?")) {
+                i = skipPast(body, i, "?>");
+            } else if (startsWith(body, i, "<!--")) {
+                i = skipPast(body, i, "-->");
+            } else if (startsWith(body, i, "<![CDATA[")) {
+                i = skipPast(body, i, "]]>");
+            } else if (startsWith(body, i, "<!")) {
+                i = skipPast(body, i, ">");
+            } else if (startsWith(body, i, "</")) {
+                if (stack.depth > 0) {
+                    stack.depth--;
+                }
+                i = skipPast(body, i, ">");
+            } else {
+                int nameStart = i + 1;
+                int nameEnd = nameStart;
+                while (nameEnd < length && !isXmlNameEnd(body[nameEnd])) {
+                    nameEnd++;
+                }
+                stack.push(false);
+                stack.nameStart[stack.depth - 1] = localNameStart(body, nameStart, nameEnd);
+                stack.nameEnd[stack.depth - 1] = nameEnd;
+                boolean elementSelected = xmlPathMatches(body, stack, elementSegments);
+
+                // Attributes, up to the end of the start tag
+                int j = nameEnd;
+                boolean selfClosing = false;
+                while (true) {
+                    j = skipWhitespace(body, j);
+                    if (j >= length) {
+                        return null;
+                    }
+                    if (body[j] == '>') {
+                        break;
+                    }
+                    if (body[j] == '/' && j + 1 < length && body[j + 1] == '>') {
+                        selfClosing = true;
+                        j++;
+                        break;
+                    }
+                    int attributeStart = j;
+                    while (j < length && body[j] != '=' && !isWhitespace(body[j]) && body[j] != '>') {
+                        j++;
+                    }
+                    int attributeEnd = j;
+                    j = skipWhitespace(body, j);
+                    if (j >= length || body[j] != '=') {
+                        continue;
+                    }
+                    j = skipWhitespace(body, j + 1);
+                    if (j >= length || (body[j] != '"' && body[j] != '\'')) {
+                        return null;
+                    }
+                    byte quote = body[j];
+                    int valueEnd = indexOf(body, quote, j + 1);
+                    if (valueEnd < 0) {
+                        return null;
+                    }
+                    if (attribute && elementSelected
+                            && segments[segments.length - 1].matchesName(body, localNameStart(body, attributeStart, attributeEnd), attributeEnd)) {
+                        return new Match(j + 1, valueEnd, Format.XML, false);
+                    }
+                    j = valueEnd + 1;
+                }
+
+                if (selfClosing) {
+                    stack.depth--;
+                } else if (!attribute && elementSelected) {
+                    Match text = xmlText(body, j + 1);
+                    if (text != null) {
+                        return text;
+                    }
+                }
+                i = j + 1;
+            }
+            if (i < 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // The text of a leaf element starting at contentStart, including a CDATA section; null if the element has children
+    private static Match xmlText(byte[] body, int contentStart) {
+        int next = indexOf(body, (byte) '<', contentStart);
+        if (next >= 0 && startsWith(body, next, "<![CDATA[")) {
+            next = skipPast(body, next, "]]>");
+            if (next < 0) {
+                return null;
+            }
+            int close = indexOf(body, (byte) '<', next);
+            return close >= 0 && startsWith(body, close, "</") ? new Match(contentStart, close, Format.XML, false) : null;
+        }
+        return next >= 0 && startsWith(body, next, "</") ? new Match(contentStart, next, Format.XML, false) : null;
+    }
+
+    private boolean xmlPathMatches(byte[] body, PathStack stack, int count) {
+        int depth = stack.depth;
+        if (anywhere ? depth < count : depth != count) {
+            return false;
+        }
+        for (int k = count - 1, level = depth - 1; k >= 0; k--, level--) {
+            Segment segment = segments[k];
+            if (segment.index != NAME || !segment.matchesName(body, stack.nameStart[level], stack.nameEnd[level])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void parseDotPath(String path, List<Segment> segments) {
+        int i = 0;
+        int length = path.length();
+        while (i < length) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+            } else if (c == '[') {
+                int close = path.indexOf(']', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed '[' in selector: " + path);
+                }
+                String inside = path.substring(i + 1, close).trim();
+                if (inside.equals("*")) {
+                    segments.add(Segment.anyIndex());
+                } else if (inside.length() >= 2 && (inside.charAt(0) == '\'' || inside.charAt(0) == '"')) {
+                    segments.add(Segment.name(inside.substring(1, inside.length() - 1)));
+                } else {
+                    try {
+                        segments.add(Segment.index(Integer.parseInt(inside)));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid index in selector: [" + inside + "]");
+                    }
+                }
+                i = close + 1;
+            } else {
+                int end = i;
+                while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                segments.add(Segment.name(path.substring(i, end)));
+                i = end;
+            }
+        }
+    }
+
+    private static void parseSlashPath(String path, List<Segment> segments) {
+        for (String part : path.split("/")) {
+            if (!part.isEmpty()) {
+                segments.add(Segment.name(part));
+            }
+        }
+    }
+
+    private static byte[] boundaryOf(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int at = contentType.toLowerCase(Locale.ROOT).indexOf("boundary=");
+        if (at < 0) {
+            return null;
+        }
+        String boundary = contentType.substring(at + "boundary=".length());
+        int semicolon = boundary.indexOf(';');
+        if (semicolon >= 0) {
+            boundary = boundary.substring(0, semicolon);
+        }
+        boundary = boundary.trim();
+        if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary.isEmpty() ? null : boundary.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isJsonNumber(String value) {
+        int i = value.startsWith("-") ? 1 : 0;
+        if (i >= value.length() || (value.charAt(i) == '0' && value.length() > i + 1)) {
+            return false;
+        }
+        for (; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String xmlEscape(String value) {
+        StringBuilder xml = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&' -> xml.append("&amp;");
+                case '<' -> xml.append("&lt;");
+                case '>' -> xml.append("&gt;");
+                case '"' -> xml.append("&quot;");
+                case '\'' -> xml.append("&apos;");
+                default -> xml.append(c);
+            }
+        }
+        return xml.toString();
+    }
+
+    // Like URLDecoder, but as UTF-8 to mirror replace(), and keeping a malformed %-escape as written
+    private static String formDecode(byte[] body, int start, int end) {
+        byte[] decoded = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = body[i];
+            int high = b == '%' && i + 2 < end ? Character.digit(body[i + 1], 16) : -1;
+            int low = high >= 0 ? Character.digit(body[i + 2], 16) : -1;
+            if (b == '+') {
+                decoded[length++] = ' ';
+            } else if (low >= 0) {
+                decoded[length++] = (byte) (high << 4 | low);
+                i += 2;
+            } else {
+                decoded[length++] = b;
+            }
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static String unescapeJson(String raw) {
+        if (raw.indexOf('\\') < 0) {
+            return raw;
+        }
+        StringBuilder text = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= raw.length()) {
+                text.append(c);
+                continue;
+            }
+            char escaped = raw.charAt(i + 1);
+            switch (escaped) {
+                case '"', '\\', '/' -> text.append(escaped);
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> {
+                    int code = i + 6 <= raw.length() ? parseHex(raw, i + 2, i + 6) : -1;
+                    if (code < 0) {
+                        text.append(c);
+                        continue;
+                    }
+                    text.append((char) code);
+                    i += 4;
+                }
+                default -> {
+                    text.append(c);
+                    continue;
+                }
+            }
+            i++;
+        }
+        return text.toString();
+    }
+
+    // Resolves the predefined entities, numeric character references and CDATA sections
+    private static String unescapeXml(String raw) {
+        if (raw.indexOf('&') < 0 && raw.indexOf('<') < 0) {
+            return raw;
+        }
+        StringBuilder text = new StringBuilder(raw.length());
+        int i = 0;
+        while (i < raw.length()) {
+            char c = raw.charAt(i);
+            if (c == '<' && raw.startsWith("<![CDATA[", i)) {
+                int close = raw.indexOf("]]>", i + 9);
+                if (close >= 0) {
+                    text.append(raw, i + 9, close);
+                    i = close + 3;
+                    continue;
+                }
+            } else if (c == '&') {
+                int semicolon = raw.indexOf(';', i + 1);
+                int code = semicolon < 0 ? -1 : characterReference(raw, i + 1, semicolon);
+                if (code >= 0) {
+                    text.appendCodePoint(code);
+                    i = semicolon + 1;
+                    continue;
+                }
+            }
+            text.append(c);
+            i++;
+        }
+        return text.toString();
+    }
+
+    // The code point of the reference between & and ; at [start, end), or -1 if it is not one
+    private static int characterReference(String raw, int start, int end) {
+        String name = raw.substring(start, end);
+        int code = switch (name) {
+            case "amp" -> '&';
+            case "lt" -> '<';
+            case "gt" -> '>';
+            case "quot" -> '"';
+            case "apos" -> '\'';
+            default -> -1;
+        };
+        if (code >= 0 || name.length() < 2 || name.charAt(0) != '#') {
+            return code;
+        }
+        code = name.charAt(1) == 'x' || name.charAt(1) == 'X'
+                ? parseHex(raw, start + 2, end)
+                : parseDecimal(raw, start + 1, end);
+        return Character.isValidCodePoint(code) ? code : -1;
+    }
+
+    // The value of the hex digits in [start, end), or -1 if there are none or one is not a digit
+    private static int parseHex(String raw, int start, int end) {
+        if (start >= end || end - start > 6) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(raw.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private static int parseDecimal(String raw, int start, int end) {
+        if (start >= end || end - start > 7) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // Index of the closing quote of the string opening at i, or -1
+    private static int stringEnd(byte[] body, int i) {
+        for (int j = i + 1; j < body.length; j++) {
+            if (body[j] == '\\') {
+                j++;
+            } else if (body[j] == '"') {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    // End of a number, true, false or null
+    private static int literalEnd(byte[] body, int i) {
+        int end = i;
+        while (end < body.length) {
+            byte b = body[end];
+            if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    private static int localNameStart(byte[] body, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (body[i] == ':') {
+                return i + 1;
+            }
+        }
+        return start;
+    }
+
+    private static boolean isXmlNameEnd(byte b) {
+        return b == '>' || b == '/' || isWhitespace(b);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static int skipWhitespace(byte[] body, int from) {
+        int i = from;
+        while (i < body.length && isWhitespace(body[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    // Position just past the next occurrence of end at or after from, or -1
+    private static int skipPast(byte[] body, int from, String end) {
+        int at = indexOf(body, end.getBytes(StandardCharsets.US_ASCII), from);
+        return at < 0 ? -1 : at + end.length();
+    }
+
+    private static boolean startsWith(byte[] body, int at, String prefix) {
+        if (at + prefix.length() > body.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (body[at + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(byte[] body, int at, byte[] expected) {
+        if (at + expected.length > body.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (body[at + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] joined = new byte[first.length + second.length];
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    private static int indexOf(byte[] body, byte target, int from) {
+        for (int i = Math.max(from, 0); i < body.length; i++) {
+            if (body[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] body, byte[] target, int from) {
+        byte first = target[0];
+        int last = body.length - target.length;
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            if (body[i] == first && regionEquals(body, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Byte range of a matched value: inside the quotes for form, multipart and XML values, and
+     * including them for JSON strings. {@code bare} marks a JSON number or literal.
+     */
+    public record Match(int start, int end, Format format, boolean bare) {
+    }
+
+    /**
+     * One step of a selector: an object key or element name ({@code null} name for {@code *}),
+     * an array index, or any index.
+     */
+    private static final class Segment {
+        private final String name;
+        private final byte[] nameBytes;
+        private final int index;
+        private final boolean attribute;
+
+        private Segment(String name, int index) {
+            boolean isAttribute = name != null && name.startsWith("@");
+            String bare = isAttribute ? name.substring(1) : name;
+            if (bare != null && bare.isEmpty()) {
+                throw new IllegalArgumentException("Empty name in selector.");
+            }
+            this.name = bare;
+            this.nameBytes = bare == null || bare.equals("*") ? null : bare.getBytes(StandardCharsets.UTF_8);
+            this.index = index;
+            this.attribute = isAttribute;
+        }
+
+        static Segment name(String name) {
+            return new Segment(name.trim(), NAME);
+        }
+
+        static Segment index(int index) {
+            if (index < 0) {
+                throw new IllegalArgumentException("Negative index in selector: " + index);
+            }
+            return new Segment(null, index);
+        }
+
+        static Segment anyIndex() {
+            return new Segment(null, ANY_INDEX);
+        }
+
+        // Null name bytes stand for the * wildcard
+        boolean matchesName(byte[] body, int start, int end) {
+            if (nameBytes == null) {
+                return true;
+            }
+            return end - start == nameBytes.length && regionEquals(body, start, nameBytes);
+        }
+    }
+
+    // The open containers or elements: kind, and the key/name range or array index of each
+    private static final class PathStack {
+        private boolean[] array = new boolean[16];
+        private int[] nameStart = new int[16];
+        private int[] nameEnd = new int[16];
+        private int[] index = new int[16];
+        private int depth;
+
+        void push(boolean isArray) {
+            if (depth == array.length) {
+                array = Arrays.copyOf(array, depth * 2);
+                nameStart = Arrays.copyOf(nameStart, depth * 2);
+                nameEnd = Arrays.copyOf(nameEnd, depth * 2);
+                index = Arrays.copyOf(index, depth * 2);
+            }
+            array[depth] = isArray;
+            index[depth] = 0;
+            depth++;
+        }
+    }
+}
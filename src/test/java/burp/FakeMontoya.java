@@ -0,0 +1,265 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.ContentType;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.params.HttpParameter;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.sessions.ActionResult;
+import burp.api.montoya.http.sessions.SessionHandlingActionData;
+import burp.api.montoya.internal.MontoyaObjectFactory;
+import burp.api.montoya.internal.ObjectFactoryLocator;
+import burp.api.montoya.logging.Logging;
+import burp.api.montoya.persistence.Persistence;
+import burp.api.montoya.persistence.Preferences;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lightweight stand-ins for the Montoya API so the session-handling path can run outside Burp,
+ * in the tests and the benchmarks. Everything is backed by dynamic proxies, which keeps the fakes
+ * independent of the exact Montoya version but adds a small, constant reflective cost to each call.
+ */
+public final class FakeMontoya {
+
+    private FakeMontoya() {
+    }
+
+    /**
+     * Installs a fake object factory so static Montoya helpers such as
+     * {@code HttpHeader.httpHeader} and {@code ActionResult.actionResult} work outside Burp.
+     */
+    public static void installObjectFactory() {
+        ObjectFactoryLocator.FACTORY = proxy(MontoyaObjectFactory.class, (proxy, method, args) -> switch (method.getName()) {
+            case "httpHeader" -> args.length == 2
+                    ? header((String) args[0], (String) args[1])
+                    : header(((String) args[0]).substring(0, ((String) args[0]).indexOf(':')).trim(),
+                             ((String) args[0]).substring(((String) args[0]).indexOf(':') + 1).trim());
+            case "parameter" -> parameter((String) args[0], (String) args[1], (HttpParameterType) args[2]);
+            case "actionResult" -> actionResult((HttpRequest) args[0]);
+            case "byteArray" -> args[0] instanceof String text
+                    ? byteArray(text.getBytes(StandardCharsets.ISO_8859_1))
+                    : byteArray((byte[]) args[0]);
+            case "httpService" -> httpService((String) args[0], args.length == 3 ? (Integer) args[1] : 443, (Boolean) args[args.length - 1]);
+            default -> throw new UnsupportedOperationException("Fake factory does not support " + method.getName());
+        });
+    }
+
+    public static MontoyaApi api() {
+        Map<String, Object> store = new ConcurrentHashMap<>();
+        Preferences preferences = proxy(Preferences.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("get")) {
+                return store.get((String) args[0]);
+            }
+            if (name.startsWith("set")) {
+                store.put((String) args[0], args[1]);
+            } else if (name.startsWith("delete")) {
+                store.remove((String) args[0]);
+            }
+            return null;
+        });
+        Persistence persistence = proxy(Persistence.class, (proxy, method, args) -> preferences);
+        Logging logging = proxy(Logging.class, (proxy, method, args) -> null);
+
+        return proxy(MontoyaApi.class, (proxy, method, args) -> switch (method.getName()) {
+            case "persistence" -> persistence;
+            case "logging" -> logging;
+            default -> throw new UnsupportedOperationException("Fake API does not support " + method.getName());
+        });
+    }
+
+    public static SessionHandlingActionData actionData(HttpRequest request) {
+        return proxy(SessionHandlingActionData.class, (proxy, method, args) -> switch (method.getName()) {
+            case "request" -> request;
+            case "macroRequestResponses" -> Collections.emptyList();
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    public static HttpRequest request(String method, String path, List<HttpHeader> headers, List<ParsedHttpParameter> parameters, byte[] body) {
+        return new FakeRequest(method, path, headers, parameters, body).toProxy();
+    }
+
+    public static HttpHeader header(String name, String value) {
+        return proxy(HttpHeader.class, (proxy, method, args) -> switch (method.getName()) {
+            case "name" -> name;
+            case "value" -> value;
+            case "toString" -> name + ": " + value;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    public static ParsedHttpParameter parameter(String name, String value, HttpParameterType type) {
+        return proxy(ParsedHttpParameter.class, (proxy, method, args) -> switch (method.getName()) {
+            case "name" -> name;
+            case "value" -> value;
+            case "type" -> type;
+            case "toString" -> type + " " + name + "=" + value;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    public static ByteArray byteArray(byte[] bytes) {
+        return proxy(ByteArray.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getBytes" -> bytes.clone();
+            case "length" -> bytes.length;
+            case "getByte" -> bytes[(Integer) args[0]];
+            case "subArray" -> byteArray(Arrays.copyOfRange(bytes, (Integer) args[0], (Integer) args[1]));
+            case "copy" -> byteArray(bytes.clone());
+            case "toString" -> new String(bytes, StandardCharsets.ISO_8859_1);
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static ActionResult actionResult(HttpRequest request) {
+        return proxy(ActionResult.class, (proxy, method, args) -> switch (method.getName()) {
+            case "request" -> request;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static HttpService httpService(String host, int port, boolean secure) {
+        return proxy(HttpService.class, (proxy, method, args) -> switch (method.getName()) {
+            case "host" -> host;
+            case "port" -> port;
+            case "secure" -> secure;
+            case "toString" -> (secure ? "https://" : "http://") + host + ":" + port;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeMontoya.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * Immutable request model; every {@code with...} call returns a new proxy, as Burp's does.
+     * Parameters are tracked as a list and not re-serialised into the path, cookies or body.
+     */
+    private static final class FakeRequest implements InvocationHandler {
+        private static final HttpService TARGET_SERVICE = httpService("target.example", 443, true);
+
+        private final String method;
+        private final String path;
+        private final List<HttpHeader> headers;
+        private final List<ParsedHttpParameter> parameters;
+        private final byte[] body;
+
+        private FakeRequest(String method, String path, List<HttpHeader> headers, List<ParsedHttpParameter> parameters, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.parameters = parameters;
+            this.body = body;
+        }
+
+        private HttpRequest toProxy() {
+            return proxy(HttpRequest.class, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method invoked, Object[] args) {
+            return switch (invoked.getName()) {
+                case "method" -> method;
+                case "path" -> path;
+                case "url" -> "https://target.example" + path;
+                case "httpService" -> TARGET_SERVICE;
+                case "httpVersion" -> "HTTP/1.1";
+                case "headers" -> headers;
+                case "parameters" -> parameters;
+                case "body" -> byteArray(body);
+                case "bodyToString" -> new String(body, StandardCharsets.ISO_8859_1);
+                case "contentType" -> contentType();
+                case "withBody" -> withBody(args[0] instanceof String text
+                        ? text.getBytes(StandardCharsets.ISO_8859_1)
+                        : ((ByteArray) args[0]).getBytes());
+                case "withAddedHeader" -> withHeader(toHeader(args), false);
+                case "withUpdatedHeader" -> withHeader(toHeader(args), true);
+                case "withAddedParameters" -> withParameters(toParameters(args[0]), false);
+                case "withUpdatedParameters" -> withParameters(toParameters(args[0]), true);
+                case "toString" -> method + " " + path;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new UnsupportedOperationException("Fake request does not support " + invoked.getName());
+            };
+        }
+
+        private ContentType contentType() {
+            for (HttpHeader header : headers) {
+                if (header.name().equalsIgnoreCase("Content-Type")) {
+                    String value = header.value().toLowerCase();
+                    if (value.contains("json")) {
+                        return ContentType.JSON;
+                    }
+                    if (value.contains("x-www-form-urlencoded")) {
+                        return ContentType.URL_ENCODED;
+                    }
+                    if (value.contains("multipart")) {
+                        return ContentType.MULTIPART;
+                    }
+                    if (value.contains("xml")) {
+                        return ContentType.XML;
+                    }
+                    return ContentType.UNKNOWN;
+                }
+            }
+            return ContentType.NONE;
+        }
+
+        private HttpRequest withBody(byte[] newBody) {
+            return new FakeRequest(method, path, headers, parameters, newBody).toProxy();
+        }
+
+        private HttpRequest withHeader(HttpHeader header, boolean update) {
+            List<HttpHeader> updated = new ArrayList<>(headers);
+            if (update) {
+                updated.replaceAll(existing -> existing.name().equalsIgnoreCase(header.name()) ? header : existing);
+            } else {
+                updated.add(header);
+            }
+            return new FakeRequest(method, path, updated, parameters, body).toProxy();
+        }
+
+        private HttpRequest withParameters(List<HttpParameter> changes, boolean update) {
+            List<ParsedHttpParameter> updated = new ArrayList<>(parameters);
+            for (HttpParameter change : changes) {
+                ParsedHttpParameter parsed = parameter(change.name(), change.value(), change.type());
+                if (update) {
+                    updated.replaceAll(existing -> existing.type() == change.type() && existing.name().equals(change.name()) ? parsed : existing);
+                } else {
+                    updated.add(parsed);
+                }
+            }
+            return new FakeRequest(method, path, headers, updated, body).toProxy();
+        }
+
+        private static HttpHeader toHeader(Object[] args) {
+            return args.length == 2 ? header((String) args[0], (String) args[1]) : (HttpHeader) args[0];
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<HttpParameter> toParameters(Object arg) {
+            return arg instanceof HttpParameter[] array ? Arrays.asList(array) : (List<HttpParameter>) arg;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package burp;
+
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import utils.RuleType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds realistic login/verify requests for the tests and benchmarks: browser-like headers
+ * padded with custom ones up to the requested count, and JSON or form bodies padded to the
+ * requested size with the OTP field placed in the middle.
+ */
+final class RequestCorpus {
+    static final String PARAMETER_NAME = "otp";
+    static final String PLACEHOLDER_OTP = "000000";
+
+    private static final String[][] BASE_HEADERS = {
+            {"Host", "target.example"},
+            {"User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36"},
+            {"Accept", "application/json, text/plain, */*"},
+            {"Accept-Language", "en-US,en;q=0.9"},
+            {"Accept-Encoding", "gzip, deflate, br"},
+            {"Connection", "keep-alive"},
+            {"Origin", "https://target.example"},
+            {"Referer", "https://target.example/login/verify"},
+    };
+
+    private RequestCorpus() {
+    }
+
+    /**
+     * @param includeParameter whether the OTP field is present, i.e. whether the action should rewrite the request
+     */
+    static HttpRequest build(RuleType ruleType, int bodySize, int headerCount, boolean includeParameter) {
+        return build(ruleType, PARAMETER_NAME, bodySize, headerCount, includeParameter);
+    }
+
+    // As above, with the OTP field under the given name
+    static HttpRequest build(RuleType ruleType, String parameterName, int bodySize, int headerCount, boolean includeParameter) {
+        List<HttpHeader> headers = new ArrayList<>();
+        List<ParsedHttpParameter> parameters = new ArrayList<>();
+        String path = "/api/v1/login/verify?session=7f3c9a1e";
+        parameters.add(FakeMontoya.parameter("session", "7f3c9a1e", HttpParameterType.URL));
+
+        boolean formBody = ruleType == RuleType.BODY_PARAM;
+        for (String[] header : BASE_HEADERS) {
+            headers.add(FakeMontoya.header(header[0], header[1]));
+        }
+        headers.add(FakeMontoya.header("Content-Type", formBody ? "application/x-www-form-urlencoded" : "application/json"));
+        headers.add(FakeMontoya.header("Cookie", "JSESSIONID=4C1D0E5B6A7F; theme=dark"
+                + (includeParameter && ruleType == RuleType.COOKIE ? "; " + parameterName + "=" + PLACEHOLDER_OTP : "")));
+        parameters.add(FakeMontoya.parameter("JSESSIONID", "4C1D0E5B6A7F", HttpParameterType.COOKIE));
+        parameters.add(FakeMontoya.parameter("theme", "dark", HttpParameterType.COOKIE));
+
+        if (includeParameter) {
+            switch (ruleType) {
+                case HEADER -> headers.add(FakeMontoya.header(parameterName, PLACEHOLDER_OTP));
+                case URL -> {
+                    path += "&" + parameterName + "=" + PLACEHOLDER_OTP;
+                    parameters.add(FakeMontoya.parameter(parameterName, PLACEHOLDER_OTP, HttpParameterType.URL));
+                }
+                case COOKIE -> parameters.add(FakeMontoya.parameter(parameterName, PLACEHOLDER_OTP, HttpParameterType.COOKIE));
+                case BODY_PARAM -> parameters.add(FakeMontoya.parameter(parameterName, PLACEHOLDER_OTP, HttpParameterType.BODY));
+                case BODY_REGEX, BODY_FIELD -> {
+                    // the field lives in the JSON body built below
+                }
+            }
+        }
+
+        for (int i = 0; headers.size() < headerCount; i++) {
+            headers.add(FakeMontoya.header("X-Trace-" + i, "00-4bf92f3577b34da6a3ce929d0e0e4736-" + Integer.toHexString(i)));
+        }
+
+        byte[] body = formBody
+                ? formBody(parameterName, bodySize, includeParameter)
+                : jsonBody(parameterName, bodySize, includeParameter && (ruleType == RuleType.BODY_REGEX || ruleType == RuleType.BODY_FIELD));
+        return FakeMontoya.request("POST", path, headers, parameters, body);
+    }
+
+    private static byte[] jsonBody(String parameterName, int size, boolean includeParameter) {
+        StringBuilder json = new StringBuilder(size + 64);
+        json.append("{\"username\":\"alice@example.com\",\"device\":{\"id\":\"a91f\",\"trusted\":false},\"items\":[");
+        int half = size / 2;
+        int item = 0;
+        while (json.length() < half) {
+            json.append(item == 0 ? "" : ",").append("{\"id\":").append(item).append(",\"note\":\"lorem ipsum dolor sit amet\"}");
+            item++;
+        }
+        json.append("],");
+        if (includeParameter) {
+            json.append('"').append(parameterName).append("\" : \"").append(PLACEHOLDER_OTP).append("\",");
+        }
+        json.append("\"padding\":\"");
+        while (json.length() < size - 2) {
+            json.append('x');
+        }
+        json.append("\"}");
+        return json.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] formBody(String parameterName, int size, boolean includeParameter) {
+        StringBuilder form = new StringBuilder(size + 32);
+        form.append("username=alice%40example.com");
+        if (includeParameter) {
+            form.append('&').append(parameterName).append('=').append(PLACEHOLDER_OTP);
+        }
+        form.append("&padding=");
+        while (form.length() < size) {
+            form.append('x');
+        }
+        return form.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,245 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.sessions.SessionHandlingActionData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import twilio.FakeTwilioServer;
+import twilio.OTPHandler;
+import twilio.TwilioTransport;
+import utils.AsyncLogger;
+import utils.ConfigurationParser;
+import utils.RuleType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fires a corpus of requests at {@code performAction} from many threads while one more thread
+ * flips the injection rule through {@link ConfigurationParser#saveToPreferences} and sends new
+ * OTPs to a {@link FakeTwilioServer}. Every result is checked:
+ *
+ * <ul>
+ *     <li>only a request carrying the field of the active rule (type and name) is rewritten;</li>
+ *     <li>a request carrying the type of one rule and the name of the other never is, which is
+ *     what a torn configuration would produce;</li>
+ *     <li>the injected value is a code that has actually been sent, never the placeholder.</li>
+ * </ul>
+ */
+class SessionHandlingStressTest {
+    private static final String PREFERENCES_NODE = "TwilioOTPAuthenticate-test-stress";
+    private static final String FROM_NUMBER = "+15005550006";
+    private static final String TO_NUMBER = "+15005550001";
+    private static final String NAME_A = "X-OTP";
+    private static final String NAME_B = "otp_code";
+    private static final int SCAN_THREADS = 16;
+    private static final long RUN_MILLIS = 2000;
+    private static final long RECONFIGURE_MILLIS = 5;
+
+    private Preferences configNode;
+    private FakeTwilioServer twilio;
+    private AsyncLogger log;
+    private OTPHandler otpHandler;
+    private ConfigurationParser configParser;
+    private MySessionHandlingAction action;
+    private CorpusEntry[] corpus;
+
+    // Odd while saveToPreferences is running; a request that saw it unchanged and even saw that config
+    private final AtomicInteger configVersion = new AtomicInteger();
+    private final Set<String> sentCodes = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextCode = new AtomicInteger(100_000);
+    private final AtomicLong rewrites = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * One corpus request: the field it carries and whether each of the two configs rewrites it.
+     */
+    private record CorpusEntry(SessionHandlingActionData data, RuleType type, String name, boolean matchesA, boolean matchesB) {
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FakeMontoya.installObjectFactory();
+        MontoyaApi api = FakeMontoya.api();
+
+        twilio = new FakeTwilioServer();
+        sendCode(Instant.now());
+
+        log = new AsyncLogger(api.logging());
+        otpHandler = new OTPHandler(api, log);
+        otpHandler.updateSettings("ACstress", "token", FROM_NUMBER, TO_NUMBER);
+        otpHandler.updateBaseUrl(twilio.baseUrl());
+        otpHandler.updateTransportSettings(TwilioTransport.Mode.JDK_HTTP2, 5000, 16);
+        // Short enough that fetches keep happening during the run
+        otpHandler.updateCacheSettings(1, 1);
+
+        configNode = Preferences.userRoot().node(PREFERENCES_NODE);
+        configParser = new ConfigurationParser(api, configNode, log);
+        configParser.saveToPreferences(RuleType.HEADER.name(), NAME_A);
+
+        action = new MySessionHandlingAction(api, otpHandler, configParser);
+
+        // Config A is (HEADER, NAME_A) and config B is (URL, NAME_B); the crossed pairs are the torn-config probes
+        corpus = new CorpusEntry[]{
+                entry(RuleType.HEADER, NAME_A, true, false),
+                entry(RuleType.URL, NAME_B, false, true),
+                entry(RuleType.HEADER, NAME_B, false, false),
+                entry(RuleType.URL, NAME_A, false, false),
+                entry(RuleType.COOKIE, NAME_A, false, false),
+        };
+    }
+
+    @AfterEach
+    void tearDown() throws BackingStoreException {
+        otpHandler.shutdown();
+        configParser.shutdown();
+        log.shutdown();
+        twilio.close();
+        configNode.removeNode();
+    }
+
+    @Test
+    void neverTearsTheConfigurationOrInjectsAnUnsentCode() throws Exception {
+        int reconfigurations = stress();
+
+        assertNull(failure.get(), () -> failure.get().getMessage());
+        assertTrue(reconfigurations > 10, "only " + reconfigurations + " reconfigurations");
+        assertTrue(rewrites.get() > 0, "no request was rewritten");
+    }
+
+    @Test
+    void staysConsistentWithASlowTwilio() throws Exception {
+        twilio.setLatencyMillis(50);
+        stress();
+
+        assertNull(failure.get(), () -> failure.get().getMessage());
+        assertTrue(rewrites.get() > 0, "no request was rewritten");
+    }
+
+    // Runs the scan threads against the flipping config until the time is up or a check fails
+    private int stress() throws InterruptedException {
+        long stopAt = System.currentTimeMillis() + RUN_MILLIS;
+        List<Thread> scanners = new ArrayList<>();
+        for (int t = 0; t < SCAN_THREADS; t++) {
+            int first = t;
+            Thread scanner = new Thread(() -> {
+                for (int i = first; System.currentTimeMillis() < stopAt && failure.get() == null; i++) {
+                    try {
+                        scan(corpus[i % corpus.length]);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, "stress-scan-" + t);
+            scanners.add(scanner);
+            scanner.start();
+        }
+
+        int reconfigurations = 0;
+        while (System.currentTimeMillis() < stopAt && failure.get() == null) {
+            Thread.sleep(RECONFIGURE_MILLIS);
+            reconfigure(++reconfigurations);
+        }
+        for (Thread scanner : scanners) {
+            scanner.join();
+        }
+        return reconfigurations;
+    }
+
+    private void scan(CorpusEntry entry) {
+        int versionBefore = configVersion.get();
+        HttpRequest rewritten = action.performAction(entry.data).request();
+        int versionAfter = configVersion.get();
+
+        boolean stable = versionBefore == versionAfter && (versionBefore & 1) == 0;
+        boolean configA = (versionBefore & 2) == 0;
+        verify(entry, rewritten, stable, configA);
+    }
+
+    // Flips the rule between config A and B; every tenth flip a new OTP arrives
+    private void reconfigure(int reconfiguration) {
+        boolean toB = (configVersion.get() & 2) == 0;
+
+        configVersion.incrementAndGet();
+        if (toB) {
+            configParser.saveToPreferences(RuleType.URL.name(), NAME_B);
+        } else {
+            configParser.saveToPreferences(RuleType.HEADER.name(), NAME_A);
+        }
+        configVersion.incrementAndGet();
+
+        if (reconfiguration % 10 == 0) {
+            sendCode(Instant.now().plusSeconds(reconfiguration));
+        }
+    }
+
+    private void verify(CorpusEntry entry, HttpRequest rewritten, boolean stable, boolean configA) {
+        String value = fieldValue(rewritten, entry.type, entry.name);
+        if (value == null) {
+            throw new AssertionError(entry.type + " " + entry.name + " was dropped from the request");
+        }
+        if (RequestCorpus.PLACEHOLDER_OTP.equals(value)) {
+            // Only acceptable when the acquisition deadline passed the request through
+            if (stable && (configA ? entry.matchesA : entry.matchesB) && otpHandler.getMetrics().getDeadlineMisses() == 0) {
+                throw new AssertionError(entry.type + " " + entry.name + " was not rewritten under config " + (configA ? "A" : "B"));
+            }
+            return;
+        }
+
+        if (!entry.matchesA && !entry.matchesB) {
+            throw new AssertionError("Torn config: " + entry.type + " " + entry.name + " was rewritten to " + value);
+        }
+        if (stable && !(configA ? entry.matchesA : entry.matchesB)) {
+            throw new AssertionError(entry.type + " " + entry.name + " was rewritten under config " + (configA ? "A" : "B"));
+        }
+        if (!sentCodes.contains(value)) {
+            throw new AssertionError("Injected " + value + ", which was never sent");
+        }
+        rewrites.incrementAndGet();
+    }
+
+    private void sendCode(Instant dateSent) {
+        String code = String.valueOf(nextCode.incrementAndGet());
+        sentCodes.add(code);
+        twilio.addMessage("SMstress" + code, FROM_NUMBER, TO_NUMBER, "Your verification code is " + code, dateSent);
+    }
+
+    private static CorpusEntry entry(RuleType type, String name, boolean matchesA, boolean matchesB) {
+        HttpRequest request = RequestCorpus.build(type, name, 512, 20, true);
+        return new CorpusEntry(FakeMontoya.actionData(request), type, name, matchesA, matchesB);
+    }
+
+    private static String fieldValue(HttpRequest request, RuleType type, String name) {
+        if (type == RuleType.HEADER) {
+            for (HttpHeader header : request.headers()) {
+                if (header.name().equalsIgnoreCase(name)) {
+                    return header.value();
+                }
+            }
+            return null;
+        }
+        HttpParameterType parameterType = type.toParameterType();
+        for (ParsedHttpParameter parameter : request.parameters()) {
+            if (parameter.type() == parameterType && parameter.name().equals(name)) {
+                return parameter.value();
+            }
+        }
+        return null;
+    }
+}
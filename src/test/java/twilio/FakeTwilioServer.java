@@ -0,0 +1,293 @@
+package twilio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Twilio Messages API, serving
+ * {@code /2010-04-01/Accounts/{sid}/Messages.json} in the shape {@link OTPHandler} parses.
+ * Point the handler at {@link #baseUrl()} through {@link OTPHandler#updateBaseUrl(String)}.
+ *
+ * <p>Responses can be scripted per request with {@link #script(Fault...)}, which is consumed in
+ * order before falling back to a normal listing, and every response can be delayed with
+ * {@link #setLatencyMillis(long)}.
+ */
+public class FakeTwilioServer implements AutoCloseable {
+    private static final String MESSAGES_PATH_PREFIX = "/2010-04-01/Accounts/";
+    private static final DateTimeFormatter DATE_SENT_FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US).withZone(ZoneOffset.UTC);
+    private static final int SLOW_DRIP_CHUNK_BYTES = 16;
+
+    public enum Fault {
+        NONE,
+        RATE_LIMITED,
+        SERVER_ERROR,
+        TRUNCATED,
+        SLOW_DRIP
+    }
+
+    static {
+        // Without TCP_NODELAY the JDK server's separate header and body writes meet the client's
+        // delayed ACK, adding ~40ms to every response on a kept-alive connection
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Message> messages = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Fault> script = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile long latencyMillis;
+    private volatile long slowDripDelayMillis = 50;
+    private volatile int retryAfterSeconds = 1;
+
+    public FakeTwilioServer() throws IOException {
+        this(0);
+    }
+
+    public FakeTwilioServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext(MESSAGES_PATH_PREFIX, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    // Messages are listed newest first, like the real API
+    public synchronized FakeTwilioServer addMessage(String sid, String from, String to, String body, Instant dateSent) {
+        messages.add(0, new Message(sid, from, to, body, dateSent));
+        return this;
+    }
+
+    public synchronized void clearMessages() {
+        messages.clear();
+    }
+
+    public FakeTwilioServer script(Fault... faults) {
+        script.addAll(List.of(faults));
+        return this;
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setSlowDripDelayMillis(long slowDripDelayMillis) {
+        this.slowDripDelayMillis = slowDripDelayMillis;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requestCount.incrementAndGet();
+            sleep(latencyMillis);
+
+            if (!exchange.getRequestURI().getPath().endsWith("/Messages.json")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            Fault fault = script.poll();
+            if (fault == null) {
+                fault = Fault.NONE;
+            }
+
+            switch (fault) {
+                case RATE_LIMITED -> {
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                    sendJson(exchange, 429, "{\"code\":20429,\"message\":\"Too Many Requests\",\"status\":429}".getBytes(StandardCharsets.UTF_8));
+                }
+                case SERVER_ERROR -> sendJson(exchange, 500, "{\"code\":20500,\"message\":\"Internal Server Error\",\"status\":500}".getBytes(StandardCharsets.UTF_8));
+                case TRUNCATED -> {
+                    byte[] page = renderPage(exchange);
+                    sendJson(exchange, 200, Arrays.copyOf(page, page.length / 2));
+                }
+                case SLOW_DRIP -> sendSlowly(exchange, renderPage(exchange));
+                case NONE -> sendJson(exchange, 200, renderPage(exchange));
+            }
+        }
+    }
+
+    // Supports the From, To, DateSent, DateSent> (on or after) and DateSent< (on or before)
+    // filters, with dates given as YYYY-MM-DD or an ISO instant, and Page-based paging
+    private byte[] renderPage(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        int pageSize = Integer.parseInt(query.getOrDefault("PageSize", "50"));
+        int pageNumber = Integer.parseInt(query.getOrDefault("Page", "0"));
+        String from = query.get("From");
+        String to = query.get("To");
+        Instant sentOnOrAfter = startOf(query.get("DateSent>"));
+        Instant sentOnOrBefore = endOf(query.get("DateSent<"));
+        if (query.containsKey("DateSent")) {
+            sentOnOrAfter = startOf(query.get("DateSent"));
+            sentOnOrBefore = endOf(query.get("DateSent"));
+        }
+
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("page", pageNumber);
+        root.put("page_size", pageSize);
+        root.put("uri", exchange.getRequestURI().toString());
+        root.putNull("next_page_uri");
+        ArrayNode page = root.putArray("messages");
+        int skip = pageNumber * pageSize;
+        boolean more = false;
+        synchronized (this) {
+            for (Message message : messages) {
+                if ((from != null && !from.equals(message.from)) || (to != null && !to.equals(message.to))) {
+                    continue;
+                }
+                if ((sentOnOrAfter != null && message.dateSent.isBefore(sentOnOrAfter))
+                        || (sentOnOrBefore != null && message.dateSent.isAfter(sentOnOrBefore))) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (page.size() >= pageSize) {
+                    more = true;
+                    break;
+                }
+                ObjectNode node = page.addObject();
+                node.put("sid", message.sid);
+                node.put("date_sent", DATE_SENT_FORMAT.format(message.dateSent));
+                node.put("from", message.from);
+                node.put("to", message.to);
+                node.put("body", message.body);
+                node.put("direction", "inbound");
+                node.put("status", "received");
+            }
+        }
+        if (more) {
+            root.put("next_page_uri", nextPageUri(exchange, pageNumber + 1));
+        }
+        return objectMapper.writeValueAsBytes(root);
+    }
+
+    // Like Twilio's, relative to the API root and carrying every filter of the current request
+    private static String nextPageUri(HttpExchange exchange, int pageNumber) {
+        StringBuilder uri = new StringBuilder(exchange.getRequestURI().getRawPath()).append('?');
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                if (!pair.startsWith("Page=")) {
+                    uri.append(pair).append('&');
+                }
+            }
+        }
+        return uri.append("Page=").append(pageNumber).toString();
+    }
+
+    private static Instant startOf(String date) {
+        if (date == null) {
+            return null;
+        }
+        return date.contains("T") ? Instant.parse(date) : LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    private static Instant endOf(String date) {
+        if (date == null) {
+            return null;
+        }
+        return date.contains("T") ? Instant.parse(date) : LocalDate.parse(date).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().minusNanos(1);
+    }
+
+    private void sendJson(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private void sendSlowly(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            for (int offset = 0; offset < body.length; offset += SLOW_DRIP_CHUNK_BYTES) {
+                output.write(body, offset, Math.min(SLOW_DRIP_CHUNK_BYTES, body.length - offset));
+                output.flush();
+                sleep(slowDripDelayMillis);
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Message(String sid, String from, String to, String body, Instant dateSent) {
+    }
+
+    // Run standalone so a loaded extension can be pointed at it, e.g. for manual throughput runs
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8766;
+        FakeTwilioServer fake = new FakeTwilioServer(port);
+        fake.addMessage("SM00000000000000000000000000000001", "+15005550006", "+15005550001",
+                "Your verification code is 482913", Instant.now());
+        System.out.println("Fake Twilio API listening on " + fake.baseUrl());
+    }
+}
@@ -0,0 +1,191 @@
+package twilio;
+
+import burp.FakeMontoya;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import utils.AsyncLogger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Posts fake Twilio webhooks to a running {@link InboundSmsWebhookServer} and checks which ones
+ * reach the handler.
+ */
+class InboundSmsWebhookServerTest {
+    private static final String FROM_NUMBER = "+15005550006";
+    private static final String TO_NUMBER = "+15005550001";
+    private static final String AUTH_TOKEN = "test-auth-token";
+    private static final String PUBLIC_URL = "https://otp.example.test/sms";
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private AsyncLogger log;
+    private OTPHandler otpHandler;
+    private InboundSmsWebhookServer server;
+
+    @BeforeEach
+    void setUp() {
+        log = new AsyncLogger(FakeMontoya.api().logging());
+        otpHandler = new OTPHandler(FakeMontoya.api(), log);
+        otpHandler.updateSettings("ACtest", AUTH_TOKEN, FROM_NUMBER, TO_NUMBER);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        otpHandler.shutdown();
+        log.shutdown();
+    }
+
+    @Test
+    void acceptsCodeForConfiguredNumbers() throws Exception {
+        startServer(false);
+
+        HttpResponse<String> response = post(form(FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", "SM1"), null);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("<Response/>", response.body());
+        assertEquals("482913", otpHandler.getShards().get(0).getCursor().code());
+        assertEquals("SM1", otpHandler.getShards().get(0).getCursor().messageSid());
+        // Served from the cache the webhook filled, without a Twilio fetch
+        assertEquals("482913", otpHandler.getLatestOTPAsync().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void ignoresMessagesForOtherNumbers() throws Exception {
+        startServer(false);
+
+        HttpResponse<String> response = post(form("+15005550099", TO_NUMBER, "Your code is 111111", "SM2"), null);
+
+        assertEquals(200, response.statusCode());
+        assertNull(otpHandler.getShards().get(0).getCursor());
+    }
+
+    @Test
+    void ignoresEveryMessageWhenNoNumbersAreConfigured() throws Exception {
+        otpHandler.updateSettings("ACtest", AUTH_TOKEN, "", "");
+        startServer(false);
+
+        HttpResponse<String> response = post(form(FROM_NUMBER, TO_NUMBER, "Unrelated text, order 123456 shipped", "SM3"), null);
+
+        assertEquals(200, response.statusCode());
+        assertNull(otpHandler.getShards().get(0).getCursor());
+    }
+
+    @Test
+    void rejectsMalformedEscapeWith400() throws Exception {
+        startServer(false);
+
+        HttpResponse<String> response = post("From=%2B15005550006&To=%2&Body=Your+code+is+123456", null);
+
+        assertEquals(400, response.statusCode());
+        assertNull(otpHandler.getShards().get(0).getCursor());
+    }
+
+    @Test
+    void rejectsMissingBodyWith400() throws Exception {
+        startServer(false);
+
+        HttpResponse<String> response = post("From=%2B15005550006&To=%2B15005550001&MessageSid=SM4", null);
+
+        assertEquals(400, response.statusCode());
+    }
+
+    @Test
+    void rejectsGetWith405() throws Exception {
+        startServer(false);
+
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(webhookUri()).GET().build(), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(405, response.statusCode());
+    }
+
+    @Test
+    void acceptsValidSignature() throws Exception {
+        startServer(true);
+        Map<String, String> params = params(FROM_NUMBER, TO_NUMBER, "Your code is 654321", "SM5");
+
+        HttpResponse<String> response = post(encode(params), sign(params));
+
+        assertEquals(200, response.statusCode());
+        assertEquals("654321", otpHandler.getShards().get(0).getCursor().code());
+    }
+
+    @Test
+    void rejectsInvalidOrMissingSignatureWith403() throws Exception {
+        startServer(true);
+        Map<String, String> params = params(FROM_NUMBER, TO_NUMBER, "Your code is 654321", "SM6");
+        Map<String, String> tampered = params(FROM_NUMBER, TO_NUMBER, "Your code is 000000", "SM6");
+
+        assertEquals(403, post(encode(tampered), sign(params)).statusCode());
+        assertEquals(403, post(encode(params), null).statusCode());
+        assertNull(otpHandler.getShards().get(0).getCursor());
+    }
+
+    private void startServer(boolean verifySignature) throws Exception {
+        server = new InboundSmsWebhookServer(otpHandler, "127.0.0.1", 0, PUBLIC_URL, verifySignature);
+        server.start();
+    }
+
+    private URI webhookUri() {
+        return URI.create("http://127.0.0.1:" + server.getPort() + InboundSmsWebhookServer.WEBHOOK_PATH);
+    }
+
+    private HttpResponse<String> post(String form, String signature) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(webhookUri())
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form));
+        if (signature != null) {
+            request.header("X-Twilio-Signature", signature);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String form(String from, String to, String body, String messageSid) {
+        return encode(params(from, to, body, messageSid));
+    }
+
+    private static Map<String, String> params(String from, String to, String body, String messageSid) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("From", from);
+        params.put("To", to);
+        params.put("Body", body);
+        params.put("MessageSid", messageSid);
+        return params;
+    }
+
+    private static String encode(Map<String, String> params) {
+        StringBuilder form = new StringBuilder();
+        params.forEach((key, value) -> form.append(form.length() == 0 ? "" : "&")
+                .append(URLEncoder.encode(key, StandardCharsets.UTF_8)).append('=')
+                .append(URLEncoder.encode(value, StandardCharsets.UTF_8)));
+        return form.toString();
+    }
+
+    // Twilio signs the public URL followed by every POST parameter, sorted by name, with HMAC-SHA1
+    private static String sign(Map<String, String> params) throws Exception {
+        StringBuilder data = new StringBuilder(PUBLIC_URL);
+        new TreeMap<>(params).forEach((key, value) -> data.append(key).append(value));
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(AUTH_TOKEN.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+        return Base64.getEncoder().encodeToString(mac.doFinal(data.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,123 @@
+package twilio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks the {@link OTPExtractor} scanner against the regex it replaced and against anchored
+ * {@link OTPTemplate}s.
+ */
+class OTPExtractorTest {
+    private static final Pattern LEGACY = Pattern.compile("\\b\\d{4,6}\\b");
+    private static final String SENDER = "+15005550006";
+
+    @Test
+    void defaultTemplateMatchesTheLegacyRegex() {
+        OTPExtractor extractor = new OTPExtractor(List.of(OTPTemplate.anyDigits()));
+        String[] bodies = {
+                "Your verification code is 482913",
+                "Code 123 then 4567",
+                "1234567 is too long, 12345 is not",
+                "abc1234 def_5678 9012",
+                "12-3456-78",
+                "Use 0042.",
+                "\u0664\u0665\u0666\u0667 and 7890",
+                "no code here",
+                "",
+        };
+        for (String body : bodies) {
+            assertEquals(legacy(body), extractor.extract(null, body), body);
+        }
+
+        // Random bodies over the characters that decide word boundaries
+        Random random = new Random(17);
+        String alphabet = "0123456789ab_ -:.";
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder body = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int j = 0; j < length; j++) {
+                body.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertEquals(legacy(body.toString()), extractor.extract(null, body.toString()), body.toString());
+        }
+    }
+
+    @Test
+    void takesTheCodeAfterThePrefix() {
+        OTPExtractor extractor = new OTPExtractor(List.of(template(null, "code is", null)));
+
+        assertEquals("839201", extractor.extract(SENDER, "Order 12345: your code is 839201"));
+        assertEquals("839201", extractor.extract(SENDER, "Your CODE IS: 839201."));
+        assertNull(extractor.extract(SENDER, "Order 12345 has shipped"));
+    }
+
+    @Test
+    void ignoresAPrefixInsideAWord() {
+        OTPExtractor extractor = new OTPExtractor(List.of(template(null, "code", null)));
+
+        assertNull(extractor.extract(SENDER, "Scan barcode 123456 at the till"));
+        assertNull(extractor.extract(SENDER, "Your codes 123456 expire"));
+        assertEquals("839201", extractor.extract(SENDER, "Scan barcode 123456, then enter code 839201"));
+    }
+
+    @Test
+    void takesTheCodeBeforeTheSuffix() {
+        OTPExtractor extractor = new OTPExtractor(List.of(template(null, null, "is your code")));
+
+        assertEquals("839201", extractor.extract(SENDER, "Order 12345: 839201 is your code"));
+        assertNull(extractor.extract(SENDER, "Order 12345: 839201 is your order"));
+    }
+
+    @Test
+    void requiresTheSuffixAfterAPrefixedCode() {
+        OTPExtractor extractor = new OTPExtractor(List.of(template(null, "code", "expires")));
+
+        assertEquals("839201", extractor.extract(SENDER, "code 111111 is old, code 839201 expires in 5 minutes"));
+        assertNull(extractor.extract(SENDER, "code 111111 is old"));
+    }
+
+    @Test
+    void triesTheSendersTemplatesFirst() {
+        OTPExtractor extractor = new OTPExtractor(List.of(
+                OTPTemplate.anyDigits(),
+                template(SENDER, "code is", null)));
+        String body = "Order 12345: your code is 839201";
+
+        assertEquals("839201", extractor.extract(SENDER, body));
+        assertEquals("12345", extractor.extract("+15005550099", body));
+        assertEquals("12345", extractor.extract(null, body));
+    }
+
+    @Test
+    void matchesAlphanumericCodesWithADigit() {
+        OTPExtractor extractor = new OTPExtractor(List.of(
+                new OTPTemplate(null, "code", null, OTPTemplate.Charset.ALPHANUMERIC, 6, 6, null)));
+
+        assertEquals("A7K2Q9", extractor.extract(SENDER, "Your code A7K2Q9"));
+        assertNull(extractor.extract(SENDER, "Your code ABCDEF"));
+    }
+
+    @Test
+    void takesGroupOneOfARegexTemplate() {
+        OTPExtractor extractor = new OTPExtractor(List.of(
+                new OTPTemplate(null, null, null, OTPTemplate.Charset.DIGITS, 4, 6, "PIN\\[(\\d+)\\]")));
+
+        assertEquals("9081", extractor.extract(SENDER, "Order 12345 PIN[9081]"));
+    }
+
+    private static OTPTemplate template(String sender, String prefix, String suffix) {
+        return new OTPTemplate(sender, prefix, suffix, OTPTemplate.Charset.DIGITS, 4, 6, null);
+    }
+
+    private static String legacy(String body) {
+        Matcher matcher = LEGACY.matcher(body);
+        return matcher.find() ? matcher.group() : null;
+    }
+}
@@ -0,0 +1,386 @@
+package twilio;
+
+import burp.FakeMontoya;
+import burp.api.montoya.MontoyaApi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import utils.AsyncLogger;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives {@link OTPHandler} against a {@link FakeTwilioServer}: paging through listings,
+ * recovering from throttling and server errors, the circuit breaker around them, the OTP
+ * cache and its refresh-ahead, the per-code use budget and the shard state saved across reloads.
+ */
+class OTPHandlerTwilioTest {
+    private static final String FROM_NUMBER = "+15005550006";
+    private static final String TO_NUMBER = "+15005550001";
+
+    private FakeTwilioServer twilio;
+    private MontoyaApi api;
+    private AsyncLogger log;
+    private OTPHandler otpHandler;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        twilio = new FakeTwilioServer();
+        api = FakeMontoya.api();
+        log = new AsyncLogger(api.logging());
+        otpHandler = new OTPHandler(api, log);
+        otpHandler.updateSettings("ACtest", "token", FROM_NUMBER, TO_NUMBER);
+        otpHandler.updateBaseUrl(twilio.baseUrl());
+        otpHandler.updateTransportSettings(TwilioTransport.Mode.JDK_HTTP2, 5000, 4);
+        // No caching, so every call reaches the fake
+        otpHandler.updateCacheSettings(0, 300);
+    }
+
+    @AfterEach
+    void tearDown() {
+        otpHandler.shutdown();
+        log.shutdown();
+        twilio.close();
+    }
+
+    @Test
+    void followsNextPageUntilAnOtp() throws Exception {
+        Instant sentAt = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(60);
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", sentAt);
+        // A full first page of newer messages without a code
+        for (int i = 0; i < 24; i++) {
+            twilio.addMessage("SMchat" + i, FROM_NUMBER, TO_NUMBER, "Thanks, see you soon", sentAt.plusSeconds(i + 1));
+        }
+
+        assertEquals("482913", fetch());
+        assertEquals(2, twilio.getRequestCount());
+    }
+
+    @Test
+    void relistsPagesAfterAFailedPage() throws Exception {
+        Instant sentAt = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(60);
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", sentAt);
+        for (int i = 0; i < 24; i++) {
+            twilio.addMessage("SMchat" + i, FROM_NUMBER, TO_NUMBER, "Thanks, see you soon", sentAt.plusSeconds(i + 1));
+        }
+        // The first page is listed, the second fails
+        twilio.script(FakeTwilioServer.Fault.NONE, FakeTwilioServer.Fault.SERVER_ERROR);
+
+        assertThrows(ExecutionException.class, this::fetch);
+        assertNull(otpHandler.getShards().get(0).getWatermark());
+
+        // The messages on the failed page are still listed, not skipped as already seen
+        assertEquals("482913", fetch());
+        assertEquals(4, twilio.getRequestCount());
+        assertEquals(sentAt.plusSeconds(24), otpHandler.getShards().get(0).getWatermark());
+    }
+
+    @Test
+    void keepsTheWatermarkWhenThePageLimitIsReached() throws Exception {
+        Instant sentAt = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(600);
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", sentAt);
+        for (int i = 0; i < 120; i++) {
+            twilio.addMessage("SMchat" + i, FROM_NUMBER, TO_NUMBER, "Thanks, see you soon", sentAt.plusSeconds(i + 1));
+        }
+
+        assertThrows(ExecutionException.class, this::fetch);
+        int requests = twilio.getRequestCount();
+        assertNull(otpHandler.getShards().get(0).getWatermark());
+
+        // Nothing was marked as seen, so the next fetch pages just as far again
+        assertThrows(ExecutionException.class, this::fetch);
+        assertEquals(requests * 2, twilio.getRequestCount());
+    }
+
+    @Test
+    void skipsMessagesForOtherNumbers() throws Exception {
+        Instant sentAt = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(10);
+        twilio.addMessage("SMmine", FROM_NUMBER, TO_NUMBER, "Your verification code is 111111", sentAt);
+        twilio.addMessage("SMother", "+15005550099", TO_NUMBER, "Your verification code is 999999", sentAt.plusSeconds(1));
+
+        assertEquals("111111", fetch());
+    }
+
+    @Test
+    void waitsOutRetryAfterFromA429() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        twilio.setRetryAfterSeconds(1);
+        twilio.script(FakeTwilioServer.Fault.RATE_LIMITED);
+
+        ExecutionException throttled = assertThrows(ExecutionException.class, this::fetch);
+        assertTrue(messageChain(throttled).contains("429"), messageChain(throttled));
+        assertEquals(1L, otpHandler.getMetrics().getCounters().get("rateLimited"));
+
+        // The next request is held back until Retry-After has passed
+        long startedAt = System.nanoTime();
+        assertEquals("482913", fetch());
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        assertTrue(waitedMillis >= 900, "waited only " + waitedMillis + "ms");
+        assertEquals(2, twilio.getRequestCount());
+    }
+
+    @Test
+    void recoversAfterAServerError() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        twilio.script(FakeTwilioServer.Fault.SERVER_ERROR);
+
+        ExecutionException failed = assertThrows(ExecutionException.class, this::fetch);
+        assertTrue(messageChain(failed).contains("500"), messageChain(failed));
+        assertEquals(1L, otpHandler.getMetrics().getCounters().get("failures.HTTP_STATUS"));
+
+        assertEquals("482913", fetch());
+        assertEquals(CircuitBreaker.State.CLOSED, otpHandler.getCircuitBreaker().getState());
+    }
+
+    @Test
+    void opensTheCircuitAfterRepeatedServerErrors() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        otpHandler.updateRateLimitSettings(5, 5, 5000, 1, 30, false);
+        twilio.script(FakeTwilioServer.Fault.SERVER_ERROR);
+
+        assertThrows(ExecutionException.class, this::fetch);
+        assertEquals(CircuitBreaker.State.OPEN, otpHandler.getCircuitBreaker().getState());
+
+        // While the circuit is open, calls fail without reaching Twilio
+        ExecutionException open = assertThrows(ExecutionException.class, this::fetch);
+        assertTrue(messageChain(open).contains("circuit is open"), messageChain(open));
+        assertEquals(1, twilio.getRequestCount());
+    }
+
+    @Test
+    void servesTheLastOtpWhenTheDeadlineIsMissed() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        assertEquals("482913", fetch());
+        otpHandler.updateDeadlineSettings(200, OTPHandler.DeadlinePolicy.SERVE_STALE);
+        twilio.setLatencyMillis(1000);
+
+        assertEquals("482913", otpHandler.acquireOTP(null));
+        assertEquals(1L, otpHandler.getMetrics().getCounters().get("staleServes"));
+    }
+
+    @Test
+    void passesThroughWhenTheLastOtpIsPastItsMaxAge() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        assertEquals("482913", fetch());
+        otpHandler.updateCacheSettings(0, 2);
+        otpHandler.updateDeadlineSettings(200, OTPHandler.DeadlinePolicy.SERVE_STALE);
+        twilio.setLatencyMillis(1000);
+
+        assertNull(otpHandler.acquireOTP(null));
+    }
+
+    @Test
+    void releasesTheProbeWhenItsRateLimitWaitIsInterrupted() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        otpHandler.updateRateLimitSettings(5, 5, 5000, 1, 1, false);
+        twilio.script(FakeTwilioServer.Fault.SERVER_ERROR);
+        assertThrows(ExecutionException.class, this::fetch);
+        Thread.sleep(1100);
+
+        // The half-open probe is admitted, then interrupted while it waits for the rate limit
+        otpHandler.getRateLimiter().backOff(3000);
+        otpHandler.getRateLimiter().setSleeper(nanos -> {
+            throw new InterruptedException();
+        });
+
+        assertThrows(ExecutionException.class, this::fetch);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, otpHandler.getCircuitBreaker().getState());
+        assertEquals(1, twilio.getRequestCount());
+        // The next probe is let through
+        assertDoesNotThrow(otpHandler.getCircuitBreaker()::acquire);
+    }
+
+    @Test
+    void servesTheLastOtpWhileTheCircuitIsOpen() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        assertEquals("482913", fetch());
+        otpHandler.updateRateLimitSettings(5, 5, 5000, 1, 30, true);
+        twilio.script(FakeTwilioServer.Fault.SERVER_ERROR);
+        assertThrows(ExecutionException.class, this::fetch);
+
+        assertEquals("482913", fetch());
+        assertEquals(2, twilio.getRequestCount());
+    }
+
+    @Test
+    void failsWhileTheCircuitIsOpenOnceTheLastOtpIsPastItsMaxAge() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        assertEquals("482913", fetch());
+        otpHandler.updateCacheSettings(0, 2);
+        otpHandler.updateRateLimitSettings(5, 5, 5000, 1, 30, true);
+        twilio.script(FakeTwilioServer.Fault.SERVER_ERROR);
+        assertThrows(ExecutionException.class, this::fetch);
+
+        ExecutionException open = assertThrows(ExecutionException.class, this::fetch);
+        assertTrue(messageChain(open).contains("circuit is open"), messageChain(open));
+    }
+
+    @Test
+    void leasesACodeAtMostTheUseBudget() throws Exception {
+        twilio.addMessage("SMfirst", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        otpHandler.updateCacheSettings(60, 300);
+        otpHandler.updateUseBudget(2);
+        otpHandler.updateFreshModeSettings(false, 10, 250);
+
+        assertEquals("482913", lease());
+        assertEquals("482913", lease());
+        assertEquals(1, twilio.getRequestCount());
+
+        // The third request waits for the next code instead of reusing the spent one
+        CompletableFuture<String> third = otpHandler.getLatestOTPAsync(null);
+        Thread.sleep(500);
+        assertFalse(third.isDone());
+        assertEquals(1L, otpHandler.getMetrics().getCounters().get("leaseWaits"));
+
+        twilio.addMessage("SMsecond", FROM_NUMBER, TO_NUMBER, "Your verification code is 739104", Instant.now());
+        assertEquals("739104", third.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void startsAFreshBudgetForANewMessage() throws Exception {
+        twilio.addMessage("SMfirst", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        otpHandler.updateCacheSettings(60, 300);
+        otpHandler.updateUseBudget(2);
+        otpHandler.updateFreshModeSettings(false, 10, 250);
+        assertEquals("482913", lease());
+        assertEquals("482913", lease());
+
+        twilio.addMessage("SMsecond", FROM_NUMBER, TO_NUMBER, "Your verification code is 739104", Instant.now());
+        assertEquals("739104", lease());
+        assertEquals("739104", lease());
+        assertEquals(2, otpHandler.getShards().get(0).getLeaseLedger().getLatestUses());
+
+        // Both of the new code's uses are spent too
+        CompletableFuture<String> fifth = otpHandler.getLatestOTPAsync(null);
+        Thread.sleep(500);
+        assertFalse(fifth.isDone());
+    }
+
+    @Test
+    void coalescesConcurrentMissesIntoOneTwilioCall() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        otpHandler.updateCacheSettings(60, 300);
+        twilio.setLatencyMillis(300);
+
+        int callers = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                    return fetch();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        }
+        start.countDown();
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("482913", result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, twilio.getRequestCount());
+        assertEquals(1L, otpHandler.getShards().get(0).getCache().getMisses());
+    }
+
+    @Test
+    void refetchesOnceTheTtlExpires() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        otpHandler.updateCacheSettings(1, 300);
+
+        assertEquals("482913", fetch());
+        assertEquals("482913", fetch());
+        assertEquals(1, twilio.getRequestCount());
+
+        Thread.sleep(1100);
+        assertEquals("482913", fetch());
+        assertEquals(2, twilio.getRequestCount());
+    }
+
+    @Test
+    void restoresTheShardStateAfterAReload() throws Exception {
+        Instant sentAt = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(5);
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", sentAt);
+        otpHandler.updateCacheSettings(60, 300);
+        assertEquals("482913", fetch());
+        otpHandler.shutdown();
+
+        // A new handler over the same preferences, as after reloading the extension
+        otpHandler = new OTPHandler(api, log);
+        assertEquals("482913", fetch());
+        assertEquals(1, twilio.getRequestCount());
+
+        OTPShard shard = otpHandler.getShards().get(0);
+        assertEquals("SMcode", shard.getCursor().messageSid());
+        assertEquals(sentAt, shard.getCursor().dateSent());
+        assertEquals(sentAt, shard.getWatermark());
+    }
+
+    @Test
+    void resumesListingFromTheRestoredWatermark() throws Exception {
+        Instant sentAt = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(5);
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", sentAt);
+        assertEquals("482913", fetch());
+        otpHandler.shutdown();
+
+        // Without caching the restored code is not served, but older messages are not listed again
+        twilio.clearMessages();
+        twilio.addMessage("SMolder", FROM_NUMBER, TO_NUMBER, "Your verification code is 111111", sentAt.minusSeconds(30));
+        otpHandler = new OTPHandler(api, log);
+        assertEquals("482913", fetch());
+        assertEquals(2, twilio.getRequestCount());
+    }
+
+    @Test
+    void refreshesTheCachedOtpBeforeItExpires() throws Exception {
+        twilio.addMessage("SMcode", FROM_NUMBER, TO_NUMBER, "Your verification code is 482913", Instant.now().minusSeconds(5));
+        otpHandler.updateCacheSettings(2, 300);
+        otpHandler.updateRefreshAheadSettings(true, 50, 60);
+        long fetchedAt = System.nanoTime();
+        assertEquals("482913", fetch());
+        otpHandler.recordSessionTraffic();
+
+        while (twilio.getRequestCount() < 2) {
+            assertTrue(System.nanoTime() - fetchedAt < TimeUnit.SECONDS.toNanos(2), "no refresh before the TTL expired");
+            Thread.sleep(20);
+        }
+        assertEquals(1L, otpHandler.getMetrics().getCounters().get("refreshAhead.refreshes"));
+
+        // Callers keep hitting the refreshed code
+        assertEquals("482913", fetch());
+        assertEquals(2, twilio.getRequestCount());
+        assertEquals(1L, otpHandler.getShards().get(0).getCache().getMisses());
+    }
+
+    private String lease() throws Exception {
+        return otpHandler.getLatestOTPAsync(null).get(10, TimeUnit.SECONDS);
+    }
+
+    private String fetch() throws Exception {
+        return otpHandler.getLatestOTPAsync().get(10, TimeUnit.SECONDS);
+    }
+
+    private static String messageChain(Throwable error) {
+        StringBuilder messages = new StringBuilder();
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            messages.append(cause.getMessage()).append(" / ");
+        }
+        return messages.toString();
+    }
+}
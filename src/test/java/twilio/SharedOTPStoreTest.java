@@ -0,0 +1,102 @@
+package twilio;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Exercises {@link SharedOTPStore} through its file, including a writer that died mid-update and
+ * left a slot's sequence number odd.
+ */
+class SharedOTPStoreTest {
+    // Mirrors the store's file layout
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 256;
+    private static final int SLOT_COUNT = 64;
+
+    private static final FetchedOTP OTP = new FetchedOTP("482913", "SMcode", Instant.parse("2024-06-11T10:15:30Z"));
+
+    private Path directory;
+    private SharedOTPStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("shared-otp-store");
+        store = SharedOTPStore.open(directory.resolve("shared-otp.dat"));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(directory.resolve("shared-otp.dat"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void sharesTheUseBudgetAcrossInstances() throws Exception {
+        SharedOTPStore other = SharedOTPStore.open(store.getPath());
+        store.slot("+15005550006|+15005550001").publish(OTP, 1000L);
+
+        SharedOTPStore.Slot mine = store.slot("+15005550006|+15005550001");
+        SharedOTPStore.Slot theirs = other.slot("+15005550006|+15005550001");
+        assertEquals(OTP, theirs.read().otp());
+        assertTrue(mine.tryLease(OTP, 2, new OTPLeaseLedger()));
+        assertTrue(theirs.tryLease(OTP, 2, new OTPLeaseLedger()));
+        assertFalse(mine.tryLease(OTP, 2, new OTPLeaseLedger()));
+    }
+
+    @Test
+    void fallsBackToTheLocalLedgerWhileAWriterIsStuck() throws Exception {
+        SharedOTPStore.Slot slot = store.slot("+15005550006|+15005550001");
+        slot.publish(OTP, 1000L);
+        stallEveryWriter();
+
+        OTPLeaseLedger fallback = new OTPLeaseLedger();
+        boolean leased = CompletableFuture.supplyAsync(() -> slot.tryLease(OTP, 1, fallback)).get(5, TimeUnit.SECONDS);
+
+        assertTrue(leased);
+        assertEquals(1, fallback.getLatestUses());
+        assertNull(slot.read());
+    }
+
+    @Test
+    void takesOverFromAStalledWriter() throws Exception {
+        SharedOTPStore.Slot slot = store.slot("+15005550006|+15005550001");
+        slot.publish(OTP, 1000L);
+        stallEveryWriter();
+
+        FetchedOTP next = new FetchedOTP("551177", "SMnext", Instant.parse("2024-06-11T10:16:30Z"));
+        CompletableFuture.runAsync(() -> slot.publish(next, 2000L)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(next, slot.read().otp());
+        assertTrue(slot.tryLease(next, 1, new OTPLeaseLedger()));
+        assertFalse(slot.tryLease(next, 1, new OTPLeaseLedger()));
+    }
+
+    // Leaves every slot's sequence number odd, as a writer that died mid-update would
+    private void stallEveryWriter() throws Exception {
+        try (FileChannel channel = FileChannel.open(store.getPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + SLOT_COUNT * SLOT_SIZE);
+            buffer.order(ByteOrder.nativeOrder());
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                int sequence = HEADER_SIZE + i * SLOT_SIZE;
+                buffer.putLong(sequence, buffer.getLong(sequence) | 1);
+            }
+            buffer.force();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package twilio;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks {@link TotpSource} against the RFC 4226 Appendix D and RFC 6238 Appendix B test vectors.
+ */
+class TotpSourceTest {
+    private static final byte[] SHA1_SEED = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SHA256_SEED = "12345678901234567890123456789012".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SHA512_SEED = "1234567890123456789012345678901234567890123456789012345678901234".getBytes(StandardCharsets.US_ASCII);
+
+    private static final long[] TIMES_SECONDS = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+
+    @Test
+    void matchesRfc6238VectorsForSha1() {
+        assertVectors(SHA1_SEED, TotpSource.Algorithm.SHA1,
+                "94287082", "07081804", "14050471", "89005924", "69279037", "65353130");
+    }
+
+    @Test
+    void matchesRfc6238VectorsForSha256() {
+        assertVectors(SHA256_SEED, TotpSource.Algorithm.SHA256,
+                "46119246", "68084774", "67062674", "91819424", "90698825", "77737706");
+    }
+
+    @Test
+    void matchesRfc6238VectorsForSha512() {
+        assertVectors(SHA512_SEED, TotpSource.Algorithm.SHA512,
+                "90693936", "25091201", "99943326", "93441116", "38618901", "47863826");
+    }
+
+    @Test
+    void matchesRfc4226HotpVectors() {
+        TotpSource source = new TotpSource(SHA1_SEED, 6, 30, TotpSource.Algorithm.SHA1, 0);
+        String[] expected = {"755224", "287082", "359152", "969429", "338314", "254676", "287922", "162583", "399871", "520489"};
+        for (int counter = 0; counter < expected.length; counter++) {
+            assertEquals(expected[counter], source.hotp(counter), "counter " + counter);
+        }
+    }
+
+    @Test
+    void promotesTheNextCodeAtTheStepBoundary() {
+        TotpSource source = new TotpSource(SHA1_SEED, 8, 30, TotpSource.Algorithm.SHA1, 0);
+
+        assertEquals("07081804", source.codeAt(1111111109_000L));
+        assertEquals("14050471", source.codeAt(1111111111_000L));
+        // Back to an earlier step recomputes rather than serving the cached pair
+        assertEquals("07081804", source.codeAt(1111111109_000L));
+    }
+
+    @Test
+    void shiftsTheClockByTheSkew() {
+        TotpSource ahead = new TotpSource(SHA1_SEED, 8, 30, TotpSource.Algorithm.SHA1, 2);
+        TotpSource behind = new TotpSource(SHA1_SEED, 8, 30, TotpSource.Algorithm.SHA1, -2);
+
+        // 1111111109 is one second before a step boundary, 1111111111 one second after it
+        assertEquals("14050471", ahead.codeAt(1111111109_000L));
+        assertEquals("07081804", behind.codeAt(1111111111_000L));
+    }
+
+    @Test
+    void decodesBase32Secrets() {
+        assertArrayEquals(SHA1_SEED, TotpSource.decodeBase32("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ"));
+        assertArrayEquals(SHA1_SEED, TotpSource.decodeBase32("gezd gnbv-gy3t qojq gezd gnbv gy3t qojq===="));
+        assertEquals("94287082", TotpSource.fromBase32("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", 8, 30, TotpSource.Algorithm.SHA1, 0).codeAt(59_000L));
+        assertThrows(IllegalArgumentException.class, () -> TotpSource.decodeBase32("GEZD1"));
+        assertThrows(IllegalArgumentException.class, () -> TotpSource.decodeBase32("===="));
+    }
+
+    private static void assertVectors(byte[] seed, TotpSource.Algorithm algorithm, String... expected) {
+        TotpSource source = new TotpSource(seed, 8, 30, algorithm, 0);
+        for (int i = 0; i < TIMES_SECONDS.length; i++) {
+            assertEquals(expected[i], source.codeAt(TIMES_SECONDS[i] * 1000L), algorithm + " at T=" + TIMES_SECONDS[i]);
+        }
+    }
+}
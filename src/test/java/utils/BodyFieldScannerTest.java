@@ -0,0 +1,124 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that {@link BodyFieldScanner} finds, reads and replaces exactly what the BODY_REGEX
+ * pattern {@code "name"\s*:\s*"(.*?)"} does, on hand-picked and randomly generated bodies.
+ */
+class BodyFieldScannerTest {
+    private static final String OTP = "482913";
+
+    // Fragments the random bodies are built from, weighted towards the ones that make near-misses
+    private static final String[] FRAGMENTS = {
+            "\"otp\"", "\"otp\"", "\"otp\"", "\"otp_id\"", "\"xotp\"", "otp", "\"a.b\"", "\"aXb\"",
+            ":", ":", " ", "\t", "\n", "\r", "\u000B", "\f",
+            "\"", "\"", "\\\"", "\\", "{", "}", "[", "]", ",",
+            "1", "abc", "\u00e9", "\u00ff", "\u0085"
+    };
+
+    @Test
+    void matchesRegexOnHandPickedBodies() {
+        String[] bodies = {
+                "{\"otp\":\"123456\"}",
+                "{\"otp\" : \"123456\"}",
+                "{\"otp\"\t:\n\"123456\"}",
+                "{\"otp\"\r\n:\u000B\f \"123456\"}",
+                // Escaped quotes: the value ends at the first quote, escaped or not, as with .*?
+                "{\"otp\":\"12\\\"34\"}",
+                "{\"otp\":\"\\\"\"}",
+                "{\"otp\":\"\"}",
+                // Values may span lines
+                "{\"otp\":\"12\n34\"}",
+                // The name as a value, a longer name and a name without a colon come first
+                "{\"name\":\"otp\",\"otp\":\"1\"}",
+                "{\"otp_id\":\"9\",\"otp\":\"1\"}",
+                "{\"otp\" \"x\", \"otp\":\"1\"}",
+                "{\"otp\": 5, \"otp\": \"1\"}",
+                // No closing quote
+                "{\"otp\":\"123",
+                "{\"otp\":",
+                "\"otp\"",
+                "",
+                "{\"user\":{\"otp\":\"1\"},\"otp\":\"2\"}",
+                "{\"otp\":\"\u00e9t\u00e9\"}"
+        };
+        for (String body : bodies) {
+            assertEquivalent("otp", body);
+        }
+    }
+
+    @Test
+    void quotesRegexMetacharactersInTheName() {
+        assertEquivalent("a.b", "{\"aXb\":\"1\",\"a.b\":\"2\"}");
+        assertEquivalent("a.b", "{\"aXb\":\"1\"}");
+    }
+
+    @Test
+    void matchesRegexOnRandomBodies() {
+        Random random = new Random(20240611L);
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder body = new StringBuilder();
+            int fragments = random.nextInt(24);
+            for (int j = 0; j < fragments; j++) {
+                body.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertEquivalent("otp", body.toString());
+            assertEquivalent("a.b", body.toString());
+        }
+    }
+
+    @Test
+    void replacesOnlyTheMatchedPair() {
+        BodyFieldScanner scanner = new BodyFieldScanner("otp");
+        byte[] body = "{\"user\":\"bob\", \"otp\" :  \"000000\", \"next\":1}".getBytes(StandardCharsets.ISO_8859_1);
+
+        BodyFieldScanner.Match match = scanner.find(body);
+
+        assertNotNull(match);
+        assertEquals("000000", scanner.value(body, match));
+        assertEquals("{\"user\":\"bob\", \"otp\":\"" + OTP + "\", \"next\":1}",
+                new String(scanner.replace(body, match, OTP), StandardCharsets.ISO_8859_1));
+    }
+
+    // Bodies are compared as ISO-8859-1, as Burp's bodyToString() decodes them, so string and byte offsets agree
+    private static void assertEquivalent(String name, String body) {
+        Pattern pattern = new InjectionRule(null, null, null, RuleType.BODY_REGEX, name).getReplacementPattern();
+        BodyFieldScanner scanner = new BodyFieldScanner(name);
+        byte[] bytes = body.getBytes(StandardCharsets.ISO_8859_1);
+
+        Matcher matcher = pattern.matcher(body);
+        BodyFieldScanner.Match match = scanner.find(bytes);
+        if (!matcher.find()) {
+            assertNull(match, () -> "scanner matched where the regex did not: " + printable(body));
+            return;
+        }
+
+        assertNotNull(match, () -> "scanner missed a regex match: " + printable(body));
+        assertEquals(matcher.start(), match.start(), () -> "start differs: " + printable(body));
+        assertEquals(matcher.end(), match.end(), () -> "end differs: " + printable(body));
+        assertEquals(matcher.group(1), scanner.value(bytes, match), () -> "value differs: " + printable(body));
+
+        String replaced = matcher.replaceFirst(Matcher.quoteReplacement("\"" + name + "\":\"" + OTP + "\""));
+        assertArrayEquals(replaced.getBytes(StandardCharsets.ISO_8859_1), scanner.replace(bytes, match, OTP),
+                "replacement differs: " + printable(body));
+    }
+
+    private static String printable(String body) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : body.toCharArray()) {
+            escaped.append(c < 0x20 || c > 0x7E ? String.format("\\u%04x", (int) c) : String.valueOf(c));
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package utils;
+
+import burp.FakeMontoya;
+import burp.api.montoya.MontoyaApi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.prefs.Preferences;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Saving, parsing and hot-reloading injection rules, and the snapshot scanner threads read them from.
+ */
+class ConfigurationParserTest {
+    private static final String PREFERENCES_NODE = "TwilioOTPAuthenticate-test-config";
+    private static final long RELOAD_TIMEOUT_MILLIS = 10_000;
+
+    private Preferences node;
+    private AsyncLogger log;
+    private ConfigurationParser parser;
+    private Path directory;
+    private Path configFile;
+    private long modifiedAt = System.currentTimeMillis() - 60_000;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MontoyaApi api = FakeMontoya.api();
+        node = Preferences.userRoot().node(PREFERENCES_NODE);
+        log = new AsyncLogger(api.logging());
+        parser = new ConfigurationParser(api, node, log);
+        directory = Files.createTempDirectory("otp-config");
+        configFile = directory.resolve("rules.json");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        parser.shutdown();
+        log.shutdown();
+        node.removeNode();
+        Files.deleteIfExists(configFile);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void rejectsNullRules() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parseRules("null"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseRules("[null]"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseRules("[{\"ruleType\":\"HEADER\",\"parameterName\":\"X-OTP\"}, null]"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parseRules("[{\"parameterName\":\"X-OTP\"}]"));
+    }
+
+    @Test
+    void restoresSavedRules() {
+        parser.saveRules(List.of(new InjectionRule("target.example", "/login", "POST", RuleType.HEADER, "X-OTP")));
+
+        ConfigurationParser restored = new ConfigurationParser(FakeMontoya.api(), node, log);
+        try {
+            assertEquals(1, restored.getRules().size());
+            assertEquals(parser.getRules().get(0).toMap(), restored.getRules().get(0).toMap());
+        } finally {
+            restored.shutdown();
+        }
+    }
+
+    @Test
+    void reloadsTheWatchedFileAndKeepsWatchingPastInvalidContent() throws Exception {
+        writeConfig("[{\"ruleType\":\"HEADER\",\"parameterName\":\"X-OTP\"}]");
+        parser.watchConfigFile(configFile.toString());
+        awaitRule(RuleType.HEADER, "X-OTP");
+
+        // Neither a null document nor a null rule replaces the rules or stops the watcher
+        writeConfig("null");
+        Thread.sleep(2500);
+        writeConfig("[null]");
+        Thread.sleep(2500);
+        assertEquals("X-OTP", parser.getRules().get(0).getParameterName());
+
+        writeConfig("[{\"ruleType\":\"URL\",\"parameterName\":\"otp\"}]");
+        awaitRule(RuleType.URL, "otp");
+    }
+
+    @Test
+    void stopsWatchingOnABlankPath() throws Exception {
+        writeConfig("[{\"ruleType\":\"HEADER\",\"parameterName\":\"X-OTP\"}]");
+        parser.watchConfigFile(configFile.toString());
+        awaitRule(RuleType.HEADER, "X-OTP");
+
+        parser.watchConfigFile(" ");
+
+        assertNull(parser.getConfigFile());
+        assertNull(node.get("configFile", null));
+    }
+
+    @Test
+    void swapsTheRulesAsOneSnapshot() throws Exception {
+        List<InjectionRule> first = List.of(
+                new InjectionRule(InjectionRule.ANY, "/", InjectionRule.ANY, RuleType.HEADER, "X-OTP"),
+                new InjectionRule(InjectionRule.ANY, "/login", InjectionRule.ANY, RuleType.HEADER, "X-OTP-2"));
+        List<InjectionRule> second = List.of(
+                new InjectionRule(InjectionRule.ANY, "/", InjectionRule.ANY, RuleType.URL, "otp"),
+                new InjectionRule(InjectionRule.ANY, "/login", InjectionRule.ANY, RuleType.URL, "otp2"));
+        AtomicInteger notified = new AtomicInteger();
+        parser.addRulesListener(rules -> notified.incrementAndGet());
+        parser.saveRules(first);
+
+        AtomicReference<String> torn = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 200_000 && torn.get() == null; i++) {
+                List<InjectionRule> matched = parser.getDispatchIndex().match("target.example", "/login", "POST");
+                if (matched.size() != 2 || matched.get(0).getRuleType() != matched.get(1).getRuleType()) {
+                    torn.set("matched " + matched);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200; i++) {
+            parser.saveRules(i % 2 == 0 ? second : first);
+        }
+        reader.join();
+
+        assertNull(torn.get(), torn::get);
+        assertEquals(201, notified.get());
+    }
+
+    // Distinct modification times, so a rewrite within the clock's granularity is still seen
+    private void writeConfig(String json) throws Exception {
+        Files.writeString(configFile, json, StandardCharsets.UTF_8);
+        modifiedAt += 1000;
+        Files.setLastModifiedTime(configFile, FileTime.fromMillis(modifiedAt));
+    }
+
+    private void awaitRule(RuleType type, String name) throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + RELOAD_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < giveUpAt) {
+            List<InjectionRule> rules = parser.getRules();
+            if (rules.size() == 1 && rules.get(0).getRuleType() == type && name.equals(rules.get(0).getParameterName())) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("rules were not reloaded to " + type + " " + name + ": " + parser.getRules());
+    }
+}
@@ -0,0 +1,64 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RuleDispatchIndexTest {
+
+    @Test
+    void matchesPathPrefixesSegmentWise() {
+        InjectionRule api = rule("*", "/api", "*");
+        InjectionRule login = rule("*", "/api/v1/login", "*");
+        RuleDispatchIndex index = RuleDispatchIndex.compile(List.of(api, login));
+
+        assertEquals(List.of(api), index.match("target.example", "/api", "POST"));
+        assertEquals(List.of(api), index.match("target.example", "/api/v2/login", "POST"));
+        assertEquals(List.of(api, login), index.match("target.example", "/api/v1/login/otp", "POST"));
+        assertEquals(List.of(api, login), index.match("target.example", "//api//v1/login?next=/home", "POST"));
+        assertEquals(List.of(), index.match("target.example", "/apiv1/login", "POST"));
+        assertEquals(List.of(), index.match("target.example", "/?api/v1/login", "POST"));
+    }
+
+    @Test
+    void combinesHostAndMethodScopesInConfigurationOrder() {
+        InjectionRule anyHostPost = rule("*", "/", "POST");
+        InjectionRule targetOnly = rule("Target.Example", "/login", "*");
+        InjectionRule anyHostAnyMethod = rule("*", "/login", "*");
+        RuleDispatchIndex index = RuleDispatchIndex.compile(List.of(anyHostPost, targetOnly, anyHostAnyMethod));
+
+        assertEquals(List.of(anyHostPost, targetOnly, anyHostAnyMethod), index.match("TARGET.example", "/login", "post"));
+        assertEquals(List.of(targetOnly, anyHostAnyMethod), index.match("target.example", "/login", "GET"));
+        assertEquals(List.of(anyHostPost, anyHostAnyMethod), index.match("other.example", "/login", "POST"));
+        assertEquals(List.of(anyHostPost), index.match(null, "/", "POST"));
+    }
+
+    @Test
+    void findsEverySiblingSegment() {
+        List<InjectionRule> rules = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rules.add(rule("*", "/tenant" + i + "/login", "*"));
+        }
+        RuleDispatchIndex index = RuleDispatchIndex.compile(rules);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(List.of(rules.get(i)), index.match("target.example", "/tenant" + i + "/login", "POST"));
+        }
+        assertEquals(List.of(), index.match("target.example", "/tenant100/login", "POST"));
+    }
+
+    @Test
+    void returnsTheSameListForEveryLookup() {
+        RuleDispatchIndex index = RuleDispatchIndex.compile(List.of(rule("*", "/api", "POST")));
+
+        assertSame(index.match("target.example", "/api/a", "POST"), index.match("target.example", "/api/b", "POST"));
+    }
+
+    private static InjectionRule rule(String host, String pathPrefix, String method) {
+        return new InjectionRule(host, pathPrefix, method, RuleType.HEADER, "X-OTP");
+    }
+}
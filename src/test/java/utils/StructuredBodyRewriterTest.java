@@ -0,0 +1,234 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Finds, reads and replaces fields with {@link StructuredBodyRewriter} in every body format it
+ * supports, and checks that malformed bodies find nothing.
+ */
+class StructuredBodyRewriterTest {
+    private static final String JSON = "application/json";
+    private static final String FORM = "application/x-www-form-urlencoded";
+    private static final String XML = "application/xml";
+    private static final String OTP = "482913";
+
+    @Test
+    void followsJsonPathsFromTheRoot() {
+        String body = "{\"code\":\"1\",\"auth\":{\"mfa\":{\"code\":\"000000\"}}}";
+
+        assertValue("000000", "$.auth.mfa.code", body, JSON);
+        assertReplaced("{\"code\":\"1\",\"auth\":{\"mfa\":{\"code\":\"" + OTP + "\"}}}", "$.auth.mfa.code", body, JSON);
+        assertValue("1", "$.code", body, JSON);
+        assertNotFound("$.mfa.code", body, JSON);
+    }
+
+    @Test
+    void indexesJsonArrays() {
+        String body = "{\"items\":[{\"id\":1},{\"code\":\"a\"},{\"code\":\"b\"}]}";
+
+        assertValue("b", "$.items[2].code", body, JSON);
+        assertValue("a", "$.items[*].code", body, JSON);
+        assertNotFound("$.items[0].code", body, JSON);
+        assertValue("2", "$[1]", "[1, 2, 3]", JSON);
+    }
+
+    @Test
+    void searchesAnyDepthForDescendantAndBareSelectors() {
+        String body = "{\"user\":{\"devices\":[{\"mfa\":{\"code\":\"000000\"}}]}}";
+
+        assertValue("000000", "$..code", body, JSON);
+        assertValue("000000", "$..mfa.code", body, JSON);
+        assertValue("000000", "code", body, JSON);
+        assertNotFound("$..user.code", body, JSON);
+    }
+
+    @Test
+    void keepsJsonNumbersAsNumbers() {
+        String body = "{\"code\": 123456, \"next\": true}";
+
+        assertValue("123456", "code", body, JSON);
+        assertReplaced("{\"code\": " + OTP + ", \"next\": true}", "code", body, JSON);
+        assertReplaced("{\"code\": \"12ab\", \"next\": true}", "code", body, JSON, "12ab");
+        assertValue("true", "next", body, JSON);
+    }
+
+    @Test
+    void unescapesJsonStrings() {
+        String body = "{\"session\":\"a\\\"b\\\\c\\/d\\u0065\\n\",\"bad\":\"\\u12\\x\"}";
+
+        assertValue("a\"b\\c/de\n", "session", body, JSON);
+        // Malformed escapes are kept as written
+        assertValue("\\u12\\x", "bad", body, JSON);
+        assertReplaced("{\"session\":\"q\\\"\\\\\\u0001\",\"bad\":\"\\u12\\x\"}", "session", body, JSON, "q\"\\\u0001");
+    }
+
+    @Test
+    void findsNothingInMalformedJson() {
+        assertNotFound("code", "{\"code\":\"0000", JSON);
+        assertNotFound("code", "{\"other\" 1, \"code\":\"1\"}", JSON);
+        assertNotFound("code", "{\"other\":1 \"code\":\"1\"}", JSON);
+        assertNotFound("code", "{\"other\":[1,2}, \"code\":\"1\"}", JSON);
+        assertNotFound("code", "{", JSON);
+        assertNotFound("code", "", JSON);
+    }
+
+    @Test
+    void sniffsTheFormatWithoutAContentType() {
+        assertEquals(StructuredBodyRewriter.Format.JSON, StructuredBodyRewriter.formatOf(null, bytes("  {\"a\":1}")));
+        assertEquals(StructuredBodyRewriter.Format.XML, StructuredBodyRewriter.formatOf("", bytes("<a/>")));
+        assertNull(StructuredBodyRewriter.formatOf(null, bytes("a=1")));
+        assertEquals(StructuredBodyRewriter.Format.FORM, StructuredBodyRewriter.formatOf("application/x-www-form-urlencoded; charset=UTF-8", bytes("{}")));
+        assertValue("1", "code", "{\"code\":\"1\"}", null);
+    }
+
+    @Test
+    void readsAndReplacesFormFields() {
+        String body = "otp_id=9&user=bob&otp=12%2B34&x=1";
+
+        assertValue("12+34", "otp", body, FORM);
+        assertReplaced("otp_id=9&user=bob&otp=a+%26b&x=1", "otp", body, FORM, "a &b");
+        assertValue("", "empty", "empty=&otp=1", FORM);
+        assertValue("last", "otp", "x=1&otp=last", FORM);
+        assertValue("v", "two words", "two+words=v", FORM);
+        // Malformed escapes are kept as written
+        assertValue("100%zz off%", "otp", "otp=100%zz+off%", FORM);
+        assertValue("%4", "otp", "otp=%4", FORM);
+        assertValue("a%2", "otp", "x=1&otp=a%2&y=2", FORM);
+        assertNotFound("code", body, FORM);
+        // Only single names address form fields
+        assertNotFound("$.auth.otp", body, FORM);
+    }
+
+    @Test
+    void roundTripsNonAsciiFormValues() {
+        StructuredBodyRewriter rewriter = new StructuredBodyRewriter("otp");
+        byte[] body = bytes("otp=0&next=1");
+        StructuredBodyRewriter.Match match = rewriter.find(body, FORM);
+        byte[] replaced = rewriter.replace(body, match, "caf\u00e9 \u20ac");
+
+        assertEquals("otp=caf%C3%A9+%E2%82%AC&next=1", new String(replaced, StandardCharsets.US_ASCII));
+        assertEquals("caf\u00e9 \u20ac", rewriter.value(replaced, rewriter.find(replaced, FORM)));
+        assertValue("\u00fc", "\u00fc", "%C3%BC=%C3%BC", FORM);
+    }
+
+    @Test
+    void readsAndReplacesMultipartParts() {
+        String contentType = "multipart/form-data; boundary=\"----form 42\"; charset=UTF-8";
+        String body = "------form 42\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"otp\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + "not the code\r\n"
+                + "------form 42\r\n"
+                + "Content-Disposition: form-data; name=\"otp\"\r\n\r\n"
+                + "000000\r\n"
+                + "------form 42--\r\n";
+
+        assertValue("000000", "otp", body, contentType);
+        assertReplaced(body.replace("000000", OTP), "otp", body, contentType);
+        assertNotFound("file_name", body, contentType);
+        assertValue("not the code", "file", body, contentType);
+        assertValue("000000", "otp", body.replace("------form 42", "--plain"), "multipart/form-data; boundary=plain");
+    }
+
+    @Test
+    void findsNothingInMalformedMultipart() {
+        String part = "--b\r\nContent-Disposition: form-data; name=\"otp\"\r\n\r\n000000";
+
+        // No closing delimiter, no blank line after the headers, no boundary
+        assertNotFound("otp", part, "multipart/form-data; boundary=b");
+        assertNotFound("otp", "--b\r\nContent-Disposition: form-data; name=\"otp\"\r\n000000\r\n--b--", "multipart/form-data; boundary=b");
+        assertNotFound("otp", part + "\r\n--b--", "multipart/form-data");
+    }
+
+    @Test
+    void followsXmlElementPaths() {
+        String body = "<?xml version=\"1.0\"?>\n<!-- login -->\n<auth><code>1</code><mfa><code>000000</code></mfa></auth>";
+
+        assertValue("000000", "/auth/mfa/code", body, XML);
+        assertValue("000000", "$.auth.mfa.code", body, XML);
+        assertValue("1", "/auth/code", body, XML);
+        assertValue("1", "//code", body, XML);
+        assertValue("000000", "//mfa/code", body, XML);
+        assertReplaced(body.replace("000000", OTP), "/auth/mfa/code", body, XML);
+        assertNotFound("/mfa/code", body, XML);
+        // An element with children has no text to select
+        assertNotFound("/auth/mfa", body, XML);
+    }
+
+    @Test
+    void selectsXmlAttributes() {
+        String body = "<auth><mfa type='sms' code=\"000000\"/><code>1</code></auth>";
+
+        assertValue("000000", "/auth/mfa/@code", body, XML);
+        assertValue("000000", "$.auth.mfa.@code", body, XML);
+        assertValue("sms", "//mfa/@type", body, XML);
+        assertReplaced("<auth><mfa type='sms' code=\"a&amp;b\"/><code>1</code></auth>", "/auth/mfa/@code", body, XML, "a&b");
+        assertNotFound("/auth/@code", body, XML);
+        // Attributes exist only in XML
+        assertNotFound("$.auth.@code", "{\"auth\":{\"code\":\"1\"}}", JSON);
+    }
+
+    @Test
+    void readsCdataEntitiesAndPrefixedNames() {
+        String body = "<s:Envelope xmlns:s=\"urn:s\"><s:Body><code><![CDATA[12<34]]></code>"
+                + "<session>a&amp;b&#x41;&#66;&lt;&unknown;</session></s:Body></s:Envelope>";
+
+        assertValue("12<34", "/Envelope/Body/code", body, XML);
+        assertValue("a&bAB<&unknown;", "//session", body, XML);
+        assertReplaced(body.replace("<![CDATA[12<34]]>", "1&lt;2"), "//code", body, XML, "1<2");
+    }
+
+    @Test
+    void findsNothingInMalformedXml() {
+        assertNotFound("//code", "<auth><code attr=\"1>000000</code></auth>", XML);
+        assertNotFound("//code", "<auth><code attr=1>000000</code></auth>", XML);
+        assertNotFound("//code", "<auth><code", XML);
+        assertNotFound("//code", "<auth><code>000000", XML);
+        assertNotFound("//code", "<auth><code><![CDATA[000000</code></auth>", XML);
+    }
+
+    @Test
+    void rejectsInvalidSelectors() {
+        assertThrows(IllegalArgumentException.class, () -> new StructuredBodyRewriter(" "));
+        assertThrows(IllegalArgumentException.class, () -> new StructuredBodyRewriter("$"));
+        assertThrows(IllegalArgumentException.class, () -> new StructuredBodyRewriter("$.items[0"));
+        assertThrows(IllegalArgumentException.class, () -> new StructuredBodyRewriter("$.items[x]"));
+        assertThrows(IllegalArgumentException.class, () -> new StructuredBodyRewriter("/auth/@mfa/code"));
+        assertThrows(IllegalArgumentException.class, () -> new StructuredBodyRewriter("$.auth.@"));
+    }
+
+    private static void assertValue(String expected, String selector, String body, String contentType) {
+        StructuredBodyRewriter rewriter = new StructuredBodyRewriter(selector);
+        byte[] bytes = bytes(body);
+        StructuredBodyRewriter.Match match = rewriter.find(bytes, contentType);
+        assertNotNull(match, () -> selector + " found nothing in " + body);
+        assertEquals(expected, rewriter.value(bytes, match), selector);
+    }
+
+    private static void assertReplaced(String expected, String selector, String body, String contentType) {
+        assertReplaced(expected, selector, body, contentType, OTP);
+    }
+
+    private static void assertReplaced(String expected, String selector, String body, String contentType, String value) {
+        StructuredBodyRewriter rewriter = new StructuredBodyRewriter(selector);
+        byte[] bytes = bytes(body);
+        StructuredBodyRewriter.Match match = rewriter.find(bytes, contentType);
+        assertNotNull(match, () -> selector + " found nothing in " + body);
+        assertEquals(expected, new String(rewriter.replace(bytes, match, value), StandardCharsets.UTF_8), selector);
+    }
+
+    private static void assertNotFound(String selector, String body, String contentType) {
+        assertNull(new StructuredBodyRewriter(selector).find(bytes(body), contentType), () -> selector + " matched in " + body);
+    }
+
+    private static byte[] bytes(String body) {
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+}